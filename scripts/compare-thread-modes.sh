@@ -0,0 +1,60 @@
+#!/usr/bin/env bash
+# Compare platform vs virtual job/writer threads under N concurrent uploads.
+#
+# Starts the packaged app once per mode, fires N concurrent CSV uploads, waits until
+# every job is finished and prints wall time, peak live JVM threads and job outcomes.
+# Needs a running PostgreSQL (see README), curl and jq, and `mvn package -DskipTests`.
+#
+#   scripts/compare-thread-modes.sh [uploads=50] [file=sample-data/customers.csv] [dataType=CUSTOMERS]
+set -euo pipefail
+
+UPLOADS=${1:-50}
+FILE=${2:-sample-data/customers.csv}
+DATA_TYPE=${3:-CUSTOMERS}
+PORT=${PORT:-8080}
+BASE="http://localhost:${PORT}"
+JAR=$(ls target/csv-upload-api-*.jar | head -1)
+
+metric() {
+  curl -s "${BASE}/actuator/metrics/$1" | jq -r '.measurements[0].value'
+}
+
+run_mode() {
+  local virtual=$1
+  java -jar "$JAR" --server.port="$PORT" --app.threads.virtual="$virtual" \
+       --app.scheduler.max-queued-per-submitter="$UPLOADS" > "target/compare-virtual-${virtual}.log" 2>&1 &
+  local pid=$!
+
+  until curl -sf "${BASE}/actuator/health" > /dev/null; do sleep 1; done
+
+  local start ids peak=0
+  start=$(date +%s.%N)
+  ids=$(seq "$UPLOADS" | xargs -P "$UPLOADS" -I{} curl -s -X POST "${BASE}/api/v1/upload/csv" \
+          -H "X-Submitter: bench" -F "file=@${FILE}" -F "dataType=${DATA_TYPE}" | jq -r '.data.jobId')
+
+  local pending
+  while :; do
+    peak=$(printf '%s\n%s\n' "$peak" "$(metric jvm.threads.live)" | sort -g | tail -1)
+    pending=0
+    for id in $ids; do
+      status=$(curl -s "${BASE}/api/v1/upload/jobs/${id}" | jq -r '.data.status')
+      [[ "$status" == "PENDING" || "$status" == "PROCESSING" ]] && pending=$((pending + 1))
+    done
+    [[ $pending -eq 0 ]] && break
+    sleep 0.5
+  done
+  local elapsed
+  elapsed=$(echo "$(date +%s.%N) - $start" | bc)
+
+  local statuses
+  statuses=$(for id in $ids; do curl -s "${BASE}/api/v1/upload/jobs/${id}" | jq -r '.data.status'; done \
+             | sort | uniq -c | tr '\n' ' ')
+  printf '%-9s uploads=%d wall=%.1fs peakThreads=%s jobs=[%s]\n' \
+         "$([[ $virtual == true ]] && echo virtual || echo platform)" "$UPLOADS" "$elapsed" "$peak" "$statuses"
+
+  kill "$pid"
+  wait "$pid" 2>/dev/null || true
+}
+
+run_mode false
+run_mode true
@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+# Start N instances against one PostgreSQL in cluster mode, sharing one staging directory.
+#
+# Each instance listens on PORT+i, claims work from job_segments and keeps its own
+# dictionary snapshot and spill directories. Upload to any port; watch the logs to see
+# segments of one file picked up by different nodes. Ctrl-C stops every instance
+# (each releases its unfinished segments for the others).
+# Needs a running PostgreSQL (see README) and `mvn package -DskipTests`.
+#
+#   scripts/run-local-cluster.sh [instances=3] [staging-dir=target/cluster/staging]
+set -euo pipefail
+
+INSTANCES=${1:-3}
+STAGING=${2:-target/cluster/staging}
+PORT=${PORT:-8080}
+SEGMENT_BYTES=${SEGMENT_BYTES:-67108864}
+JAR=$(ls target/csv-upload-api-*.jar | head -1)
+
+mkdir -p "$STAGING"
+pids=()
+trap 'kill "${pids[@]}" 2>/dev/null; wait' INT TERM EXIT
+
+for i in $(seq 0 $((INSTANCES - 1))); do
+  node="node-$i"
+  java -jar "$JAR" --server.port=$((PORT + i)) \
+       --app.cluster.enabled=true --app.cluster.node-id="$node" \
+       --app.cluster.segment-bytes="$SEGMENT_BYTES" \
+       --app.upload.staging-dir="$STAGING" \
+       --app.dictionary.snapshot-dir="target/cluster/$node/dictionary" \
+       --app.orders.sort.spill-dir="target/cluster/$node/sort" \
+       --app.bundle.spill-dir="target/cluster/$node/parked" \
+       > "target/cluster-$node.log" 2>&1 &
+  pids+=($!)
+  echo "$node on port $((PORT + i)), log target/cluster-$node.log"
+done
+
+wait
@@ -0,0 +1,65 @@
+#!/usr/bin/env bash
+# Query latency while many clients upload slowly: multipart (blocking) vs raw body (non-blocking).
+#
+# Starts the packaged app with a small request thread pool, then for each upload mode
+# opens N uploads throttled to RATE bytes/s and samples GET /api/v1/data/summary while
+# they are in flight. Prints p50/p95/max query latency idle and under each mode. With
+# multipart uploads every slow client holds a request thread, so queries wait for one;
+# with raw-body uploads the threads are released and latency should stay flat.
+# Needs a running PostgreSQL (see README), curl, and `mvn package -DskipTests`.
+#
+#   scripts/slow-upload-latency.sh [uploads=100] [file=sample-data/customers.csv] [dataType=CUSTOMERS]
+set -euo pipefail
+
+UPLOADS=${1:-100}
+FILE=${2:-sample-data/customers.csv}
+DATA_TYPE=${3:-CUSTOMERS}
+PORT=${PORT:-8080}
+RATE=${RATE:-64}                    # bytes per second per upload
+THREADS=${THREADS:-20}              # server.tomcat.threads.max
+SAMPLES=${SAMPLES:-50}
+BASE="http://localhost:${PORT}"
+JAR=$(ls target/csv-upload-api-*.jar | head -1)
+
+java -jar "$JAR" --server.port="$PORT" --server.tomcat.threads.max="$THREADS" \
+     --server.tomcat.max-connections=$((UPLOADS + 100)) \
+     --app.scheduler.max-queued-per-submitter="$((UPLOADS * 2))" > target/slow-upload-latency.log 2>&1 &
+pid=$!
+uploads=()
+trap 'kill "${uploads[@]}" "$pid" 2>/dev/null; wait 2>/dev/null' INT TERM EXIT
+
+until curl -sf "${BASE}/actuator/health" > /dev/null; do sleep 1; done
+
+# Print "label p50 p95 max" (ms) over SAMPLES sequential queries
+sample() {
+  for _ in $(seq "$SAMPLES"); do
+    curl -s -o /dev/null -w '%{time_total}\n' --max-time 60 "${BASE}/api/v1/data/summary"
+  done | sort -g | awk -v label="$1" '{ t[NR] = $1 * 1000 }
+      END { printf "%-10s p50=%7.1fms p95=%7.1fms max=%7.1fms\n", label,
+            t[int(NR * 0.5)], t[int(NR * 0.95)], t[NR] }'
+}
+
+slow_uploads() {
+  local mode=$1
+  uploads=()
+  for i in $(seq "$UPLOADS"); do
+    if [[ $mode == multipart ]]; then
+      curl -s -o /dev/null --limit-rate "$RATE" -X POST "${BASE}/api/v1/upload/csv" \
+           -H "X-Submitter: slow-$i" -F "file=@${FILE}" -F "dataType=${DATA_TYPE}" &
+    else
+      curl -s -o /dev/null --limit-rate "$RATE" -X POST \
+           "${BASE}/api/v1/upload/csv?dataType=${DATA_TYPE}&fileName=$(basename "$FILE")" \
+           -H "X-Submitter: slow-$i" -H "Content-Type: text/csv" --data-binary "@${FILE}" &
+    fi
+    uploads+=($!)
+  done
+  sleep 2   # let every connection open
+}
+
+sample idle
+for mode in multipart raw; do
+  slow_uploads "$mode"
+  sample "$mode"
+  kill "${uploads[@]}" 2>/dev/null || true
+  wait "${uploads[@]}" 2>/dev/null || true
+done
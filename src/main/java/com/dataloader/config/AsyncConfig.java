@@ -1,5 +1,7 @@
 package com.dataloader.config;
 
+import com.dataloader.util.VirtualThreadExecutor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -8,24 +10,43 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
 
+/**
+ * Job and writer executors. The default is platform-thread pools; with
+ * {@code app.threads.virtual=true} both run on virtual threads instead, bounded by
+ * semaphores sized from the Hikari pool so jobs plus writer lanes never need more
+ * connections than the pool has.
+ */
 @Configuration
+@Slf4j
 public class AsyncConfig implements AsyncConfigurer {
 
-    @Value("${app.async.core-pool-size:4}")
-    private int corePoolSize;
+    @Value("${app.scheduler.max-concurrent-jobs:8}")
+    private int maxConcurrentJobs;
 
-    @Value("${app.async.max-pool-size:8}")
-    private int maxPoolSize;
+    @Value("${app.async.writer-pool-size:8}")
+    private int writerPoolSize;
 
-    @Value("${app.async.queue-capacity:100}")
-    private int queueCapacity;
+    @Value("${app.threads.virtual:false}")
+    private boolean virtualThreads;
 
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    @Value("${app.upload.async.io-threads:4}")
+    private int uploadIoThreads;
+
+    /**
+     * One thread per job slot. Queueing and admission are done by JobScheduler, which
+     * never hands over more than {@code max-concurrent-jobs} tasks at once.
+     */
     @Bean(name = "fileProcessingExecutor")
     public Executor fileProcessingExecutor() {
+        if (virtualThreads) {
+            return new VirtualThreadExecutor("FileProcessor-", virtualJobPermits(), 60_000);
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(corePoolSize);
-        executor.setMaxPoolSize(maxPoolSize);
-        executor.setQueueCapacity(queueCapacity);
+        executor.setCorePoolSize(maxConcurrentJobs);
+        executor.setMaxPoolSize(maxConcurrentJobs);
         executor.setThreadNamePrefix("FileProcessor-");
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.setAwaitTerminationSeconds(60);
@@ -33,6 +54,63 @@ public class AsyncConfig implements AsyncConfigurer {
         return executor;
     }
 
+    /**
+     * Writer lanes shared by all jobs whose load plan asks for parallel batches.
+     * Each job bounds its own in-flight batches, so the queue only absorbs bursts.
+     */
+    @Bean(name = "batchWriterExecutor")
+    public Executor batchWriterExecutor() {
+        if (virtualThreads) {
+            // Each running job may hold a connection itself; writers get the rest of the pool
+            int writerPermits = Math.max(1, connectionPoolSize - virtualJobPermits());
+            log.info("Virtual threads enabled: {} job permits, {} writer permits, {} connections",
+                    virtualJobPermits(), writerPermits, connectionPoolSize);
+            return new VirtualThreadExecutor("BatchWriter-", writerPermits, 60_000);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(writerPoolSize);
+        executor.setMaxPoolSize(writerPoolSize);
+        executor.setThreadNamePrefix("BatchWriter-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * CPU-only lanes for dry-run validation: one thread per core, no database work.
+     * Dry runs bound their own in-flight batches, so the queue only absorbs bursts.
+     */
+    @Bean(name = "validationExecutor")
+    public Executor validationExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(cores);
+        executor.setMaxPoolSize(cores);
+        executor.setThreadNamePrefix("Validator-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Completion handlers of non-blocking uploads (file writes, then staging the job).
+     * Tasks are short; no thread waits on a client.
+     */
+    @Bean(name = "uploadIoExecutor")
+    public ThreadPoolTaskExecutor uploadIoExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(uploadIoThreads);
+        executor.setMaxPoolSize(uploadIoThreads);
+        executor.setThreadNamePrefix("UploadIO-");
+        executor.initialize();
+        return executor;
+    }
+
+    /** Running jobs, capped so at least one connection is always left for writer lanes. */
+    private int virtualJobPermits() {
+        return Math.max(1, Math.min(maxConcurrentJobs, connectionPoolSize - 1));
+    }
+
     @Override
     public Executor getAsyncExecutor() {
         return fileProcessingExecutor();
@@ -3,20 +3,53 @@ package com.dataloader.controller;
 //import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 
 import com.dataloader.dto.ApiResponse;
+import com.dataloader.dto.DryRunReport;
+import com.dataloader.dto.IngestStreamResponse;
 import com.dataloader.dto.UploadJobResponse;
+import com.dataloader.dto.UploadSessionResponse;
+import com.dataloader.exception.GlobalExceptionHandler;
 import com.dataloader.model.UploadJob;
+import com.dataloader.service.BundleUploadService;
+import com.dataloader.service.ChunkedUploadService;
+import com.dataloader.service.DryRunService;
 import com.dataloader.service.FileUploadService;
+import com.dataloader.service.JobProgressStreamer;
+import com.dataloader.service.JobScheduler;
+import com.dataloader.service.SmallUploadCoalescer;
+import com.dataloader.service.StreamIngestService;
 import com.dataloader.service.UploadJobService;
+import com.dataloader.util.NonBlockingBodyReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -24,58 +57,299 @@ import java.util.UUID;
 @Slf4j
 public class FileUploadController {
 
+    /** Identifies the team or client an upload belongs to, for fair scheduling. */
+    private static final String SUBMITTER_HEADER = "X-Submitter";
+
+    private static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-SHA256";
+
+    /** Client-chosen key; a retry with the same key gets the original job back. */
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    private static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 200;
+
     private final FileUploadService fileUploadService;
     private final UploadJobService  uploadJobService;
+    private final BundleUploadService bundleUploadService;
+    private final JobProgressStreamer progressStreamer;
+    private final JobScheduler jobScheduler;
+    private final ChunkedUploadService chunkedUploadService;
+    private final DryRunService dryRunService;
+    private final StreamIngestService streamIngestService;
+    private final SmallUploadCoalescer smallUploads;
+    private final GlobalExceptionHandler exceptionHandler;
+    private final ObjectMapper objectMapper;
+    private final ThreadPoolTaskExecutor uploadIoExecutor;
+
+    @Value("${app.upload.async.max-bytes:2147483648}")
+    private long maxBodyBytes;
 
-    public FileUploadController(FileUploadService fileUploadService, UploadJobService uploadJobService) {
+    @Value("${app.upload.async.timeout-ms:3600000}")
+    private long bodyTimeoutMs;
+
+    public FileUploadController(FileUploadService fileUploadService, UploadJobService uploadJobService,
+                                BundleUploadService bundleUploadService, JobProgressStreamer progressStreamer,
+                                JobScheduler jobScheduler, ChunkedUploadService chunkedUploadService,
+                                DryRunService dryRunService, StreamIngestService streamIngestService,
+                                SmallUploadCoalescer smallUploads,
+                                GlobalExceptionHandler exceptionHandler, ObjectMapper objectMapper,
+                                @Qualifier("uploadIoExecutor") ThreadPoolTaskExecutor uploadIoExecutor) {
 		super();
 		this.fileUploadService = fileUploadService;
 		this.uploadJobService = uploadJobService;
+		this.bundleUploadService = bundleUploadService;
+		this.progressStreamer = progressStreamer;
+		this.jobScheduler = jobScheduler;
+		this.chunkedUploadService = chunkedUploadService;
+		this.dryRunService = dryRunService;
+		this.streamIngestService = streamIngestService;
+		this.smallUploads = smallUploads;
+		this.exceptionHandler = exceptionHandler;
+		this.objectMapper = objectMapper;
+		this.uploadIoExecutor = uploadIoExecutor;
 	}
 
 	// -------------------------------------------------------
     // CSV UPLOAD
     // -------------------------------------------------------
     @PostMapping(value = "/csv", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ApiResponse<UploadJobResponse>> uploadCsv(
+    public ResponseEntity<? extends ApiResponse<?>> uploadCsv(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("dataType") FileUploadService.DataType dataType) {
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws IOException {
 
         validateFile(file, "text/csv", ".csv");
+        if (dryRun) return dryRun(file, dataType, UploadJob.FileType.CSV);
 
-        UploadJob job = fileUploadService.initiateUpload(file, dataType, UploadJob.FileType.CSV);
+        // A retry of an accepted request is answered before admission and staging
+        String key = idempotencyKey(idempotencyKey);
+        LocalDateTime deadline = deadline(deadlineSeconds);
+        Optional<UploadJob> replayed = uploadJobService.findByIdempotencyKey(key);
+        if (replayed.isPresent()) return existing(replayed.get());
 
-        Path path = Paths.get("uploads")
-                .resolve(job.getJobId() + "_" + file.getOriginalFilename());
-        // Process asynchronously - returns immediately with job ID
-        fileUploadService.processCsvAsync(job.getJobId(), path, dataType);
+        // Rejected with 429 before the file is loaded or staged when the queue is full
+        JobScheduler.JobRequest request = JobScheduler.JobRequest.of(submitter, priority);
+        // The reserved slot is taken by the queued job, or given back if the request ends otherwise
+        try (JobScheduler.Admission admission = jobScheduler.admit(request)) {
+            // Tiny files are loaded in the request, together with other small uploads
+            ResponseEntity<? extends ApiResponse<?>> inline =
+                    loadSmall(file, dataType, UploadJob.FileType.CSV, key, deadline);
+            if (inline != null) return inline;
 
-        return ResponseEntity.status(HttpStatus.ACCEPTED)
-                .body(ApiResponse.success(
-                        "File accepted for processing. Track progress using the jobId.",
-                        UploadJobResponse.from(job)));
+            FileUploadService.StagedUpload staged =
+                    fileUploadService.initiateUpload(file, dataType, UploadJob.FileType.CSV, key);
+            if (staged.existing()) return existing(staged.job());
+            UploadJob job = staged.job();
+            if (deadline != null) uploadJobService.setDeadline(job.getJobId(), deadline);
+
+            // Process asynchronously - returns immediately with job ID
+            fileUploadService.scheduleProcessing(job, request);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success(
+                            "File accepted for processing. Track progress using the jobId.",
+                            UploadJobResponse.from(job)));
+        }
     }
 
     // -------------------------------------------------------
     // JSON UPLOAD
     // -------------------------------------------------------
     @PostMapping(value = "/json", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ApiResponse<UploadJobResponse>> uploadJson(
+    public ResponseEntity<? extends ApiResponse<?>> uploadJson(
             @RequestParam("file") MultipartFile file,
-            @RequestParam("dataType") FileUploadService.DataType dataType) {
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "dryRun", defaultValue = "false") boolean dryRun,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) throws IOException {
 
         validateFile(file, "application/json", ".json");
+        if (dryRun) return dryRun(file, dataType, UploadJob.FileType.JSON);
+
+        String key = idempotencyKey(idempotencyKey);
+        LocalDateTime deadline = deadline(deadlineSeconds);
+        Optional<UploadJob> replayed = uploadJobService.findByIdempotencyKey(key);
+        if (replayed.isPresent()) return existing(replayed.get());
+
+        JobScheduler.JobRequest request = JobScheduler.JobRequest.of(submitter, priority);
+        try (JobScheduler.Admission admission = jobScheduler.admit(request)) {
+            ResponseEntity<? extends ApiResponse<?>> inline =
+                    loadSmall(file, dataType, UploadJob.FileType.JSON, key, deadline);
+            if (inline != null) return inline;
+
+            FileUploadService.StagedUpload staged =
+                    fileUploadService.initiateUpload(file, dataType, UploadJob.FileType.JSON, key);
+            if (staged.existing()) return existing(staged.job());
+            UploadJob job = staged.job();
+            if (deadline != null) uploadJobService.setDeadline(job.getJobId(), deadline);
+
+            fileUploadService.scheduleProcessing(job, request);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success(
+                            "File accepted for processing. Track progress using the jobId.",
+                            UploadJobResponse.from(job)));
+        }
+    }
+
+    // -------------------------------------------------------
+    // RAW-BODY UPLOADS (non-blocking)
+    // -------------------------------------------------------
+    /**
+     * The file as the raw request body instead of a multipart form. The body is read with
+     * non-blocking I/O, so no request thread is held while a slow client sends it; the
+     * response is written once the file is staged.
+     */
+    @PostMapping(value = "/csv", consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<? extends ApiResponse<?>> uploadCsvBody(
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam(value = "fileName", defaultValue = "upload.csv") String fileName,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            HttpServletRequest request) throws IOException {
+
+        return receiveBody(request, fileName, dataType, UploadJob.FileType.CSV, priority, deadlineSeconds, submitter,
+                idempotencyKey);
+    }
 
-        UploadJob job = fileUploadService.initiateUpload(file, dataType, UploadJob.FileType.JSON);
+    @PostMapping(value = "/json", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<? extends ApiResponse<?>> uploadJsonBody(
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam(value = "fileName", defaultValue = "upload.json") String fileName,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            HttpServletRequest request) throws IOException {
 
-        Path path = Paths.get("uploads")
-                .resolve(job.getJobId() + "_" + file.getOriginalFilename());
-        fileUploadService.processJsonAsync(job.getJobId(), path, dataType);
+        return receiveBody(request, fileName, dataType, UploadJob.FileType.JSON, priority, deadlineSeconds, submitter,
+                idempotencyKey);
+    }
+
+    // -------------------------------------------------------
+    // BUNDLE UPLOAD (customers + products + orders)
+    // -------------------------------------------------------
+    @PostMapping(value = "/bundle", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ApiResponse<List<UploadJobResponse>>> uploadBundle(
+            @RequestParam(value = "customers", required = false) MultipartFile customers,
+            @RequestParam(value = "products", required = false) MultipartFile products,
+            @RequestParam(value = "orders", required = false) MultipartFile orders,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter) {
+
+        LocalDateTime deadline = deadline(deadlineSeconds);
+        Map<FileUploadService.DataType, MultipartFile> files = new EnumMap<>(FileUploadService.DataType.class);
+        if (customers != null) files.put(FileUploadService.DataType.CUSTOMERS, customers);
+        if (products != null)  files.put(FileUploadService.DataType.PRODUCTS, products);
+        if (orders != null)    files.put(FileUploadService.DataType.ORDERS, orders);
+
+        // One slot per job the bundle creates
+        JobScheduler.JobRequest request = JobScheduler.JobRequest.of(submitter, priority);
+        try (JobScheduler.Admission admission = jobScheduler.admit(request, Math.max(1, files.size()))) {
+            List<UploadJob> jobs = bundleUploadService.initiateBundle(files);
+            if (deadline != null) jobs.forEach(job -> uploadJobService.setDeadline(job.getJobId(), deadline));
+            bundleUploadService.processBundle(jobs, request);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success(
+                            "Bundle accepted for processing. Track progress using the bundleId or each jobId.",
+                            jobs.stream().map(UploadJobResponse::from).toList()));
+        }
+    }
+
+    @GetMapping("/bundles/{bundleId}")
+    public ResponseEntity<ApiResponse<List<UploadJobResponse>>> getBundleStatus(
+            @PathVariable UUID bundleId) {
+
+        List<UploadJobResponse> response = uploadJobService.getBundleStatus(bundleId);
+        return ResponseEntity.ok(ApiResponse.success("Bundle status retrieved", response));
+    }
 
+    // -------------------------------------------------------
+    // CHUNKED UPLOAD SESSIONS
+    // -------------------------------------------------------
+    @PostMapping("/sessions")
+    public ResponseEntity<ApiResponse<UploadSessionResponse>> createSession(
+            @RequestParam("fileName") String fileName,
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam("totalSize") long totalSize,
+            @RequestParam(value = "chunkSize", required = false) Integer chunkSize,
+            @RequestParam(value = "priority", required = false) JobScheduler.JobPriority priority,
+            @RequestParam(value = "deadlineSeconds", required = false) Long deadlineSeconds,
+            @RequestHeader(value = SUBMITTER_HEADER, required = false) String submitter) {
+
+        LocalDateTime deadline = deadline(deadlineSeconds);
+        UploadSessionResponse session = chunkedUploadService.createSession(fileName, dataType, totalSize, chunkSize,
+                JobScheduler.JobRequest.of(submitter, priority));
+        if (deadline != null) uploadJobService.setDeadline(session.getJobId(), deadline);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(ApiResponse.success("Upload session created. PUT each chunk, then commit.", session));
+    }
+
+    /** Raw chunk bytes; {@code X-Chunk-SHA256} is the hex SHA-256 of the body. */
+    @PutMapping(value = "/sessions/{sessionId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<ApiResponse<UploadSessionResponse>> putChunk(
+            @PathVariable UUID sessionId,
+            @PathVariable int index,
+            @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String sha256,
+            InputStream body) {
+
+        UploadSessionResponse session = chunkedUploadService.putChunk(sessionId, index, sha256, body);
+        return ResponseEntity.ok(ApiResponse.success("Chunk " + index + " stored", session));
+    }
+
+    /** Session progress, including the indexes of chunks still missing. */
+    @GetMapping("/sessions/{sessionId}")
+    public ResponseEntity<ApiResponse<UploadSessionResponse>> getSession(@PathVariable UUID sessionId) {
+        return ResponseEntity.ok(ApiResponse.success("Upload session retrieved",
+                chunkedUploadService.getSession(sessionId)));
+    }
+
+    @PostMapping("/sessions/{sessionId}/commit")
+    public ResponseEntity<ApiResponse<UploadJobResponse>> commitSession(@PathVariable UUID sessionId) {
+        UploadJobResponse job = chunkedUploadService.commit(sessionId);
         return ResponseEntity.status(HttpStatus.ACCEPTED)
-                .body(ApiResponse.success(
-                        "File accepted for processing. Track progress using the jobId.",
-                        UploadJobResponse.from(job)));
+                .body(ApiResponse.success("Upload committed. Track progress using the jobId.", job));
+    }
+
+    // -------------------------------------------------------
+    // NDJSON INGESTION STREAMS
+    // -------------------------------------------------------
+    /**
+     * Long-lived chunked request, one JSON record per line, for as long as the producer
+     * keeps sending. The response is NDJSON as well: one line per committed micro-batch
+     * with the stream's committed offset, then a last line with the connection's status.
+     * {@code offset} is the stream offset of the first record in this request.
+     */
+    @PostMapping(value = "/streams/{streamId}", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public void ingestStream(
+            @PathVariable String streamId,
+            @RequestParam("dataType") FileUploadService.DataType dataType,
+            @RequestParam(value = "offset", defaultValue = "0") long offset,
+            InputStream body,
+            HttpServletResponse response) throws IOException {
+
+        StreamIngestService.Connection connection = streamIngestService.open(streamId, dataType, offset);
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        // Send the headers now so the client can read acknowledgements while it is still sending
+        response.flushBuffer();
+        connection.run(body, response.getOutputStream());
+    }
+
+    /** Committed offset of a stream: where a producer resumes after a disconnect. */
+    @GetMapping("/streams/{streamId}")
+    public ResponseEntity<ApiResponse<IngestStreamResponse>> getStream(@PathVariable String streamId) {
+        return ResponseEntity.ok(ApiResponse.success("Stream retrieved", streamIngestService.getStream(streamId)));
     }
 
     // -------------------------------------------------------
@@ -89,9 +363,233 @@ public class FileUploadController {
         return ResponseEntity.ok(ApiResponse.success("Job status retrieved", response));
     }
 
+    /**
+     * Cancel a job: {@code 200} when it had not started and is now CANCELLED, {@code 202}
+     * when it is running and stops after its current batch, {@code 409} when it had
+     * already finished.
+     */
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<? extends ApiResponse<?>> cancelJob(@PathVariable UUID jobId) {
+        FileUploadService.CancelOutcome outcome = fileUploadService.cancel(jobId);
+        UploadJobResponse status = uploadJobService.getJobStatus(jobId);
+        return switch (outcome) {
+            case CANCELLED -> ResponseEntity.ok(ApiResponse.success("Job cancelled", status));
+            case STOPPING -> ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(ApiResponse.success("Cancellation requested; the job stops after its current batch.", status));
+            case FINISHED -> ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(ApiResponse.error("Conflict", "Job " + jobId + " has already finished ("
+                            + status.getStatus() + ")."));
+        };
+    }
+
+    /** Server-Sent Events: one {@code progress} event per second until the job finishes. */
+    @GetMapping(value = "/jobs/{jobId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamJobProgress(@PathVariable UUID jobId) {
+        return progressStreamer.subscribe(jobId);
+    }
+
     // -------------------------------------------------------
     // PRIVATE HELPERS
     // -------------------------------------------------------
+    /**
+     * Replays and admission are answered synchronously; then the request goes async, the
+     * body is streamed to a staging file by {@link NonBlockingBodyReader}, and the job is
+     * created and the response written on the upload I/O executor. Returns null in that
+     * case: the response is written by the callbacks, not by Spring MVC.
+     */
+    private ResponseEntity<? extends ApiResponse<?>> receiveBody(
+            HttpServletRequest request, String fileName, FileUploadService.DataType dataType,
+            UploadJob.FileType fileType, JobScheduler.JobPriority priority, Long deadlineSeconds, String submitter,
+            String idempotencyKey) throws IOException {
+
+        String key = idempotencyKey(idempotencyKey);
+        LocalDateTime deadline = deadline(deadlineSeconds);
+        Optional<UploadJob> replayed = uploadJobService.findByIdempotencyKey(key);
+        if (replayed.isPresent()) return existing(replayed.get());
+
+        // Chunked bodies are refused: the size is checked before anything is read, and the
+        // connector's non-blocking chunk decoding is not reliable (Tomcat 10.1.19)
+        long contentLength = request.getContentLengthLong();
+        if (contentLength < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED)
+                    .body(ApiResponse.error("Length Required", "Send the file with a Content-Length header."));
+        }
+        if (contentLength > maxBodyBytes) throw new MaxUploadSizeExceededException(maxBodyBytes);
+
+        JobScheduler.JobRequest jobRequest = JobScheduler.JobRequest.of(submitter, priority);
+        JobScheduler.Admission admission = jobScheduler.admit(jobRequest);
+        try {
+            return readBody(request, fileName, dataType, fileType, key, deadline, jobRequest, admission);
+        } catch (IOException | RuntimeException e) {
+            admission.close();
+            throw e;
+        }
+    }
+
+    /** Reads the body admitted above; the admission is closed once the request has its answer. */
+    private ResponseEntity<? extends ApiResponse<?>> readBody(
+            HttpServletRequest request, String fileName, FileUploadService.DataType dataType,
+            UploadJob.FileType fileType, String key, LocalDateTime deadline, JobScheduler.JobRequest jobRequest,
+            JobScheduler.Admission admission) throws IOException {
+
+        Path incoming = fileUploadService.incomingPath();
+        AsyncContext async = request.startAsync();
+        async.setTimeout(bodyTimeoutMs);
+        AtomicBoolean answered = new AtomicBoolean();
+        NonBlockingBodyReader reader = NonBlockingBodyReader.read(async, incoming, maxBodyBytes,
+                uploadIoExecutor.getThreadPoolExecutor());
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                answer(async, answered, ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT)
+                        .body(ApiResponse.error("Request Timeout", "The upload did not finish within "
+                                + bodyTimeoutMs + " ms.")));
+                abandon(reader, incoming, "Upload timed out");
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // The client is gone: nobody to answer, and no job is created for it
+                if (answered.compareAndSet(false, true)) async.complete();
+                abandon(reader, incoming, "Upload connection failed");
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        reader.result()
+                .thenApplyAsync(received -> {
+                    // Timed out (408 already sent) between the last byte and here
+                    if (answered.get()) throw new CancellationException("Upload timed out");
+                    if (received.bytes() == 0) throw new IllegalArgumentException("Uploaded file is empty or missing.");
+                    FileUploadService.StagedUpload staged = fileUploadService.initiateUpload(
+                            received.file(), received.sha256(), fileName, dataType, fileType, key);
+                    if (staged.existing()) return existing(staged.job());
+
+                    // Take the response before queueing, so a timeout from here on cannot 408 a scheduled job
+                    if (!answered.compareAndSet(false, true)) {
+                        fileUploadService.cancel(staged.job().getJobId());
+                        throw new CancellationException("Upload timed out");
+                    }
+                    try {
+                        if (deadline != null) uploadJobService.setDeadline(staged.job().getJobId(), deadline);
+                        fileUploadService.scheduleProcessing(staged.job(), jobRequest);
+                        respond(async, ResponseEntity.status(HttpStatus.ACCEPTED)
+                                .body(ApiResponse.success(
+                                        "File accepted for processing. Track progress using the jobId.",
+                                        UploadJobResponse.from(staged.job()))));
+                    } catch (RuntimeException e) {
+                        respond(async, exceptionHandler.toResponse(e));
+                    }
+                    return null;
+                }, uploadIoExecutor)
+                .whenComplete((response, error) -> {
+                    admission.close();
+                    if (error != null) {
+                        deleteQuietly(incoming);
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        answer(async, answered, exceptionHandler.toResponse(cause));
+                    } else if (response != null) {
+                        answer(async, answered, response);
+                    }
+                });
+        return null;
+    }
+
+    /** Write {@code response} on an async request and complete it, unless it was already answered. */
+    private void answer(AsyncContext async, AtomicBoolean answered, ResponseEntity<?> response) {
+        if (!answered.compareAndSet(false, true)) return;
+        respond(async, response);
+    }
+
+    /** Write {@code response} on an async request and complete it; the caller owns the answer. */
+    private void respond(AsyncContext async, ResponseEntity<?> response) {
+        try {
+            HttpServletResponse servletResponse = (HttpServletResponse) async.getResponse();
+            servletResponse.setStatus(response.getStatusCode().value());
+            response.getHeaders().forEach((name, values) -> values.forEach(v -> servletResponse.addHeader(name, v)));
+            servletResponse.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(servletResponse.getOutputStream(), response.getBody());
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not answer upload request: {}", e.getMessage());
+        } finally {
+            async.complete();
+        }
+    }
+
+    /** Stop reading an upload nobody will get an answer for, and drop its partial file. */
+    private void abandon(NonBlockingBodyReader reader, Path incoming, String reason) {
+        reader.cancel(reason);
+        deleteQuietly(incoming);
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * The finished job of a small upload loaded through {@link SmallUploadCoalescer}, or
+     * null when the file is to be staged: too large, could not be parsed inline, or given a
+     * deadline (only the scheduled path enforces one).
+     */
+    private ResponseEntity<? extends ApiResponse<?>> loadSmall(MultipartFile file,
+            FileUploadService.DataType dataType, UploadJob.FileType fileType, String key,
+            LocalDateTime deadline) throws IOException {
+        if (deadline != null || !smallUploads.accepts(file)) return null;
+        FileUploadService.StagedUpload loaded = smallUploads.load(file, dataType, fileType, key);
+        if (loaded == null) return null;
+        if (loaded.existing()) return existing(loaded.job());
+        return ResponseEntity.ok(ApiResponse.success("File processed.", UploadJobResponse.from(loaded.job())));
+    }
+
+    /** 200 with the current state of an earlier job, instead of 202 for new work. */
+    private ResponseEntity<ApiResponse<UploadJobResponse>> existing(UploadJob job) {
+        return ResponseEntity.ok()
+                .header(REPLAYED_HEADER, "true")
+                .body(ApiResponse.success(
+                        "Duplicate upload: returning the existing job (same Idempotency-Key, or same file already loaded).",
+                        uploadJobService.getJobStatus(job.getJobId())));
+    }
+
+    /** Absolute deadline {@code deadlineSeconds} from now, or null when none was asked for. */
+    private LocalDateTime deadline(Long deadlineSeconds) {
+        if (deadlineSeconds == null) return null;
+        if (deadlineSeconds <= 0) throw new IllegalArgumentException("deadlineSeconds must be positive.");
+        return LocalDateTime.now().plusSeconds(deadlineSeconds);
+    }
+
+    private String idempotencyKey(String header) {
+        if (header == null || header.isBlank()) return null;
+        String key = header.trim();
+        if (key.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new IllegalArgumentException(IDEMPOTENCY_KEY_HEADER + " must be at most "
+                    + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+        }
+        return key;
+    }
+
+    /** Validate only: no job, no staging, no writes; the report comes back in the response. */
+    private ResponseEntity<ApiResponse<DryRunReport>> dryRun(MultipartFile file, FileUploadService.DataType dataType,
+                                                             UploadJob.FileType fileType) throws IOException {
+        try (InputStream is = file.getInputStream()) {
+            DryRunReport report = dryRunService.run(is, file.getOriginalFilename(), dataType, fileType);
+            return ResponseEntity.ok(ApiResponse.success(
+                    "Dry run finished: " + report.getFailedRows() + " of " + report.getTotalRows() + " rows would fail.",
+                    report));
+        }
+    }
+
     private void validateFile(MultipartFile file, String contentType, String extension) {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("Uploaded file is empty or missing.");
@@ -0,0 +1,51 @@
+package com.dataloader.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Outcome of a validate-only run: what a real load of the file would reject, and why.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DryRunReport {
+
+    private String fileName;
+    private String dataType;
+    private long totalRows;
+    private long validRows;
+    private long failedRows;
+    private double failurePercent;
+    private long elapsedMs;
+    private long rowsPerSecond;
+
+    /** Most frequent reasons, most common first; a row with several problems counts once per reason. */
+    private List<ReasonCount> topReasons;
+
+    /** The first failing rows of the file with all their errors. */
+    private List<FailedRow> sampleFailures;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ReasonCount {
+        private String reason;
+        private long count;
+        private long firstRow;
+    }
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class FailedRow {
+        private long rowNumber;
+        private List<String> errors;
+        private Object row;
+    }
+}
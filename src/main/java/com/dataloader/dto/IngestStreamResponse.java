@@ -0,0 +1,27 @@
+package com.dataloader.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/** State of an NDJSON ingestion stream; also the shape of each acknowledgement line. */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestStreamResponse {
+
+    private String streamId;
+    private String dataType;
+    // Records [0, committedOffset) are written or rejected; resume by sending from here
+    private Long committedOffset;
+    private Long processedRows;
+    private Long failedRows;
+    // Set on the last line of a connection: COMPLETED, SHUTDOWN or FAILED
+    private String status;
+    private String error;
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,35 @@
+package com.dataloader.dto;
+
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * Point-in-time progress of a running job, pushed to progress stream subscribers.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class JobProgressSnapshot {
+
+    private UUID jobId;
+    private String status;
+    private String stage;
+
+    // Counters
+    private long rowsParsed;
+    private long rowsValidated;
+    private long rowsWritten;
+    private long rowsFailed;
+
+    // Derived
+    private long bytesRead;
+    private long fileSizeBytes;
+    private long estimatedTotalRows;
+    private double percentDone;
+    private double rowsPerSecond;
+    private Long etaSeconds;          // null until a rate is known
+    private long elapsedSeconds;
+}
@@ -0,0 +1,52 @@
+package com.dataloader.dto;
+
+import lombok.*;
+
+/**
+ * Load strategy chosen for a job before processing starts, together with the
+ * inputs the decision was based on (recorded on the job for auditing).
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class LoadPlan {
+
+    public enum Strategy {
+        /** Target table is empty: every key is new, all rows take the insert path. */
+        INSERT_ONLY,
+        /** Bloom filter routes definitely-new keys to insert, the rest to upsert. */
+        ROUTED,
+        /** Mostly existing keys (or filter not ready): everything takes the upsert path. */
+        UPSERT
+    }
+
+    // Decision
+    private Strategy strategy;
+    private int batchSize;
+    private int parallelism;
+    private String reason;
+    private boolean sortByKey;         // orders only: external sort by order number first
+
+    // Inputs
+    private long fileSizeBytes;
+    private int sampledRows;
+    private double avgRowBytes;
+    private long estimatedRows;
+    private Double newKeyFraction;     // null when the key filter is not ready
+    private boolean targetEmpty;
+    private long targetRowEstimate;
+    private int targetIndexCount;
+    private Boolean keysSorted;        // orders, AUTO only: order numbers never decrease over the whole file
+
+    /** Plan used when planning is disabled or fails: the pre-planner behaviour. */
+    public static LoadPlan fallback(int batchSize, String reason) {
+        return LoadPlan.builder()
+                .strategy(Strategy.ROUTED)
+                .batchSize(batchSize)
+                .parallelism(1)
+                .reason(reason)
+                .build();
+    }
+}
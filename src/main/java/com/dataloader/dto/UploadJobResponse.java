@@ -13,8 +13,10 @@ import java.util.UUID;
 public class UploadJobResponse {
 
     private UUID jobId;
+    private UUID bundleId;
     private String fileName;
     private String fileType;
+    private String dataType;
     private String status;
     private Long totalRows;
     private Long processedRows;
@@ -24,6 +26,10 @@ public class UploadJobResponse {
     private LocalDateTime completedAt;
     private LocalDateTime createdAt;
     private Double progressPercent;
+    private String loadStrategy;
+    private Integer plannedBatchSize;
+    private Integer plannedParallelism;
+    private Long estimatedRows;
 
     public static UploadJobResponse from(UploadJob job) {
         double progress = 0.0;
@@ -33,8 +39,10 @@ public class UploadJobResponse {
 
         return UploadJobResponse.builder()
                 .jobId(job.getJobId())
+                .bundleId(job.getBundleId())
                 .fileName(job.getFileName())
                 .fileType(job.getFileType() != null ? job.getFileType().name() : null)
+                .dataType(job.getDataType())
                 .status(job.getStatus() != null ? job.getStatus().name() : null)
                 .totalRows(job.getTotalRows())
                 .processedRows(job.getProcessedRows())
@@ -44,6 +52,10 @@ public class UploadJobResponse {
                 .completedAt(job.getCompletedAt())
                 .createdAt(job.getCreatedAt())
                 .progressPercent(Math.round(progress * 100.0) / 100.0)
+                .loadStrategy(job.getLoadStrategy())
+                .plannedBatchSize(job.getPlannedBatchSize())
+                .plannedParallelism(job.getPlannedParallelism())
+                .estimatedRows(job.getEstimatedRows())
                 .build();
     }
 }
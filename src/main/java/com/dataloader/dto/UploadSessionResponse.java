@@ -0,0 +1,26 @@
+package com.dataloader.dto;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UploadSessionResponse {
+
+    private UUID sessionId;
+    private UUID jobId;
+    private String fileName;
+    private String status;
+    private Long totalSize;
+    private Integer chunkSize;
+    private Integer chunkCount;
+    private Integer receivedChunks;
+    private Long contiguousBytes;
+    private List<Integer> missingChunks;
+    private Boolean processingStarted;
+}
@@ -2,6 +2,7 @@ package com.dataloader.exception;
 
 import com.dataloader.dto.ApiResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -45,12 +46,28 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error("File Too Large", "The uploaded file exceeds the maximum allowed size."));
     }
 
+    @ExceptionHandler(SchedulerSaturatedException.class)
+    public ResponseEntity<ApiResponse<Void>> handleSaturated(SchedulerSaturatedException ex) {
+        log.warn("Upload rejected: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(ApiResponse.error("Too Many Requests", ex.getMessage()));
+    }
+
     @ExceptionHandler(UnsupportedOperationException.class)
     public ResponseEntity<ApiResponse<Void>> handleUnsupported(UnsupportedOperationException ex) {
         return ResponseEntity.status(HttpStatus.NOT_IMPLEMENTED)
                 .body(ApiResponse.error("Not Supported", ex.getMessage()));
     }
 
+    /** Same mapping, for errors raised after a handler returned (non-blocking uploads). */
+    public ResponseEntity<ApiResponse<Void>> toResponse(Throwable ex) {
+        if (ex instanceof IllegalArgumentException e) return handleIllegalArgument(e);
+        if (ex instanceof MaxUploadSizeExceededException e) return handleMaxUploadSize(e);
+        if (ex instanceof SchedulerSaturatedException e) return handleSaturated(e);
+        return handleGeneral(ex instanceof Exception e ? e : new RuntimeException(ex));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<ApiResponse<Void>> handleGeneral(Exception ex) {
         log.error("Unexpected error: {}", ex.getMessage(), ex);
@@ -0,0 +1,15 @@
+package com.dataloader.exception;
+
+import lombok.Getter;
+
+/** The job scheduler's queue is full; the client should retry after {@link #getRetryAfterSeconds()}. */
+@Getter
+public class SchedulerSaturatedException extends RuntimeException {
+
+    private final int retryAfterSeconds;
+
+    public SchedulerSaturatedException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -21,6 +21,10 @@ public class UploadJob {
     @Column(name = "job_id", nullable = false, unique = true)
     private UUID jobId;
 
+    // Set when the job is one file of a multi-entity bundle upload
+    @Column(name = "bundle_id")
+    private UUID bundleId;
+
     @Column(name = "file_name", nullable = false)
     private String fileName;
 
@@ -28,6 +32,9 @@ public class UploadJob {
     @Enumerated(EnumType.STRING)
     private FileType fileType;
 
+    @Column(name = "data_type")
+    private String dataType;
+
     @Column(name = "status", nullable = false)
     @Enumerated(EnumType.STRING)
     private JobStatus status;
@@ -50,6 +57,40 @@ public class UploadJob {
     @Column(name = "completed_at")
     private LocalDateTime completedAt;
 
+    // Load plan chosen before processing (see LoadPlanner)
+    @Column(name = "file_size_bytes")
+    private Long fileSizeBytes;
+
+    @Column(name = "estimated_rows")
+    private Long estimatedRows;
+
+    @Column(name = "load_strategy")
+    private String loadStrategy;
+
+    @Column(name = "planned_batch_size")
+    private Integer plannedBatchSize;
+
+    @Column(name = "planned_parallelism")
+    private Integer plannedParallelism;
+
+    @Column(name = "plan_details", columnDefinition = "TEXT")
+    private String planDetails;
+
+    // Duplicate detection: hash of the staged file, client-supplied Idempotency-Key
+    @Column(name = "content_sha256", length = 64)
+    private String contentSha256;
+
+    @Column(name = "idempotency_key", length = 200)
+    private String idempotencyKey;
+
+    // Set for landing-directory files, which are read in place instead of from the staging directory
+    @Column(name = "source_path", length = 1000)
+    private String sourcePath;
+
+    // Optional; the job is cancelled when it is still running (or queued) at this time
+    @Column(name = "deadline_at")
+    private LocalDateTime deadlineAt;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
@@ -64,7 +105,7 @@ public class UploadJob {
     }
 
     public enum JobStatus {
-        PENDING, PROCESSING, COMPLETED, FAILED, PARTIAL
+        PENDING, PROCESSING, COMPLETED, FAILED, PARTIAL, CANCELLED
     }
 
     public enum FileType {
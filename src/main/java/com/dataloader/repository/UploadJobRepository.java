@@ -6,6 +6,9 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -14,6 +17,16 @@ public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
 
     Optional<UploadJob> findByJobId(UUID jobId);
 
+    List<UploadJob> findByBundleIdOrderByIdAsc(UUID bundleId);
+
+    List<UploadJob> findByStatusInOrderByIdAsc(Collection<UploadJob.JobStatus> statuses);
+
+    Optional<UploadJob> findFirstByIdempotencyKeyAndStatusNotInOrderByIdDesc(String idempotencyKey,
+                                                                             Collection<UploadJob.JobStatus> statuses);
+
+    Optional<UploadJob> findFirstByDataTypeAndContentSha256AndStatusOrderByIdDesc(String dataType, String contentSha256,
+                                                                                 UploadJob.JobStatus status);
+
     @Modifying
     @Query("UPDATE UploadJob j SET j.status = :status, j.processedRows = :processedRows, " +
            "j.failedRows = :failedRows, j.totalRows = :totalRows WHERE j.jobId = :jobId")
@@ -22,4 +35,8 @@ public interface UploadJobRepository extends JpaRepository<UploadJob, Long> {
                         @Param("processedRows") Long processedRows,
                         @Param("failedRows") Long failedRows,
                         @Param("totalRows") Long totalRows);
+
+    @Modifying
+    @Query("UPDATE UploadJob j SET j.deadlineAt = :deadlineAt WHERE j.jobId = :jobId")
+    void updateDeadline(@Param("jobId") UUID jobId, @Param("deadlineAt") LocalDateTime deadlineAt);
 }
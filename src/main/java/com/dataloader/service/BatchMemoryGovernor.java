@@ -0,0 +1,169 @@
+package com.dataloader.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide budget for parsed rows held by batches in flight, across all jobs.
+ * <p>
+ * A batch's heap size is estimated from the raw bytes per row its job has parsed so far
+ * ({@code app.memory.bytes-per-raw-byte} per raw byte plus {@code app.memory.row-overhead-bytes}
+ * per row), so a batch of long order notes weighs more than the same number of product
+ * rows. Before a batch goes to a writer lane its bytes are acquired; the parser blocks
+ * while the budget is used up and continues as batches commit. Batches are also cut to
+ * at most {@code app.memory.max-batch-bytes}, and to half that once three quarters of the
+ * budget are in use. A single batch larger than the whole budget is let through alone, so
+ * nothing deadlocks.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BatchMemoryGovernor {
+
+    private static final double DEFAULT_RAW_BYTES_PER_ROW = 200;
+
+    private final MeterRegistry meterRegistry;
+
+    // 0 = a quarter of the max heap
+    @Value("${app.memory.batch-budget-bytes:0}")
+    private long configuredBudget;
+
+    // 0 = an eighth of the budget
+    @Value("${app.memory.max-batch-bytes:0}")
+    private long configuredMaxBatchBytes;
+
+    @Value("${app.memory.bytes-per-raw-byte:2.0}")
+    private double bytesPerRawByte;
+
+    @Value("${app.memory.row-overhead-bytes:600}")
+    private long rowOverheadBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long budget;
+    private long maxBatchBytes;
+    private long inFlight;
+
+    private Timer waits;
+    private Counter shrunk;
+
+    /** Bytes held by one batch; closing it (more than once is fine) gives them back. */
+    public final class Lease implements AutoCloseable {
+        private final long bytes;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) release(bytes);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        budget = configuredBudget > 0 ? configuredBudget : Runtime.getRuntime().maxMemory() / 4;
+        maxBatchBytes = configuredMaxBatchBytes > 0 ? configuredMaxBatchBytes : Math.max(1, budget / 8);
+        waits = Timer.builder("dataloader.memory.wait")
+                .description("Time parsers spent blocked on the batch memory budget")
+                .register(meterRegistry);
+        shrunk = meterRegistry.counter("dataloader.memory.batches.shrunk");
+        Gauge.builder("dataloader.memory.budget.bytes", this, g -> g.budget).register(meterRegistry);
+        Gauge.builder("dataloader.memory.inflight.bytes", this, BatchMemoryGovernor::inFlightBytes)
+                .register(meterRegistry);
+        log.info("Batch memory budget: {} MB, batches up to {} MB", budget >> 20, maxBatchBytes >> 20);
+    }
+
+    /** Estimated heap bytes of one parsed row, given what the job has read so far. */
+    public long bytesPerRow(long rawBytesRead, long rowsParsed) {
+        double rawPerRow = rowsParsed > 0 && rawBytesRead > 0
+                ? (double) rawBytesRead / rowsParsed
+                : DEFAULT_RAW_BYTES_PER_ROW;
+        return (long) (rawPerRow * bytesPerRawByte) + rowOverheadBytes;
+    }
+
+    /** Largest batch, in rows, for rows of {@code bytesPerRow}; at least 1. */
+    public int maxRows(long bytesPerRow) {
+        long limit = maxBatchBytes;
+        lock.lock();
+        try {
+            if (inFlight * 4 > budget * 3) limit /= 2;
+        } finally {
+            lock.unlock();
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, limit / Math.max(1, bytesPerRow)));
+    }
+
+    /** Pass batches on in slices of at most {@link #maxRows} rows, keeping their order. */
+    public <T> Consumer<List<T>> slicing(LongSupplier bytesPerRow, Consumer<List<T>> next) {
+        return batch -> {
+            int max = maxRows(bytesPerRow.getAsLong());
+            if (batch.size() <= max) {
+                next.accept(batch);
+                return;
+            }
+            shrunk.increment();
+            for (int from = 0; from < batch.size(); from += max) {
+                next.accept(new ArrayList<>(batch.subList(from, Math.min(batch.size(), from + max))));
+            }
+        };
+    }
+
+    /** Block until {@code bytes} fit in the budget (or nothing else is in flight). */
+    public Lease acquire(long bytes) {
+        lock.lock();
+        try {
+            if (inFlight > 0 && inFlight + bytes > budget) {
+                long start = System.nanoTime();
+                while (inFlight > 0 && inFlight + bytes > budget) {
+                    released.await();
+                }
+                waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            inFlight += bytes;
+            return new Lease(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch memory", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(long bytes) {
+        lock.lock();
+        try {
+            inFlight -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long inFlightBytes() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
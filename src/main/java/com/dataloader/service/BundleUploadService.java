@@ -0,0 +1,126 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.OrderCsvRow;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.FileUploadService.DeferredOrders;
+import com.dataloader.util.RowSpillBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Multi-entity bundle uploads: customers, products and orders in one request.
+ * Each file becomes its own job sharing a bundle id. Customers and products load in
+ * parallel; orders start once both have been dispatched by the {@link JobScheduler},
+ * write every order whose references already exist, and park the rest until both
+ * dependency jobs have finished.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BundleUploadService {
+
+    private final FileUploadService fileUploadService;
+    private final ObjectMapper      objectMapper;
+    private final JobScheduler      jobScheduler;
+    private final JobSegmentQueue   segmentQueue;
+
+    @Value("${app.bundle.spill-dir:uploads/parked}")
+    private String spillDir;
+
+    /** Stage every non-empty file of the bundle and create its job. */
+    public List<UploadJob> initiateBundle(Map<DataType, MultipartFile> files) {
+        UUID bundleId = UUID.randomUUID();
+        List<UploadJob> jobs = new ArrayList<>();
+        for (Map.Entry<DataType, MultipartFile> entry : files.entrySet()) {
+            MultipartFile file = entry.getValue();
+            if (file == null || file.isEmpty()) continue;
+            jobs.add(fileUploadService.initiateUpload(file, entry.getKey(), fileTypeOf(file), bundleId));
+        }
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("A bundle needs at least one of customers, products or orders.");
+        }
+        log.info("Bundle {} staged with {} files", bundleId, jobs.size());
+        return jobs;
+    }
+
+    /** Schedule the bundle's jobs in dependency order; returns immediately. */
+    public void processBundle(List<UploadJob> jobs, JobScheduler.JobRequest request) {
+        if (segmentQueue.isEnabled()) {
+            queueBundle(jobs, request);
+            return;
+        }
+        Map<DataType, UploadJob> byType = new EnumMap<>(DataType.class);
+        for (UploadJob job : jobs) {
+            byType.put(DataType.valueOf(job.getDataType()), job);
+        }
+
+        CompletableFuture<Void> customers = start(byType.get(DataType.CUSTOMERS), request, List.of(), null);
+        CompletableFuture<Void> products  = start(byType.get(DataType.PRODUCTS), request, List.of(), null);
+
+        UploadJob orders = byType.get(DataType.ORDERS);
+        if (orders != null) {
+            RowSpillBuffer<OrderCsvRow> parked =
+                    new RowSpillBuffer<>(OrderCsvRow.class, objectMapper, Paths.get(spillDir));
+            // Orders only start once their dependencies are running, so a job slot never waits on a queued job
+            List<UUID> dependencies = jobs.stream()
+                    .filter(job -> job != orders)
+                    .map(UploadJob::getJobId)
+                    .toList();
+            start(orders, request, dependencies, new DeferredOrders(parked, CompletableFuture.allOf(customers, products)))
+                    .whenComplete((v, e) -> parked.close());
+        }
+    }
+
+    /**
+     * Cluster mode: parked rows cannot follow a job to another node, so the orders job
+     * is only claimed once the customer and product jobs have finished.
+     */
+    private void queueBundle(List<UploadJob> jobs, JobScheduler.JobRequest request) {
+        List<UUID> ids = jobs.stream().map(UploadJob::getJobId).toList();
+        for (UploadJob job : jobs) {
+            List<UUID> startAfter = DataType.ORDERS.name().equals(job.getDataType())
+                    ? ids.stream().filter(id -> !id.equals(job.getJobId())).toList()
+                    : List.of();
+            fileUploadService.enqueue(job, request, startAfter);
+        }
+    }
+
+    private CompletableFuture<Void> start(UploadJob job, JobScheduler.JobRequest request,
+                                          List<UUID> startAfter, DeferredOrders deferred) {
+        if (job == null) return CompletableFuture.completedFuture(null);
+        Path path = fileUploadService.stagedPath(job);
+        DataType dataType = DataType.valueOf(job.getDataType());
+        return jobScheduler.submit(job.getJobId(), request, dataType, sizeOf(path), startAfter,
+                () -> fileUploadService.processBundleMember(job.getJobId(), path, dataType, job.getFileType(), deferred));
+    }
+
+    private long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private UploadJob.FileType fileTypeOf(MultipartFile file) {
+        String name = file.getOriginalFilename();
+        return name != null && name.toLowerCase().endsWith(".json")
+                ? UploadJob.FileType.JSON
+                : UploadJob.FileType.CSV;
+    }
+}
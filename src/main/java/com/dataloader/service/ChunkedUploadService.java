@@ -0,0 +1,338 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.UploadJobResponse;
+import com.dataloader.dto.UploadSessionResponse;
+import com.dataloader.model.UploadJob;
+import com.dataloader.repository.UploadJobRepository;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.util.ChunkedFile;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chunked, resumable uploads: create a session, PUT numbered chunks (in any order,
+ * in parallel, each with its SHA-256), ask which chunks are missing, then commit.
+ * <p>
+ * Chunks are written straight into the job's staged file at their offsets, so commit
+ * needs no assembly step. A CSV job starts as soon as the planner's sample
+ * ({@code app.planner.sample-bytes}) is contiguous and reads the rest through
+ * {@link ChunkedFile#openPrefixStream()}, waiting for chunks that have not arrived.
+ * Received chunks are recorded in {@code upload_session_chunks}, so a session survives
+ * a restart; sessions idle for {@code app.upload.sessions.idle-timeout-ms} expire.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChunkedUploadService {
+
+    private static final String INSERT_SESSION_SQL = """
+            INSERT INTO upload_sessions (session_id, job_id, total_size, chunk_size, chunk_count, submitter, priority)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String SELECT_SESSION_SQL = """
+            SELECT job_id, total_size, chunk_size, submitter, priority, status
+            FROM upload_sessions WHERE session_id = ?
+            """;
+
+    private static final String SELECT_CHUNKS_SQL =
+            "SELECT chunk_index FROM upload_session_chunks WHERE session_id = ?";
+
+    private static final String SELECT_CHUNK_SHA_SQL =
+            "SELECT sha256 FROM upload_session_chunks WHERE session_id = ? AND chunk_index = ?";
+
+    private static final String INSERT_CHUNK_SQL = """
+            INSERT INTO upload_session_chunks (session_id, chunk_index, size_bytes, sha256)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (session_id, chunk_index) DO NOTHING
+            """;
+
+    private static final String TOUCH_SESSION_SQL =
+            "UPDATE upload_sessions SET updated_at = now() WHERE session_id = ?";
+
+    private static final String SET_STATUS_SQL =
+            "UPDATE upload_sessions SET status = ?, updated_at = now() WHERE session_id = ? AND status = 'OPEN'";
+
+    private static final String EXPIRE_SQL = """
+            UPDATE upload_sessions SET status = 'EXPIRED', updated_at = now()
+            WHERE status = 'OPEN' AND updated_at < ?
+            RETURNING session_id, job_id
+            """;
+
+    private static final String OPEN_JOB_IDS_SQL = "SELECT job_id FROM upload_sessions WHERE status = 'OPEN'";
+
+    private static final Set<String> TERMINAL_JOB_STATES = Set.of(
+            UploadJob.JobStatus.COMPLETED.name(), UploadJob.JobStatus.PARTIAL.name(), UploadJob.JobStatus.FAILED.name(),
+            UploadJob.JobStatus.CANCELLED.name());
+
+    private final JdbcTemplate        jdbcTemplate;
+    private final UploadJobRepository uploadJobRepository;
+    private final UploadJobService    uploadJobService;
+    private final FileUploadService   fileUploadService;
+    private final JobScheduler        jobScheduler;
+    private final JobSegmentQueue     segmentQueue;
+
+    @Value("${app.upload.sessions.default-chunk-bytes:8388608}")
+    private int defaultChunkBytes;
+
+    @Value("${app.upload.sessions.min-chunk-bytes:65536}")
+    private int minChunkBytes;
+
+    @Value("${app.upload.sessions.max-chunk-bytes:67108864}")
+    private int maxChunkBytes;
+
+    @Value("${app.upload.sessions.early-start:true}")
+    private boolean earlyStart;
+
+    @Value("${app.planner.sample-bytes:1048576}")
+    private int earlyStartBytes;
+
+    @Value("${app.upload.sessions.idle-timeout-ms:3600000}")
+    private long idleTimeoutMs;
+
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<>();
+
+    private static final class Session {
+        final UUID sessionId;
+        final UploadJob job;
+        final JobScheduler.JobRequest request;
+        final ChunkedFile file;
+        final AtomicBoolean started = new AtomicBoolean();
+        // Two writers of one chunk could leave a bad body's bytes over a verified one
+        final Set<Integer> writing = ConcurrentHashMap.newKeySet();
+        volatile String status;
+
+        Session(UUID sessionId, UploadJob job, JobScheduler.JobRequest request, ChunkedFile file, String status) {
+            this.sessionId = sessionId;
+            this.job = job;
+            this.request = request;
+            this.file = file;
+            this.status = status;
+        }
+    }
+
+    // -------------------------------------------------------
+    // SESSION LIFECYCLE
+    // -------------------------------------------------------
+    public UploadSessionResponse createSession(String fileName, DataType dataType, long totalSize,
+                                               Integer chunkSize, JobScheduler.JobRequest request) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("fileName is required.");
+        }
+        if (totalSize <= 0) {
+            throw new IllegalArgumentException("totalSize must be positive.");
+        }
+        int size = chunkSize != null ? chunkSize : defaultChunkBytes;
+        if (size < minChunkBytes || size > maxChunkBytes) {
+            throw new IllegalArgumentException(
+                    "chunkSize must be between " + minChunkBytes + " and " + maxChunkBytes + " bytes.");
+        }
+        // The slot stays reserved for the session's job until it is queued or the session expires
+        JobScheduler.Admission admission = jobScheduler.admit(request);
+        try {
+            UploadJob.FileType fileType = fileName.toLowerCase().endsWith(".json")
+                    ? UploadJob.FileType.JSON
+                    : UploadJob.FileType.CSV;
+            UploadJob job = uploadJobService.createJob(fileName, fileType, dataType);
+
+            ChunkedFile file = new ChunkedFile(fileUploadService.stagedPath(job), totalSize, size);
+            try {
+                Files.createDirectories(file.getPath().getParent());
+                // Sparse file of the final size: chunks land at their offsets, the planner sees the real size
+                try (RandomAccessFile raf = new RandomAccessFile(file.getPath().toFile(), "rw")) {
+                    raf.setLength(totalSize);
+                }
+            } catch (IOException e) {
+                uploadJobService.markFailed(job.getJobId(), "Could not create staging file: " + e.getMessage());
+                throw new RuntimeException("Failed to create upload session", e);
+            }
+
+            UUID sessionId = UUID.randomUUID();
+            jdbcTemplate.update(INSERT_SESSION_SQL, sessionId, job.getJobId(), totalSize, size,
+                    file.getChunkCount(), request.submitter(), request.priority().name());
+            Session session = new Session(sessionId, job, request, file, "OPEN");
+            sessions.put(sessionId, session);
+
+            log.info("Upload session {} for job {}: {} bytes in {} chunks of {}",
+                    sessionId, job.getJobId(), totalSize, file.getChunkCount(), size);
+            return toResponse(session);
+        } catch (RuntimeException e) {
+            admission.close();
+            throw e;
+        }
+    }
+
+    /** Write and record one chunk; re-sending a received chunk with the same checksum is a no-op. */
+    public UploadSessionResponse putChunk(UUID sessionId, int index, String sha256, InputStream body) {
+        if (sha256 == null || sha256.isBlank()) {
+            throw new IllegalArgumentException("Chunk checksum (SHA-256, hex) is required.");
+        }
+        Session session = requireOpen(sessionId);
+        // Range check first: a bad index is a 400, not a BitSet exception
+        session.file.expectedSize(index);
+
+        if (session.file.isReceived(index)) {
+            String stored = jdbcTemplate.queryForObject(SELECT_CHUNK_SHA_SQL, String.class, sessionId, index);
+            if (!sha256.trim().equalsIgnoreCase(stored)) {
+                throw new IllegalArgumentException("Chunk " + index + " was already received with a different checksum.");
+            }
+            return toResponse(session);
+        }
+
+        if (!session.writing.add(index)) {
+            throw new IllegalArgumentException("Chunk " + index + " is already being uploaded.");
+        }
+        try {
+            String actual = session.file.write(index, body, sha256.trim());
+            jdbcTemplate.update(INSERT_CHUNK_SQL, sessionId, index, session.file.expectedSize(index), actual);
+            jdbcTemplate.update(TOUCH_SESSION_SQL, sessionId);
+            session.file.markReceived(index);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write chunk " + index, e);
+        } finally {
+            session.writing.remove(index);
+        }
+
+        // Cluster mode: the prefix stream exists on this node only, so jobs start from the queue on commit
+        if (earlyStart && !segmentQueue.isEnabled() && session.job.getFileType() == UploadJob.FileType.CSV
+                && session.file.contiguousBytes() >= Math.min(session.file.getTotalSize(), earlyStartBytes)
+                && session.started.compareAndSet(false, true)) {
+            log.info("[Job {}] Starting on the first {} contiguous bytes of session {}",
+                    session.job.getJobId(), session.file.contiguousBytes(), sessionId);
+            fileUploadService.scheduleProcessing(session.job, session.request, session.file::openPrefixStream);
+        }
+        return toResponse(session);
+    }
+
+    public UploadSessionResponse getSession(UUID sessionId) {
+        return toResponse(session(sessionId));
+    }
+
+    /** All chunks must be present. Starts the job unless it is already reading the file. */
+    public UploadJobResponse commit(UUID sessionId) {
+        Session session = requireOpen(sessionId);
+        List<Integer> missing = session.file.missing();
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException(missing.size() + " chunks still missing, e.g. "
+                    + missing.subList(0, Math.min(20, missing.size())));
+        }
+        jdbcTemplate.update(SET_STATUS_SQL, "COMMITTED", sessionId);
+        session.status = "COMMITTED";
+        sessions.remove(sessionId);
+
+        if (session.started.compareAndSet(false, true)) {
+            fileUploadService.scheduleProcessing(session.job, session.request);
+        }
+        // Cluster mode queues the job in the table, not on the scheduler
+        jobScheduler.release(session.request);
+        log.info("Upload session {} committed", sessionId);
+        return uploadJobService.getJobStatus(session.job.getJobId());
+    }
+
+    /** Jobs still receiving chunks; job recovery leaves them to their session. */
+    public Set<UUID> openSessionJobIds() {
+        return Set.copyOf(jdbcTemplate.queryForList(OPEN_JOB_IDS_SQL, UUID.class));
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.sessions.expiry-check-ms:60000}")
+    public void expireIdleSessions() {
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusNanos(idleTimeoutMs * 1_000_000L));
+        jdbcTemplate.query(EXPIRE_SQL, rs -> {
+            UUID sessionId = rs.getObject(1, UUID.class);
+            UUID jobId = rs.getObject(2, UUID.class);
+            Session session = sessions.remove(sessionId);
+            if (session != null) {
+                session.status = "EXPIRED";
+                jobScheduler.release(session.request);
+                // A job reading the prefix fails on its own and cleans up its staged file
+                session.file.fail(new IOException("Upload session " + sessionId + " expired"));
+                if (session.started.get()) return;
+            }
+            uploadJobService.markFailed(jobId, "Upload session expired before all chunks arrived.");
+            uploadJobRepository.findByJobId(jobId).ifPresent(job -> deleteQuietly(fileUploadService.stagedPath(job)));
+            log.info("Upload session {} expired", sessionId);
+        }, cutoff);
+    }
+
+    // -------------------------------------------------------
+    // PRIVATE HELPERS
+    // -------------------------------------------------------
+    private Session requireOpen(UUID sessionId) {
+        Session session = session(sessionId);
+        if (!"OPEN".equals(session.status)) {
+            throw new IllegalArgumentException("Upload session " + sessionId + " is " + session.status + ".");
+        }
+        String jobStatus = uploadJobService.getJobStatus(session.job.getJobId()).getStatus();
+        if (TERMINAL_JOB_STATES.contains(jobStatus)) {
+            throw new IllegalArgumentException("Upload session " + sessionId + " belongs to a job that is already "
+                    + jobStatus + ".");
+        }
+        return session;
+    }
+
+    /** From memory, or rebuilt from the session and chunk rows (e.g. after a restart). */
+    private Session session(UUID sessionId) {
+        Session cached = sessions.get(sessionId);
+        if (cached != null) return cached;
+
+        Session loaded = jdbcTemplate.query(SELECT_SESSION_SQL, rs -> {
+            if (!rs.next()) throw new IllegalArgumentException("Upload session not found: " + sessionId);
+            UUID jobId = rs.getObject("job_id", UUID.class);
+            UploadJob job = uploadJobRepository.findByJobId(jobId)
+                    .orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId));
+            // Stored already normalized by JobRequest.of when the session was opened
+            JobScheduler.JobRequest request = new JobScheduler.JobRequest(rs.getString("submitter"),
+                    JobScheduler.JobPriority.valueOf(rs.getString("priority")));
+            ChunkedFile file = new ChunkedFile(fileUploadService.stagedPath(job),
+                    rs.getLong("total_size"), rs.getInt("chunk_size"));
+            return new Session(sessionId, job, request, file, rs.getString("status"));
+        }, sessionId);
+
+        jdbcTemplate.queryForList(SELECT_CHUNKS_SQL, Integer.class, sessionId).forEach(loaded.file::markReceived);
+        if (!"OPEN".equals(loaded.status)) return loaded;
+        Session raced = sessions.putIfAbsent(sessionId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    private UploadSessionResponse toResponse(Session session) {
+        List<Integer> missing = session.file.missing();
+        return UploadSessionResponse.builder()
+                .sessionId(session.sessionId)
+                .jobId(session.job.getJobId())
+                .fileName(session.job.getFileName())
+                .status(session.status)
+                .totalSize(session.file.getTotalSize())
+                .chunkSize(session.file.getChunkSize())
+                .chunkCount(session.file.getChunkCount())
+                .receivedChunks(session.file.getChunkCount() - missing.size())
+                .contiguousBytes(session.file.contiguousBytes())
+                .missingChunks(missing)
+                .processingStarted(session.started.get())
+                .build();
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+        }
+    }
+}
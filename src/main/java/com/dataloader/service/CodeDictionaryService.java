@@ -0,0 +1,250 @@
+package com.dataloader.service;
+
+import com.dataloader.service.ReferenceResolver.RefType;
+import com.dataloader.util.OffHeapCodeDictionary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Off-heap customer and product code -> id dictionaries backing {@link ReferenceResolver}.
+ * <p>
+ * At startup each dictionary is mapped from its snapshot file when one exists; otherwise
+ * it is filled by a streaming cursor scan in the background and snapshotted once done.
+ * A snapshot records the database it was taken from (cluster system identifier, database
+ * name, and the table's highest id with its code) and is only mapped when all of those
+ * still match, so a restored, reset or different database falls back to the scan. A
+ * matching snapshot is only missing newer codes, which the resolver still finds in
+ * Postgres and adds here. Snapshots are rewritten periodically and on shutdown.
+ */
+@Service
+@Slf4j
+public class CodeDictionaryService {
+
+    // Categories are few; the Caffeine cache in ReferenceResolver covers them
+    private static final Set<RefType> DICTIONARY_TYPES = EnumSet.of(RefType.CUSTOMER, RefType.PRODUCT);
+
+    private final JdbcTemplate scanTemplate;
+    private final TransactionTemplate readOnlyTx;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.dictionary.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.dictionary.snapshot-dir:data/dictionary}")
+    private String snapshotDir;
+
+    @Value("${app.dictionary.segments:64}")
+    private int segments;
+
+    @Value("${app.dictionary.initial-slots-per-segment:4096}")
+    private int initialSlotsPerSegment;
+
+    private final Map<RefType, OffHeapCodeDictionary> dictionaries = new ConcurrentHashMap<>();
+    private final Map<RefType, Long> snapshotSizes = new ConcurrentHashMap<>();
+    private final Set<RefType> needsScan = ConcurrentHashMap.newKeySet();
+
+    public CodeDictionaryService(DataSource dataSource,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry) {
+        this.scanTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate.setFetchSize(10_000);
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void loadSnapshots() {
+        if (!enabled) return;
+
+        for (RefType type : DICTIONARY_TYPES) {
+            OffHeapCodeDictionary dictionary = null;
+            Path file = snapshotFile(type);
+            if (Files.isRegularFile(file)) {
+                long start = System.currentTimeMillis();
+                try {
+                    String origin = OffHeapCodeDictionary.readSnapshotOrigin(file);
+                    if (!originMatches(type, origin)) {
+                        throw new IllegalStateException("taken from another database state (" + origin + ")");
+                    }
+                    dictionary = OffHeapCodeDictionary.loadSnapshot(file, origin);
+                    snapshotSizes.put(type, dictionary.size());
+                    log.info("Code dictionary for {} mapped from snapshot: {} codes in {} ms",
+                            type, dictionary.size(), System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    log.warn("Ignoring code dictionary snapshot {}: {}", file, e.getMessage());
+                }
+            }
+            if (dictionary == null) {
+                dictionary = new OffHeapCodeDictionary(segments, initialSlotsPerSegment);
+                needsScan.add(type);
+            }
+            dictionaries.put(type, dictionary);
+            registerGauges(type, dictionary);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled || needsScan.isEmpty()) return;
+
+        Thread warmup = new Thread(() -> {
+            for (RefType type : DICTIONARY_TYPES) {
+                if (needsScan.contains(type) && scan(type)) {
+                    snapshot(type);
+                }
+            }
+        }, "dictionary-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    /** Id for {@code code}, or null when the dictionary is off or does not know it. */
+    public Long get(RefType type, String code) {
+        OffHeapCodeDictionary dictionary = dictionaries.get(type);
+        if (dictionary == null) return null;
+        long id = dictionary.get(code);
+        return id == OffHeapCodeDictionary.MISSING ? null : id;
+    }
+
+    /** Whether positive lookups for {@code type} are held here rather than in the heap cache. */
+    public boolean handles(RefType type) {
+        return dictionaries.containsKey(type);
+    }
+
+    public void put(RefType type, String code, long id) {
+        OffHeapCodeDictionary dictionary = dictionaries.get(type);
+        if (dictionary != null) dictionary.put(code, id);
+    }
+
+    @Scheduled(fixedDelayString = "${app.dictionary.snapshot-interval-ms:600000}",
+               initialDelayString = "${app.dictionary.snapshot-interval-ms:600000}")
+    public void snapshotChanged() {
+        for (RefType type : dictionaries.keySet()) {
+            // A snapshot taken mid-scan would be mistaken for a complete one on restart
+            if (needsScan.contains(type)) continue;
+            if (dictionaries.get(type).size() != snapshotSizes.getOrDefault(type, -1L)) {
+                snapshot(type);
+            }
+        }
+    }
+
+    @PreDestroy
+    void snapshotOnShutdown() {
+        snapshotChanged();
+    }
+
+    private boolean scan(RefType type) {
+        String sql = switch (type) {
+            case CUSTOMER -> "SELECT customer_code, id FROM customers";
+            case PRODUCT  -> "SELECT product_code, id FROM products";
+            case CATEGORY -> "SELECT category_code, id FROM categories";
+        };
+        OffHeapCodeDictionary dictionary = dictionaries.get(type);
+
+        long start = System.currentTimeMillis();
+        try {
+            readOnlyTx.executeWithoutResult(status ->
+                    scanTemplate.query(sql, rs -> {
+                        dictionary.put(rs.getString(1), rs.getLong(2));
+                    }));
+            needsScan.remove(type);
+            log.info("Code dictionary for {} loaded: {} codes, {} MB off-heap in {} ms",
+                    type, dictionary.size(), dictionary.offHeapBytes() / (1024 * 1024),
+                    System.currentTimeMillis() - start);
+            return true;
+        } catch (Exception e) {
+            // Lookups still work: misses fall through to Postgres and fill the dictionary
+            log.error("Code dictionary scan for {} failed after {} ms: {}",
+                    type, System.currentTimeMillis() - start, e.getMessage());
+            return false;
+        }
+    }
+
+    private void snapshot(RefType type) {
+        OffHeapCodeDictionary dictionary = dictionaries.get(type);
+        long start = System.currentTimeMillis();
+        try {
+            Files.createDirectories(Paths.get(snapshotDir));
+            long size = dictionary.size();
+            dictionary.writeSnapshot(snapshotFile(type), currentOrigin(type));
+            snapshotSizes.put(type, size);
+            log.info("Code dictionary snapshot for {} written: {} codes in {} ms",
+                    type, size, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not write code dictionary snapshot for {}: {}", type, e.getMessage());
+        }
+    }
+
+    // -------------------------------------------------------
+    // SNAPSHOT ORIGIN  "<system id>/<database>;<max id>;<code at max id>"
+    // -------------------------------------------------------
+
+    private String currentOrigin(RefType type) {
+        String sql = switch (type) {
+            case CUSTOMER -> "SELECT id, customer_code FROM customers ORDER BY id DESC LIMIT 1";
+            case PRODUCT  -> "SELECT id, product_code FROM products ORDER BY id DESC LIMIT 1";
+            case CATEGORY -> "SELECT id, category_code FROM categories ORDER BY id DESC LIMIT 1";
+        };
+        String highest = scanTemplate.query(sql, rs -> rs.next() ? rs.getLong(1) + ";" + rs.getString(2) : "0;");
+        return clusterIdentity() + ";" + highest;
+    }
+
+    private boolean originMatches(RefType type, String origin) {
+        String[] parts = origin.split(";", 3);
+        if (parts.length != 3 || !parts[0].equals(clusterIdentity())) return false;
+
+        long maxId = Long.parseLong(parts[1]);
+        if (maxId == 0) return true;
+        String sql = switch (type) {
+            case CUSTOMER -> "SELECT customer_code FROM customers WHERE id = ?";
+            case PRODUCT  -> "SELECT product_code FROM products WHERE id = ?";
+            case CATEGORY -> "SELECT category_code FROM categories WHERE id = ?";
+        };
+        List<String> codes = scanTemplate.queryForList(sql, String.class, maxId);
+        return codes.size() == 1 && parts[2].equals(codes.get(0));
+    }
+
+    private String clusterIdentity() {
+        try {
+            return scanTemplate.queryForObject(
+                    "SELECT system_identifier || '/' || current_database() FROM pg_control_system()", String.class);
+        } catch (DataAccessException e) {
+            // pg_control_system() can be revoked; the database name and max-id row still have to match
+            return "unknown/" + scanTemplate.queryForObject("SELECT current_database()", String.class);
+        }
+    }
+
+    private Path snapshotFile(RefType type) {
+        return Paths.get(snapshotDir, type.name().toLowerCase() + ".dict");
+    }
+
+    private void registerGauges(RefType type, OffHeapCodeDictionary dictionary) {
+        Gauge.builder("dataloader.dictionary.codes", dictionary, OffHeapCodeDictionary::size)
+                .tag("entity", type.name()).register(meterRegistry);
+        Gauge.builder("dataloader.dictionary.offheap.bytes", dictionary, OffHeapCodeDictionary::offHeapBytes)
+                .tag("entity", type.name()).register(meterRegistry);
+    }
+}
@@ -1,18 +1,26 @@
 package com.dataloader.service;
 
+import com.dataloader.dto.LoadPlan;
 import com.dataloader.dto.CustomerCsvRow;
 import com.dataloader.model.Customer;
 import com.dataloader.repository.CustomerRepository;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.ReferenceResolver.CodesWrittenEvent;
+import com.dataloader.service.ReferenceResolver.RefType;
 import com.dataloader.util.DataValidator;
 import com.dataloader.util.JdbcBatchInserter;
+import com.dataloader.util.KeyPartitionLocker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -24,6 +32,9 @@ public class CustomerService {
     private final CustomerRepository customerRepository;
     private final JdbcBatchInserter jdbcBatchInserter;
     private final DataValidator dataValidator;
+    private final KeyPartitionLocker keyPartitionLocker;
+    private final KeyMembershipService keyMembershipService;
+    private final ApplicationEventPublisher eventPublisher;
 
     private static final String UPSERT_SQL = """
             INSERT INTO customers (customer_code, first_name, last_name, email, phone,
@@ -46,12 +57,26 @@ public class CustomerService {
                 updated_at = NOW()
             """;
 
+    // Same column list as UPSERT_SQL; used for keys the Bloom filter says are new
+    private static final String INSERT_SQL = """
+            INSERT INTO customers (customer_code, first_name, last_name, email, phone,
+                date_of_birth, country, city, address, postal_code, loyalty_points, is_active,
+                created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW(), NOW())
+            ON CONFLICT (customer_code) DO NOTHING
+            """;
+
     /**
      * Process a batch of customer CSV rows.
      * Returns count of [processed, failed].
      */
     @Transactional
     public int[] processBatch(List<CustomerCsvRow> rows, AtomicInteger rowOffset) {
+        return processBatch(rows, rowOffset, LoadPlan.Strategy.ROUTED);
+    }
+
+    @Transactional
+    public int[] processBatch(List<CustomerCsvRow> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy) {
         List<CustomerCsvRow> validRows = new ArrayList<>();
         int failedCount = 0;
         int rowNumber = rowOffset.get();
@@ -70,33 +95,62 @@ public class CustomerService {
 
         int inserted = 0;
         if (!validRows.isEmpty()) {
-            inserted = jdbcBatchInserter.batchUpsert(UPSERT_SQL, validRows, (ps, row) -> {
-                try {
-                    ps.setString(1, row.getCustomerCode().trim());
-                    ps.setString(2, row.getFirstName().trim());
-                    ps.setString(3, row.getLastName().trim());
-                    ps.setString(4, row.getEmail().trim().toLowerCase());
-                    ps.setString(5, row.getPhone());
-
-                    LocalDate dob = dataValidator.parseDate(row.getDateOfBirth());
-                    ps.setDate(6, dob != null ? Date.valueOf(dob) : null);
-
-                    ps.setString(7, row.getCountry());
-                    ps.setString(8, row.getCity());
-                    ps.setString(9, row.getAddress());
-                    ps.setString(10, row.getPostalCode());
-
-                    Integer loyaltyPts = dataValidator.parseInteger(row.getLoyaltyPoints());
-                    ps.setInt(11, loyaltyPts != null ? loyaltyPts : 0);
-
-                    Boolean active = dataValidator.parseBoolean(row.getIsActive());
-                    ps.setBoolean(12, active != null ? active : true);
-                } catch (Exception e) {
-                    throw new RuntimeException("Error mapping customer row: " + e.getMessage(), e);
+            // Consistent key order + key locks keep concurrent jobs from deadlocking in ON CONFLICT
+            validRows.sort(Comparator.comparing(r -> r.getCustomerCode().trim()));
+            keyPartitionLocker.lockKeys(KeyPartitionLocker.LockSpace.CUSTOMERS,
+                    validRows.stream().map(CustomerCsvRow::getCustomerCode).toList());
+
+            // New keys (per the load strategy) skip the upsert; anything the insert skipped falls back to it
+            List<CustomerCsvRow> newRows = new ArrayList<>();
+            List<CustomerCsvRow> upsertRows = new ArrayList<>();
+            for (CustomerCsvRow row : validRows) {
+                if (keyMembershipService.routesToInsert(strategy, DataType.CUSTOMERS, row.getCustomerCode())) {
+                    newRows.add(row);
+                } else {
+                    upsertRows.add(row);
                 }
-            });
+            }
+
+            List<CustomerCsvRow> skipped = jdbcBatchInserter.batchInsertCollectSkipped(INSERT_SQL, newRows, this::bindRow);
+            keyMembershipService.recordInsertConflicts(DataType.CUSTOMERS, skipped.size());
+            inserted = newRows.size() - skipped.size();
+            upsertRows.addAll(skipped);
+            inserted += jdbcBatchInserter.batchUpsert(UPSERT_SQL, upsertRows, this::bindRow);
+
+            keyMembershipService.recordKeys(DataType.CUSTOMERS,
+                    newRows.stream().map(CustomerCsvRow::getCustomerCode).toList());
+
+            // Lets the code -> id caches drop stale (negative) entries once this batch commits
+            eventPublisher.publishEvent(new CodesWrittenEvent(RefType.CUSTOMER,
+                    validRows.stream().map(r -> r.getCustomerCode().trim()).toList()));
         }
 
         return new int[]{inserted, failedCount};
     }
+
+    private void bindRow(PreparedStatement ps, CustomerCsvRow row) {
+        try {
+            ps.setString(1, row.getCustomerCode().trim());
+            ps.setString(2, row.getFirstName().trim());
+            ps.setString(3, row.getLastName().trim());
+            ps.setString(4, row.getEmail().trim().toLowerCase());
+            ps.setString(5, row.getPhone());
+
+            LocalDate dob = dataValidator.parseDate(row.getDateOfBirth());
+            ps.setDate(6, dob != null ? Date.valueOf(dob) : null);
+
+            ps.setString(7, row.getCountry());
+            ps.setString(8, row.getCity());
+            ps.setString(9, row.getAddress());
+            ps.setString(10, row.getPostalCode());
+
+            Integer loyaltyPts = dataValidator.parseInteger(row.getLoyaltyPoints());
+            ps.setInt(11, loyaltyPts != null ? loyaltyPts : 0);
+
+            Boolean active = dataValidator.parseBoolean(row.getIsActive());
+            ps.setBoolean(12, active != null ? active : true);
+        } catch (Exception e) {
+            throw new RuntimeException("Error mapping customer row: " + e.getMessage(), e);
+        }
+    }
 }
@@ -0,0 +1,249 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.CustomerCsvRow;
+import com.dataloader.dto.DryRunReport;
+import com.dataloader.dto.OrderCsvRow;
+import com.dataloader.dto.ProductCsvRow;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.ReferenceResolver.RefType;
+import com.dataloader.util.CountingInputStream;
+import com.dataloader.util.CsvStreamParser;
+import com.dataloader.util.DataValidator;
+import com.dataloader.util.JsonStreamParser;
+import com.dataloader.util.ParallelBatchDispatcher;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Validate-only uploads ({@code dryRun=true}). The file is parsed straight from the
+ * request and every batch gets the same checks a real load applies — {@link DataValidator}
+ * rules plus code references resolved through {@link ReferenceResolver} (off-heap
+ * dictionary and caches first, read-only lookups for the rest) — on one validation lane
+ * per core. Nothing is staged, no job is created and nothing is written. Batches in
+ * flight count against the {@link BatchMemoryGovernor} budget like those of real loads.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DryRunService {
+
+    // "Row 12: invalid email format 'x@'" -> "invalid email format"
+    private static final Pattern ROW_PREFIX = Pattern.compile("^Row \\d+: ");
+    private static final Pattern QUOTED_VALUE = Pattern.compile(" '.*'$");
+
+    private final CsvStreamParser   csvStreamParser;
+    private final JsonStreamParser  jsonStreamParser;
+    private final DataValidator     dataValidator;
+    private final ReferenceResolver referenceResolver;
+    private final BatchMemoryGovernor memoryGovernor;
+
+    @Qualifier("validationExecutor")
+    private final Executor validationExecutor;
+
+    @Value("${app.dry-run.batch-size:5000}")
+    private int batchSize;
+
+    @Value("${app.dry-run.top-reasons:10}")
+    private int topReasons;
+
+    @Value("${app.dry-run.sample-failures:20}")
+    private int sampleFailures;
+
+    public DryRunReport run(InputStream is, String fileName, DataType dataType,
+                            UploadJob.FileType fileType) throws IOException {
+        long start = System.nanoTime();
+        Stats stats = new Stats(sampleFailures);
+        ParallelBatchDispatcher dispatcher = new ParallelBatchDispatcher(validationExecutor,
+                Runtime.getRuntime().availableProcessors());
+        AtomicLong rowsSeen = new AtomicLong();
+        CountingInputStream counted = new CountingInputStream(is);
+        LongSupplier rowBytes = () -> memoryGovernor.bytesPerRow(counted.getCount(), rowsSeen.get());
+
+        switch (dataType) {
+            case CUSTOMERS -> parse(counted, fileType, CustomerCsvRow.class, csvStreamParser::streamCustomers,
+                    memoryGovernor.slicing(rowBytes, batch ->
+                            dispatch(dispatcher, rowsSeen, rowBytes, batch, stats, this::checkCustomers)));
+            case PRODUCTS -> parse(counted, fileType, ProductCsvRow.class, csvStreamParser::streamProducts,
+                    memoryGovernor.slicing(rowBytes, batch ->
+                            dispatch(dispatcher, rowsSeen, rowBytes, batch, stats, this::checkProducts)));
+            case ORDERS -> parse(counted, fileType, OrderCsvRow.class, csvStreamParser::streamOrders,
+                    memoryGovernor.slicing(rowBytes, batch ->
+                            dispatch(dispatcher, rowsSeen, rowBytes, batch, stats, this::checkOrders)));
+        }
+        dispatcher.awaitCompletion();
+
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        DryRunReport report = stats.toReport(fileName, dataType, elapsedMs, topReasons);
+        log.info("Dry run of '{}' ({}): {} rows, {} would fail, {} ms",
+                fileName, dataType, report.getTotalRows(), report.getFailedRows(), elapsedMs);
+        return report;
+    }
+
+    private <T> void parse(InputStream is, UploadJob.FileType fileType, Class<T> rowType,
+                           CsvParse<T> csv, Consumer<List<T>> onBatch) throws IOException {
+        if (fileType == UploadJob.FileType.CSV) {
+            csv.stream(is, batchSize, onBatch, rows -> {});
+        } else {
+            jsonStreamParser.streamArray(is, rowType, batchSize, onBatch, rows -> {});
+        }
+    }
+
+    private <T> void dispatch(ParallelBatchDispatcher dispatcher, AtomicLong rowsSeen, LongSupplier rowBytes,
+                              List<T> batch, Stats stats, BatchCheck<T> check) {
+        BatchMemoryGovernor.Lease memory = memoryGovernor.acquire(batch.size() * rowBytes.getAsLong());
+        long firstRow = rowsSeen.getAndAdd(batch.size()) + 1;
+        try {
+            dispatcher.submit(() -> {
+                try (memory) {
+                    stats.merge(batch, firstRow, check.errors(batch, firstRow));
+                }
+            });
+        } catch (RuntimeException e) {
+            memory.close();
+            throw e;
+        }
+    }
+
+    // -------------------------------------------------------
+    // PER-ENTITY CHECKS (same rules as the entity services)
+    // -------------------------------------------------------
+    private List<List<String>> checkCustomers(List<CustomerCsvRow> rows, long firstRow) {
+        List<List<String>> errors = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            errors.add(dataValidator.validateCustomerRow(rows.get(i), (int) (firstRow + i)));
+        }
+        return errors;
+    }
+
+    private List<List<String>> checkProducts(List<ProductCsvRow> rows, long firstRow) {
+        Map<String, Long> categoryIds = referenceResolver.resolve(RefType.CATEGORY, rows.stream()
+                .map(ProductCsvRow::getCategoryCode)
+                .filter(c -> !dataValidator.isBlank(c))
+                .map(ProductService::normalizeCategoryCode)
+                .toList());
+
+        List<List<String>> errors = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            ProductCsvRow row = rows.get(i);
+            int rowNumber = (int) (firstRow + i);
+            List<String> rowErrors = dataValidator.validateProductRow(row, rowNumber);
+            if (!dataValidator.isBlank(row.getCategoryCode())
+                    && !categoryIds.containsKey(ProductService.normalizeCategoryCode(row.getCategoryCode()))) {
+                rowErrors.add(String.format("Row %d: unknown categoryCode '%s'", rowNumber, row.getCategoryCode()));
+            }
+            errors.add(rowErrors);
+        }
+        return errors;
+    }
+
+    /** Rows are checked one by one; a real load rejects a whole order when its customer is unknown. */
+    private List<List<String>> checkOrders(List<OrderCsvRow> rows, long firstRow) {
+        Map<String, Long> customerIds = referenceResolver.resolve(RefType.CUSTOMER, rows.stream()
+                .map(OrderCsvRow::getCustomerCode).filter(c -> !dataValidator.isBlank(c)).map(String::trim).toList());
+        Map<String, Long> productIds = referenceResolver.resolve(RefType.PRODUCT, rows.stream()
+                .map(OrderCsvRow::getProductCode).filter(c -> !dataValidator.isBlank(c)).map(String::trim).toList());
+
+        List<List<String>> errors = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            OrderCsvRow row = rows.get(i);
+            int rowNumber = (int) (firstRow + i);
+            List<String> rowErrors = dataValidator.validateOrderRow(row, rowNumber);
+            if (!dataValidator.isBlank(row.getCustomerCode()) && !customerIds.containsKey(row.getCustomerCode().trim())) {
+                rowErrors.add(String.format("Row %d: unknown customerCode '%s'", rowNumber, row.getCustomerCode()));
+            }
+            if (!dataValidator.isBlank(row.getProductCode()) && !productIds.containsKey(row.getProductCode().trim())) {
+                rowErrors.add(String.format("Row %d: unknown productCode '%s'", rowNumber, row.getProductCode()));
+            }
+            errors.add(rowErrors);
+        }
+        return errors;
+    }
+
+    @FunctionalInterface
+    private interface CsvParse<T> {
+        void stream(InputStream is, int batchSize, Consumer<List<T>> batchConsumer,
+                    Consumer<Long> totalRowCounter) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BatchCheck<T> {
+        List<List<String>> errors(List<T> rows, long firstRow);
+    }
+
+    // -------------------------------------------------------
+    // AGGREGATION
+    // -------------------------------------------------------
+    private static final class Stats {
+        private final int maxSamples;
+        private long total;
+        private long failed;
+        private final Map<String, long[]> reasons = new HashMap<>();   // reason -> {count, firstRow}
+        private final TreeMap<Long, DryRunReport.FailedRow> samples = new TreeMap<>();
+
+        Stats(int maxSamples) {
+            this.maxSamples = maxSamples;
+        }
+
+        /** Batches finish in any order; samples keep the lowest row numbers. */
+        synchronized <T> void merge(List<T> rows, long firstRow, List<List<String>> errors) {
+            total += rows.size();
+            for (int i = 0; i < rows.size(); i++) {
+                List<String> rowErrors = errors.get(i);
+                if (rowErrors.isEmpty()) continue;
+                failed++;
+                long rowNumber = firstRow + i;
+                for (String error : rowErrors) {
+                    long[] entry = reasons.computeIfAbsent(reasonOf(error), r -> new long[]{0, rowNumber});
+                    entry[0]++;
+                    entry[1] = Math.min(entry[1], rowNumber);
+                }
+                if (samples.size() < maxSamples || rowNumber < samples.lastKey()) {
+                    samples.put(rowNumber, new DryRunReport.FailedRow(rowNumber, rowErrors, rows.get(i)));
+                    if (samples.size() > maxSamples) samples.pollLastEntry();
+                }
+            }
+        }
+
+        synchronized DryRunReport toReport(String fileName, DataType dataType, long elapsedMs, int topReasons) {
+            List<DryRunReport.ReasonCount> top = reasons.entrySet().stream()
+                    .sorted(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0]).reversed())
+                    .limit(topReasons)
+                    .map(e -> new DryRunReport.ReasonCount(e.getKey(), e.getValue()[0], e.getValue()[1]))
+                    .toList();
+            return DryRunReport.builder()
+                    .fileName(fileName)
+                    .dataType(dataType.name())
+                    .totalRows(total)
+                    .validRows(total - failed)
+                    .failedRows(failed)
+                    .failurePercent(total > 0 ? Math.round(failed * 10000.0 / total) / 100.0 : 0.0)
+                    .elapsedMs(elapsedMs)
+                    .rowsPerSecond(total * 1000 / elapsedMs)
+                    .topReasons(top)
+                    .sampleFailures(new ArrayList<>(samples.values()))
+                    .build();
+        }
+
+        private static String reasonOf(String error) {
+            return QUOTED_VALUE.matcher(ROW_PREFIX.matcher(error).replaceFirst("")).replaceFirst("");
+        }
+    }
+}
@@ -1,26 +1,55 @@
 package com.dataloader.service;
 
 import com.dataloader.dto.CustomerCsvRow;
+import com.dataloader.dto.LoadPlan;
 import com.dataloader.dto.OrderCsvRow;
 import com.dataloader.dto.ProductCsvRow;
 import com.dataloader.model.UploadJob;
+import com.dataloader.service.OrderService.ItemSync;
+import com.dataloader.util.CommitWatermark;
+import com.dataloader.util.CountingInputStream;
 import com.dataloader.util.CsvStreamParser;
+import com.dataloader.util.ExternalMergeSorter;
+import com.dataloader.util.FileSegments;
+import com.dataloader.util.GroupBoundaryBatcher;
+import com.dataloader.util.LandingDirectory;
 import com.dataloader.util.JsonStreamParser;
+import com.dataloader.util.ParallelBatchDispatcher;
+import com.dataloader.util.RowSpillBuffer;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 
 /**
  * Orchestrates async file processing for CSV and JSON uploads.
@@ -37,179 +66,710 @@ public class FileUploadService {
     private final OrderService     orderService;
     private final CsvStreamParser  csvStreamParser;
     private final JsonStreamParser jsonStreamParser;
-
-    @Value("${app.batch.size:500}")
-    private int batchSize;
+    private final LoadPlanner      loadPlanner;
+    private final ObjectMapper     objectMapper;
+    private final JobProgressTracker progressTracker;
+    private final JobScheduler     jobScheduler;
+    private final JobCheckpointService checkpoints;
+    private final JobSegmentQueue  segmentQueue;
+    private final BatchMemoryGovernor memoryGovernor;
+    private final JobCancellationService cancellations;
+
+    @Qualifier("batchWriterExecutor")
+    private final Executor batchWriterExecutor;
 
     public enum DataType { CUSTOMERS, PRODUCTS, ORDERS }
 
-    private static final Path UPLOAD_DIR = Paths.get("uploads");
+    /**
+     * Bundle orders: rows whose customer or product is not resolvable yet are parked in
+     * {@code parked} and replayed once {@code dependencies} (the bundle's customer and
+     * product jobs) have finished.
+     */
+    public record DeferredOrders(RowSpillBuffer<OrderCsvRow> parked, CompletableFuture<?> dependencies) {}
+
+    // Shared between nodes in cluster mode
+    @Value("${app.upload.staging-dir:uploads}")
+    private String stagingDir;
+
+    @Value("${app.upload.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    @Value("${app.orders.sort.spill-dir:uploads/sort}")
+    private String sortSpillDir;
+
+    @Value("${app.orders.sort.max-rows-in-memory:100000}")
+    private int sortMaxRowsInMemory;
 
     // -------------------------------------------------------
     // ENTRY POINT: save file + create job
     // -------------------------------------------------------
+    /**
+     * The job an upload resolved to; {@code existing} when it is an earlier job (same
+     * content already loaded, or same Idempotency-Key) and nothing was queued.
+     */
+    public record StagedUpload(UploadJob job, boolean existing) {}
+
+    /**
+     * Stage a single-file upload. The file is hashed while it streams to disk; if the
+     * same content was already loaded successfully as {@code dataType}, that job is
+     * returned and the copy discarded. A concurrent upload that won the same
+     * {@code idempotencyKey} also resolves to its job.
+     */
+    public StagedUpload initiateUpload(
+            MultipartFile file,
+            DataType dataType,
+            UploadJob.FileType fileType,
+            String idempotencyKey
+    ) {
+        return stage(file, dataType, fileType, null, idempotencyKey, dedupEnabled);
+    }
+
+    /** Bundle members are always staged: a bundle's files are processed together. */
     public UploadJob initiateUpload(
             MultipartFile file,
             DataType dataType,
-            UploadJob.FileType fileType
+            UploadJob.FileType fileType,
+            UUID bundleId
+    ) {
+        return stage(file, dataType, fileType, bundleId, null, false).job();
+    }
+
+    /**
+     * Stage a raw-body upload that has already been received into {@code incoming} (see
+     * {@link #incomingPath()}), with the same duplicate handling as a multipart upload.
+     * {@code incoming} is moved into place or deleted.
+     */
+    public StagedUpload initiateUpload(
+            Path incoming,
+            String contentSha256,
+            String fileName,
+            DataType dataType,
+            UploadJob.FileType fileType,
+            String idempotencyKey
     ) {
         try {
-            Files.createDirectories(UPLOAD_DIR);
+            return register(incoming, contentSha256, fileName, dataType, fileType, null, idempotencyKey, dedupEnabled);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to store uploaded file", e);
+        } finally {
+            deleteQuietly(incoming);
+        }
+    }
+
+    /** A new temporary file name in the staging directory, for an upload being received. */
+    public Path incomingPath() throws IOException {
+        Files.createDirectories(Paths.get(stagingDir));
+        return Paths.get(stagingDir).resolve(".incoming-" + UUID.randomUUID());
+    }
+
+    private StagedUpload stage(MultipartFile file, DataType dataType, UploadJob.FileType fileType,
+                               UUID bundleId, String idempotencyKey, boolean dedup) {
+        Path incoming = Paths.get(stagingDir).resolve(".incoming-" + UUID.randomUUID());
+        try {
+            Files.createDirectories(Paths.get(stagingDir));
 
             String originalName = file.getOriginalFilename() != null
                     ? file.getOriginalFilename()
                     : "unknown";
 
-            UploadJob job = uploadJobService.createJob(originalName, fileType);
+            String contentSha256;
+            try (DigestInputStream in = new DigestInputStream(file.getInputStream(), sha256())) {
+                Files.copy(in, incoming, StandardCopyOption.REPLACE_EXISTING);
+                contentSha256 = HexFormat.of().formatHex(in.getMessageDigest().digest());
+            }
+            return register(incoming, contentSha256, originalName, dataType, fileType, bundleId, idempotencyKey, dedup);
 
-            Path storedPath = UPLOAD_DIR.resolve(
-                    job.getJobId() + "_" + originalName
-            );
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to store uploaded file", e);
+        } finally {
+            deleteQuietly(incoming);
+        }
+    }
 
-            Files.copy(
-                    file.getInputStream(),
-                    storedPath,
-                    StandardCopyOption.REPLACE_EXISTING
-            );
+    /** Resolve duplicates, create the job and move the received file into place. */
+    private StagedUpload register(Path incoming, String contentSha256, String originalName, DataType dataType,
+                                  UploadJob.FileType fileType, UUID bundleId, String idempotencyKey,
+                                  boolean dedup) throws IOException {
+        if (dedup) {
+            Optional<UploadJob> loaded = uploadJobService.findCompletedDuplicate(dataType, contentSha256);
+            if (loaded.isPresent()) {
+                log.info("Upload '{}' is identical to job {} ({}), not processing it again",
+                        originalName, loaded.get().getJobId(), contentSha256);
+                return new StagedUpload(loaded.get(), true);
+            }
+        }
 
-            log.info("Stored upload file for job {} at {}", job.getJobId(), storedPath);
+        UploadJob job;
+        try {
+            job = uploadJobService.createJob(originalName, fileType, dataType, bundleId,
+                    contentSha256, idempotencyKey);
+        } catch (DataIntegrityViolationException e) {
+            // Lost the race for the key to a concurrent request
+            UploadJob winner = uploadJobService.findByIdempotencyKey(idempotencyKey).orElseThrow(() -> e);
+            return new StagedUpload(winner, true);
+        }
+
+        Path storedPath = stagedPath(job);
+        Files.move(incoming, storedPath, StandardCopyOption.REPLACE_EXISTING);
+
+        log.info("Stored upload file for job {} at {}", job.getJobId(), storedPath);
+
+        return new StagedUpload(job, false);
+    }
+
+    /**
+     * Where {@link #initiateUpload} stores the file of a job; for a landing-directory job,
+     * the claimed file it is read from in place.
+     */
+    public Path stagedPath(UploadJob job) {
+        if (job.getSourcePath() != null) return Paths.get(job.getSourcePath());
+        return stagedPath(job.getJobId(), job.getFileName());
+    }
+
+    public Path stagedPath(UUID jobId, String fileName) {
+        return Paths.get(stagingDir).resolve(jobId + "_" + fileName);
+    }
+
+    // -------------------------------------------------------
+    // SCHEDULED PROCESSING (CSV or JSON)
+    // -------------------------------------------------------
+    /**
+     * Queue a staged job on the {@link JobScheduler}, or in cluster mode on the
+     * {@link JobSegmentQueue} for any node to claim; returns immediately. Landing-directory
+     * jobs always run here, on the node that claimed the file.
+     */
+    public CompletableFuture<Void> scheduleProcessing(UploadJob job, JobScheduler.JobRequest request) {
+        return scheduleProcessing(job, request, null);
+    }
 
-            return job;
+    /**
+     * As above, reading the staged file through {@code source} instead of opening it
+     * directly; used for chunked uploads that start before the last chunk has arrived.
+     */
+    public CompletableFuture<Void> scheduleProcessing(UploadJob job, JobScheduler.JobRequest request,
+                                                      InputStreamSource source) {
+        boolean landed = job.getSourcePath() != null;
+        if (segmentQueue.isEnabled() && source == null && !landed) {
+            enqueue(job, request, List.of());
+            return CompletableFuture.completedFuture(null);
+        }
+        Path filePath = stagedPath(job);
+        DataType dataType = DataType.valueOf(job.getDataType());
+        return jobScheduler.submit(job.getJobId(), request, dataType, sizeQuietly(filePath), List.of(),
+                () -> processFile(job.getJobId(), filePath, dataType, job.getFileType(), null, source, landed));
+    }
 
+    /**
+     * Cluster mode: split the staged file into segments in {@code job_segments}. From
+     * here on several nodes may update the job, so this node stops holding its state in
+     * memory and status reads go to the table.
+     *
+     * @param startAfter jobs that must finish before this one is claimed
+     */
+    public void enqueue(UploadJob job, JobScheduler.JobRequest request, Collection<UUID> startAfter) {
+        uploadJobService.release(job.getJobId());
+        try {
+            segmentQueue.enqueue(job, stagedPath(job), request, startAfter);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to store uploaded file", e);
+            log.error("[Job {}] Could not queue staged file", job.getJobId(), e);
+            uploadJobService.markFailed(job.getJobId(), "Could not queue the staged file: " + e.getMessage());
         }
     }
 
     // -------------------------------------------------------
-    // ASYNC CSV PROCESSING
+    // BUNDLE MEMBER PROCESSING (scheduled by BundleUploadService)
     // -------------------------------------------------------
-    @Async("fileProcessingExecutor")
-    public void processCsvAsync(UUID jobId, Path filePath, DataType dataType) {
+    public void processBundleMember(UUID jobId, Path filePath, DataType dataType,
+                                    UploadJob.FileType fileType, DeferredOrders deferred) {
+        processFile(jobId, filePath, dataType, fileType, deferred, null, false);
+    }
 
-        uploadJobService.markProcessing(jobId);
-        log.info("[Job {}] Starting CSV processing for {}", jobId, dataType);
-
-        AtomicLong total = new AtomicLong();
-        AtomicLong ok    = new AtomicLong();
-        AtomicLong fail  = new AtomicLong();
-        AtomicInteger offset = new AtomicInteger();
-
-        try (InputStream is = Files.newInputStream(filePath)) {
-
-            switch (dataType) {
-                case CUSTOMERS -> csvStreamParser.streamCustomers(
-                        is, batchSize,
-                        batch -> {
-                            int[] r = customerService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
-
-                case PRODUCTS -> csvStreamParser.streamProducts(
-                        is, batchSize,
-                        batch -> {
-                            int[] r = productService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
-
-                case ORDERS -> csvStreamParser.streamOrders(
-                        is, batchSize,
-                        batch -> {
-                            int[] r = orderService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
+    // -------------------------------------------------------
+    // CLUSTER SEGMENTS (claimed by SegmentWorker)
+    // -------------------------------------------------------
+    /**
+     * Run one claimed segment: its byte range, behind the file's header, through the same
+     * pipeline as a whole file, resuming after the segment's checkpoint. Progress goes to
+     * the segment row and is rolled up to the job by {@link JobSegmentQueue}, never
+     * through the job state registry, since other nodes update the same job.
+     */
+    public void processSegment(JobSegmentQueue.Segment segment) {
+        UUID jobId = segment.jobId();
+        Path filePath = stagedPath(jobId, segment.fileName());
+        DataType dataType = segment.dataType();
+        UploadJob.FileType fileType = segment.fileType();
+        FileSegments.Range range = segment.range();
+
+        if (checkpoints.isDraining()) {
+            segmentQueue.release(segment);
+            return;
+        }
+        checkpoints.begin(jobId);
+        cancellations.watchDeadline(jobId, segment.deadline());
+
+        CommitWatermark watermark = new CommitWatermark(segment.checkpoint());
+        long resumeFrom = watermark.position().rows();
+        log.info("[Job {}] Starting {} {} on {}{}", segment.label(), fileType, dataType, segmentQueue.nodeId(),
+                resumeFrom > 0 ? ", resuming after row " + resumeFrom : "");
+
+        JobProgress progress = new JobProgress(jobId, range.end() - range.start());
+        progress.resumeFrom(resumeFrom);
+        progress.getWritten().set(watermark.position().processed());
+        progress.getFailed().set(watermark.position().failed());
+        Checkpointer checkpointer = new Checkpointer(jobId, watermark,
+                position -> segmentQueue.checkpoint(segment, position));
+
+        try {
+            LoadPlan plan = loadPlanner.plan(filePath, dataType, fileType);
+            if (segment.index() == 0) segmentQueue.recordPlan(jobId, plan, loadPlanner.describe(plan));
+            Consumer<JobProgress> onBatchDone = p -> {};
+
+            try (CountingInputStream is = new CountingInputStream(FileSegments.open(filePath, range))) {
+                progress.setBytesRead(is::getCount);
+                switch (dataType) {
+                    case CUSTOMERS -> streamBatches(is, fileType, plan, CustomerCsvRow.class, null,
+                            csvStreamParser::streamCustomers, customerService::processBatch,
+                            progress, onBatchDone, range.firstRow(), resumeFrom, checkpointer);
+
+                    case PRODUCTS -> streamBatches(is, fileType, plan, ProductCsvRow.class, null,
+                            csvStreamParser::streamProducts, productService::processBatch,
+                            progress, onBatchDone, range.firstRow(), resumeFrom, checkpointer);
+
+                    // Always a single segment; a bundle's orders are only claimed once its other jobs finished
+                    case ORDERS -> streamBatches(is, fileType, plan, OrderCsvRow.class, OrderCsvRow::getOrderNumber,
+                            csvStreamParser::streamOrders, (rows, offset, strategy) -> orderService.processBatch(
+                                    rows, offset, strategy, ItemSync.REPLACE),
+                            progress, onBatchDone, range.firstRow(), resumeFrom, checkpointer);
+                }
             }
 
-            uploadJobService.markCompleted(jobId, total.get(), ok.get(), fail.get());
-            log.info("[Job {}] CSV completed. total={}, ok={}, failed={}",
-                    jobId, total.get(), ok.get(), fail.get());
+            if (segmentQueue.complete(segment, watermark.position())) {
+                deleteQuietly(filePath);
+                cancellations.forget(jobId);
+                log.info("[Job {}] Last segment done; job finished", jobId);
+            } else {
+                log.info("[Job {}] Done: {} rows", segment.label(), watermark.position().rows());
+            }
 
+        } catch (JobCancelledException e) {
+            // Other nodes' segments of the job stop at their next checkpoint
+            segmentQueue.cancel(jobId, e.getMessage());
+            deleteQuietly(filePath);
+            cancellations.forget(jobId);
+            log.info("[Job {}] Cancelled at row {}: {}", segment.label(), watermark.position().rows(), e.getMessage());
+        } catch (JobDrainedException e) {
+            if (checkpointer.isDisowned()) {
+                log.warn("[Job {}] No longer owned by this node; stopped at row {}",
+                        segment.label(), watermark.position().rows());
+            } else {
+                segmentQueue.release(segment);
+                log.info("[Job {}] Released for shutdown at row {}", segment.label(), watermark.position().rows());
+            }
         } catch (Exception e) {
-            log.error("[Job {}] CSV processing failed", jobId, e);
-            uploadJobService.markFailed(jobId, e.getMessage());
-        } finally {
+            log.error("[Job {}] Processing failed", segment.label(), e);
+            segmentQueue.fail(segment, e.getMessage());
             deleteQuietly(filePath);
+        } finally {
+            checkpoints.end(jobId);
+        }
+    }
+
+    // -------------------------------------------------------
+    // CANCELLATION
+    // -------------------------------------------------------
+    public enum CancelOutcome {
+        /** The job had not started and is now CANCELLED. */
+        CANCELLED,
+        /** The job is running here and stops once its in-flight batches have committed. */
+        STOPPING,
+        /** The job had already finished. */
+        FINISHED
+    }
+
+    /**
+     * Cancel a job. A job running here stops at its next batch (see {@link Checkpointer});
+     * one that has not started is taken off the scheduler and cancelled at once, keeping
+     * the counters of its last checkpoint. Either way the staged file is deleted, or a
+     * landed file moved to {@code failed/}. In cluster mode the job's segments are
+     * cancelled in the work queue; whichever nodes run them stop at their next checkpoint.
+     *
+     * @throws IllegalArgumentException when the job does not exist
+     */
+    public CancelOutcome cancel(UUID jobId) {
+        UploadJob job = uploadJobService.findJob(jobId)
+                .orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId));
+        if (UploadJobService.isTerminal(job.getStatus())) return CancelOutcome.FINISHED;
+        String reason = JobCancellationService.CANCELLED_BY_REQUEST;
+
+        if (segmentQueue.isEnabled() && segmentQueue.hasSegments(jobId)) {
+            if (!segmentQueue.cancel(jobId, reason)) return CancelOutcome.FINISHED;
+            deleteQuietly(stagedPath(job));
+            log.info("[Job {}] Cancelled cluster-wide", jobId);
+            return CancelOutcome.CANCELLED;
         }
+
+        // Registered first, so a job the scheduler is starting right now still sees it
+        cancellations.request(jobId, reason);
+        if (checkpoints.isActive(jobId)) {
+            log.info("[Job {}] Cancellation requested; stopping after the current batch", jobId);
+            return CancelOutcome.STOPPING;
+        }
+        // Queued, or not scheduled yet (e.g. an open chunked upload session)
+        if (jobScheduler.cancelQueued(jobId)) cancellations.forget(jobId);
+        CommitWatermark.Position committed = checkpoints.load(jobId);
+        uploadJobService.markCancelled(jobId, reason, committed.rows(), committed.processed(), committed.failed());
+        if (job.getSourcePath() != null) retireQuietly(jobId, stagedPath(job), false);
+        else deleteQuietly(stagedPath(job));
+        log.info("[Job {}] Cancelled before it started", jobId);
+        return CancelOutcome.CANCELLED;
     }
 
     // -------------------------------------------------------
-    // ASYNC JSON PROCESSING
+    // SHARED PIPELINE: plan -> stream -> dispatch batches
     // -------------------------------------------------------
-    @Async("fileProcessingExecutor")
-    public void processJsonAsync(UUID jobId, Path filePath, DataType dataType) {
+    /**
+     * Jobs without parked rows resume after their last checkpoint. Bundle orders always
+     * start over: rows parked before a crash were never written. Either way rows between
+     * the checkpoint and the crash are written again, which the upserts make harmless.
+     * <p>
+     * A staged file is deleted once the job has finished; a {@code landed} file is moved
+     * to its landing directory's {@code done/} or {@code failed/} folder instead.
+     */
+    private void processFile(UUID jobId, Path filePath, DataType dataType, UploadJob.FileType fileType,
+                             DeferredOrders deferred, InputStreamSource source, boolean landed) {
+
+        // Left PENDING with its staged file; JobRecoveryService picks it up on the next start
+        if (checkpoints.isDraining()) return;
+        checkpoints.begin(jobId);
+
+        CommitWatermark watermark = new CommitWatermark(deferred == null
+                ? checkpoints.load(jobId)
+                : new CommitWatermark.Position(0, 0, 0));
+        long resumeFrom = watermark.position().rows();
 
         uploadJobService.markProcessing(jobId);
-        log.info("[Job {}] Starting JSON processing for {}", jobId, dataType);
-
-        AtomicLong total = new AtomicLong();
-        AtomicLong ok    = new AtomicLong();
-        AtomicLong fail  = new AtomicLong();
-        AtomicInteger offset = new AtomicInteger();
-
-        try (InputStream is = Files.newInputStream(filePath)) {
-
-            switch (dataType) {
-                case CUSTOMERS -> jsonStreamParser.streamArray(
-                        is, CustomerCsvRow.class, batchSize,
-                        batch -> {
-                            int[] r = customerService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
-
-                case PRODUCTS -> jsonStreamParser.streamArray(
-                        is, ProductCsvRow.class, batchSize,
-                        batch -> {
-                            int[] r = productService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
-
-                case ORDERS -> jsonStreamParser.streamArray(
-                        is, OrderCsvRow.class, batchSize,
-                        batch -> {
-                            int[] r = orderService.processBatch(batch, offset);
-                            ok.addAndGet(r[0]);
-                            fail.addAndGet(r[1]);
-                            total.addAndGet(batch.size());
-                        },
-                        total::set
-                );
-            }
+        if (resumeFrom > 0) {
+            log.info("[Job {}] Resuming {} processing for {} after row {}", jobId, fileType, dataType, resumeFrom);
+        } else {
+            log.info("[Job {}] Starting {} processing for {}", jobId, fileType, dataType);
+        }
 
-            uploadJobService.markCompleted(jobId, total.get(), ok.get(), fail.get());
-            log.info("[Job {}] JSON completed. total={}, ok={}, failed={}",
-                    jobId, total.get(), ok.get(), fail.get());
+        JobProgress progress = progressTracker.start(jobId, sizeQuietly(filePath));
+        progress.resumeFrom(resumeFrom);
+        progress.getWritten().set(watermark.position().processed());
+        progress.getFailed().set(watermark.position().failed());
+        cancellations.watchDeadline(jobId, uploadJobService.findJob(jobId).map(UploadJob::getDeadlineAt).orElse(null));
+        Checkpointer checkpointer = new Checkpointer(jobId, watermark, deferred == null
+                ? position -> {
+                    checkpoints.save(jobId, position);
+                    return true;
+                }
+                : null);
+        boolean keepFile = false;
+        boolean loaded = false;
+
+        try {
+            // Cancelled (or past its deadline) while it was queued
+            checkpointer.stopIfRequested();
+            LoadPlan plan = loadPlanner.plan(filePath, dataType, fileType);
+            uploadJobService.recordPlan(jobId, plan, loadPlanner.describe(plan));
+
+            try (CountingInputStream is = new CountingInputStream(source != null
+                    ? source.getInputStream()
+                    : Files.newInputStream(filePath))) {
+                progress.setBytesRead(is::getCount);
+                switch (dataType) {
+                    case CUSTOMERS -> streamBatches(is, fileType, plan, CustomerCsvRow.class, null,
+                            csvStreamParser::streamCustomers, customerService::processBatch,
+                            progress, progressTracker::onBatchDone, 0, resumeFrom, checkpointer);
+
+                    case PRODUCTS -> streamBatches(is, fileType, plan, ProductCsvRow.class, null,
+                            csvStreamParser::streamProducts, productService::processBatch,
+                            progress, progressTracker::onBatchDone, 0, resumeFrom, checkpointer);
+
+                    // Batches are cut at order boundaries so each order is written exactly once
+                    case ORDERS -> streamBatches(is, fileType, plan, OrderCsvRow.class, OrderCsvRow::getOrderNumber,
+                            csvStreamParser::streamOrders, deferred == null
+                                    ? (rows, offset, strategy) -> orderService.processBatch(
+                                            rows, offset, strategy, ItemSync.REPLACE)
+                                    : (rows, offset, strategy) -> orderService.processBatch(
+                                            rows, offset, strategy, ItemSync.REPLACE, deferred.parked()::append),
+                            progress, progressTracker::onBatchDone, 0, resumeFrom, checkpointer);
+                }
+            }
+            if (deferred != null) {
+                replayDeferred(jobId, deferred, plan, progress, checkpointer);
+            }
 
+            long total = progress.getValidated().get();
+            long ok    = progress.getWritten().get();
+            long fail  = progress.getFailed().get();
+            uploadJobService.markCompleted(jobId, total, ok, fail);
+            loaded = ok > 0 || fail == 0;
+            log.info("[Job {}] {} completed. total={}, ok={}, failed={}", jobId, fileType, total, ok, fail);
+
+        } catch (JobCancelledException e) {
+            long total = progress.getValidated().get();
+            long ok    = progress.getWritten().get();
+            long fail  = progress.getFailed().get();
+            uploadJobService.markCancelled(jobId, e.getMessage(), total, ok, fail);
+            log.info("[Job {}] Cancelled after {} rows (ok={}, failed={}): {}", jobId, total, ok, fail, e.getMessage());
+        } catch (JobDrainedException e) {
+            keepFile = true;
+            log.info("[Job {}] Stopped for shutdown at row {}; will resume on restart",
+                    jobId, watermark.position().rows());
         } catch (Exception e) {
-            log.error("[Job {}] JSON processing failed", jobId, e);
+            log.error("[Job {}] {} processing failed", jobId, fileType, e);
             uploadJobService.markFailed(jobId, e.getMessage());
         } finally {
-            deleteQuietly(filePath);
+            progressTracker.finish(jobId);
+            if (!keepFile) {
+                if (landed) retireQuietly(jobId, filePath, loaded);
+                else deleteQuietly(filePath);
+            }
+            cancellations.forget(jobId);
+            checkpoints.end(jobId);
+        }
+    }
+
+    /**
+     * Parse the stream in plan-sized batches and hand each batch to the entity
+     * service, on as many writer lanes as the plan allows. Each batch gets its own
+     * row offset so validation messages keep their file row numbers.
+     * <p>
+     * With a {@code groupKey}, batches are only cut where the key changes; if the plan
+     * asks for it, rows are first put through an external merge sort on that key so
+     * groups scattered across the file become contiguous (row numbers then follow the
+     * sorted order).
+     * <p>
+     * The first {@code resumeFrom} rows (in that same order) were committed by an earlier
+     * run and are dropped before batching. When shutdown starts (or the checkpointer stops
+     * the run), no further batch is dispatched: in-flight batches are awaited, checkpointed,
+     * and {@link JobDrainedException} is thrown. Row numbers start after {@code rowBase}.
+     * <p>
+     * Every dispatched batch holds its estimated size in the {@link BatchMemoryGovernor}
+     * until it has been written; the parser waits when the process-wide budget is used up,
+     * and batches are cut smaller (at group boundaries for orders) as the budget fills.
+     */
+    private <T> void streamBatches(InputStream is,
+                                   UploadJob.FileType fileType,
+                                   LoadPlan plan,
+                                   Class<T> rowType,
+                                   Function<T, String> groupKey,
+                                   CsvBatchStreamer<T> csvStreamer,
+                                   BatchProcessor<T> processor,
+                                   JobProgress progress,
+                                   Consumer<JobProgress> onBatchDone,
+                                   long rowBase,
+                                   long resumeFrom,
+                                   Checkpointer checkpointer) throws IOException {
+
+        ParallelBatchDispatcher dispatcher = new ParallelBatchDispatcher(batchWriterExecutor, plan.getParallelism());
+        AtomicLong rowsSeen = new AtomicLong(resumeFrom);
+        LongSupplier rowBytes = () -> memoryGovernor.bytesPerRow(
+                progress.getBytesRead().getAsLong(), progress.getParsed().get());
+
+        Consumer<List<T>> dispatch = batch -> {
+            checkpointer.stopIfRequested();
+            BatchMemoryGovernor.Lease memory = memoryGovernor.acquire(batch.size() * rowBytes.getAsLong());
+            long startRow = rowsSeen.getAndAdd(batch.size());
+            AtomicInteger offset = new AtomicInteger((int) (rowBase + startRow));
+            try {
+                dispatcher.submit(() -> {
+                    try (memory) {
+                        int[] r = processor.process(batch, offset, plan.getStrategy());
+                        progress.getWritten().addAndGet(r[0]);
+                        progress.getFailed().addAndGet(r[1]);
+                        progress.getValidated().addAndGet(batch.size());
+                        checkpointer.committed(startRow, batch.size(), r[0], r[1]);
+                        onBatchDone.accept(progress);
+                    }
+                });
+            } catch (RuntimeException e) {
+                memory.close();
+                throw e;
+            }
+        };
+
+        GroupBoundaryBatcher<T> grouped = groupKey != null
+                ? new GroupBoundaryBatcher<>(() -> Math.min(plan.getBatchSize(),
+                        memoryGovernor.maxRows(rowBytes.getAsLong())), groupKey, dispatch)
+                : null;
+        Consumer<List<T>> onBatch = skipFirst(resumeFrom,
+                grouped != null ? grouped : memoryGovernor.slicing(rowBytes, dispatch));
+
+        try (ExternalMergeSorter<T> sorter = groupKey != null && plan.isSortByKey()
+                ? new ExternalMergeSorter<>(rowType, byGroupKey(groupKey), objectMapper,
+                        Paths.get(sortSpillDir), sortMaxRowsInMemory)
+                : null) {
+
+            progress.setStage(sorter != null ? JobProgress.Stage.SORTING : JobProgress.Stage.WRITING);
+            Consumer<List<T>> sink = sorter != null ? sorter::addAll : onBatch;
+            Consumer<List<T>> parsed = batch -> {
+                checkpointer.stopIfRequested();
+                progress.getParsed().addAndGet(batch.size());
+                sink.accept(batch);
+            };
+            if (fileType == UploadJob.FileType.CSV) {
+                csvStreamer.stream(is, plan.getBatchSize(), parsed, rows -> {});
+            } else {
+                jsonStreamParser.streamArray(is, rowType, plan.getBatchSize(), parsed, rows -> {});
+            }
+
+            if (sorter != null) {
+                progress.setStage(JobProgress.Stage.WRITING);
+                sorter.drainTo(plan.getBatchSize(), onBatch);
+            }
+            if (grouped != null) grouped.flush();
+        } catch (JobDrainedException | JobCancelledException e) {
+            // Let the batches already handed to writers commit, so the checkpoint covers them
+            dispatcher.awaitCompletion();
+            throw e;
         }
+        dispatcher.awaitCompletion();
+    }
+
+    /** Drop the first {@code rows} rows, then pass every batch through unchanged. */
+    private static <T> Consumer<List<T>> skipFirst(long rows, Consumer<List<T>> next) {
+        if (rows <= 0) return next;
+        AtomicLong toSkip = new AtomicLong(rows);
+        return batch -> {
+            long skip = toSkip.get();
+            if (skip == 0) {
+                next.accept(batch);
+            } else if (skip >= batch.size()) {
+                toSkip.addAndGet(-batch.size());
+            } else {
+                toSkip.set(0);
+                next.accept(new ArrayList<>(batch.subList((int) skip, batch.size())));
+            }
+        };
+    }
+
+    /**
+     * Persists the committed prefix each time it advances, and tells the pipeline when to
+     * stop: when the job is cancelled or past its deadline, on shutdown, or once
+     * {@code save} reports the work is no longer ours.
+     */
+    private final class Checkpointer {
+        private final UUID jobId;
+        private final CommitWatermark watermark;
+        private final Predicate<CommitWatermark.Position> save;   // null: nothing is saved
+        private volatile boolean disowned;
+
+        Checkpointer(UUID jobId, CommitWatermark watermark, Predicate<CommitWatermark.Position> save) {
+            this.jobId = jobId;
+            this.watermark = watermark;
+            this.save = save;
+        }
+
+        // Synchronized so an older position is never written after a newer one
+        synchronized void committed(long startRow, int rows, long processed, long failed) {
+            CommitWatermark.Position position = watermark.complete(startRow, rows, processed, failed);
+            if (position != null && save != null && !save.test(position)) disowned = true;
+        }
+
+        boolean isDisowned() {
+            return disowned;
+        }
+
+        void stopIfRequested() {
+            String cancelled = cancellations.reasonToStop(jobId);
+            if (cancelled != null) throw new JobCancelledException(cancelled);
+            if (disowned || checkpoints.isDraining()) throw new JobDrainedException();
+        }
+    }
+
+    /** Unwinds a job's parser when shutdown starts; the job keeps its checkpoint and staged file. */
+    private static final class JobDrainedException extends RuntimeException {
+        JobDrainedException() {
+            super("Job stopped for shutdown", null, false, false);
+        }
+    }
+
+    /** Unwinds a cancelled job's parser; the job ends as CANCELLED and its file is dropped. */
+    private static final class JobCancelledException extends RuntimeException {
+        JobCancelledException(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    /**
+     * Wait for the bundle's customer and product jobs, then run the parked order rows
+     * again; whatever is still unresolvable is rejected as usual. Parked rows were already
+     * counted in the job total, and each parked order was parked whole, so order
+     * boundaries survive the round trip.
+     */
+    private void replayDeferred(UUID jobId, DeferredOrders deferred, LoadPlan plan,
+                                JobProgress progress, Checkpointer checkpointer) throws IOException {
+        long parked = deferred.parked().size();
+        if (parked == 0) return;
+
+        log.info("[Job {}] {} order rows parked, waiting for bundle dependencies", jobId, parked);
+        // A failed dependency still lets the parked rows run (and fail individually)
+        deferred.dependencies().exceptionally(e -> null).join();
+        progress.setStage(JobProgress.Stage.REPLAYING);
+
+        AtomicInteger replayOffset = new AtomicInteger();
+        GroupBoundaryBatcher<OrderCsvRow> batcher = new GroupBoundaryBatcher<>(plan.getBatchSize(),
+                OrderCsvRow::getOrderNumber, batch -> {
+                    checkpointer.stopIfRequested();
+                    int[] r = orderService.processBatch(batch, replayOffset, plan.getStrategy(),
+                            ItemSync.REPLACE);
+                    progress.getWritten().addAndGet(r[0]);
+                    progress.getFailed().addAndGet(r[1]);
+                    progressTracker.onBatchDone(progress);
+                });
+        deferred.parked().drainTo(plan.getBatchSize(), batcher);
+        batcher.flush();
+        log.info("[Job {}] Replayed {} parked order rows", jobId, parked);
+    }
+
+    private static <T> Comparator<T> byGroupKey(Function<T, String> groupKey) {
+        return Comparator.comparing(row -> {
+            String key = groupKey.apply(row);
+            return key != null ? key.trim() : "";
+        });
+    }
+
+    @FunctionalInterface
+    private interface CsvBatchStreamer<T> {
+        void stream(InputStream is, int batchSize, Consumer<List<T>> batchConsumer,
+                    Consumer<Long> totalRowCounter) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BatchProcessor<T> {
+        int[] process(List<T> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy);
     }
 
     // -------------------------------------------------------
     // CLEANUP
     // -------------------------------------------------------
+    private long sizeQuietly(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void retireQuietly(UUID jobId, Path path, boolean loaded) {
+        try {
+            log.info("[Job {}] Moved landed file to {}", jobId, LandingDirectory.retire(path, loaded));
+        } catch (IOException e) {
+            log.warn("[Job {}] Could not move landed file {} out of processing: {}", jobId, path, e.getMessage());
+        }
+    }
+
     private void deleteQuietly(Path path) {
         try {
             Files.deleteIfExists(path);
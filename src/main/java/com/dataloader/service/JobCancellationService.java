@@ -0,0 +1,62 @@
+package com.dataloader.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cancellation requests and deadlines of jobs processed on this node. The pipeline asks
+ * {@link #reasonToStop} between batches (the same points where it checks for shutdown),
+ * so a cancelled job stops after the batches already handed to writers have committed,
+ * and its thread and connection go back to the queued jobs.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobCancellationService {
+
+    public static final String CANCELLED_BY_REQUEST = "Cancelled by request.";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<UUID, String> requested = new ConcurrentHashMap<>();
+    private final Map<UUID, LocalDateTime> deadlines = new ConcurrentHashMap<>();
+
+    /** The job must stop at its next batch, or not start at all. */
+    public void request(UUID jobId, String reason) {
+        requested.putIfAbsent(jobId, reason);
+    }
+
+    /** Stop the job once {@code deadline} has passed; null means no deadline. */
+    public void watchDeadline(UUID jobId, LocalDateTime deadline) {
+        if (deadline != null) deadlines.put(jobId, deadline);
+    }
+
+    /** Why the job must stop now, or null when it may go on. */
+    public String reasonToStop(UUID jobId) {
+        String reason = requested.get(jobId);
+        if (reason != null) return reason;
+        LocalDateTime deadline = deadlines.get(jobId);
+        if (deadline != null && LocalDateTime.now().isAfter(deadline)) {
+            reason = "Deadline " + deadline + " exceeded.";
+            if (requested.putIfAbsent(jobId, reason) == null) {
+                meterRegistry.counter("dataloader.jobs.deadline.exceeded").increment();
+                log.info("[Job {}] {}", jobId, reason);
+            }
+            return requested.get(jobId);
+        }
+        return null;
+    }
+
+    /** The job has finished here; drop what was kept for it. */
+    public void forget(UUID jobId) {
+        requested.remove(jobId);
+        deadlines.remove(jobId);
+    }
+}
@@ -0,0 +1,125 @@
+package com.dataloader.service;
+
+import com.dataloader.util.CommitWatermark;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Durable job checkpoints and graceful drain.
+ * <p>
+ * Each time a job's committed prefix advances, the new {@link CommitWatermark.Position}
+ * is written to {@code upload_jobs} straight away (not through the write-behind
+ * registry). On shutdown, running jobs are told to stop taking new batches; they wait
+ * for their in-flight batches, checkpoint, and leave their staged file for
+ * {@link JobRecoveryService} to resume on the next start. Shutdown waits up to
+ * {@code app.jobs.drain-timeout-ms} for that, before the connection pool closes.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobCheckpointService implements SmartLifecycle {
+
+    private static final String LOAD_SQL = """
+            SELECT checkpoint_rows, checkpoint_processed_rows, checkpoint_failed_rows
+            FROM upload_jobs WHERE job_id = ?
+            """;
+
+    private static final String SAVE_SQL = """
+            UPDATE upload_jobs SET checkpoint_rows = ?, checkpoint_processed_rows = ?,
+                                   checkpoint_failed_rows = ?, checkpointed_at = now()
+            WHERE job_id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.jobs.drain-timeout-ms:30000}")
+    private long drainTimeoutMs;
+
+    // Running work per job; several segments of one job may run here in cluster mode
+    private final Map<UUID, Integer> active = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private volatile boolean draining;
+
+    /** Last checkpoint of a job; all zeros for a job that never committed a batch. */
+    public CommitWatermark.Position load(UUID jobId) {
+        return jdbcTemplate.query(LOAD_SQL, rs -> rs.next()
+                ? new CommitWatermark.Position(rs.getLong(1), rs.getLong(2), rs.getLong(3))
+                : new CommitWatermark.Position(0, 0, 0), jobId);
+    }
+
+    public void save(UUID jobId, CommitWatermark.Position position) {
+        jdbcTemplate.update(SAVE_SQL, position.rows(), position.processed(), position.failed(), jobId);
+    }
+
+    /** Shutdown has begun: jobs must not start, and running jobs must stop at the next batch. */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /** Whether the job has work running on this node. */
+    public boolean isActive(UUID jobId) {
+        return active.containsKey(jobId);
+    }
+
+    public void begin(UUID jobId) {
+        active.merge(jobId, 1, Integer::sum);
+    }
+
+    public void end(UUID jobId) {
+        active.computeIfPresent(jobId, (id, running) -> running > 1 ? running - 1 : null);
+        synchronized (active) {
+            active.notifyAll();
+        }
+    }
+
+    // -------------------------------------------------------
+    // LIFECYCLE (stopped before the web server and the pool)
+    // -------------------------------------------------------
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        draining = true;
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        synchronized (active) {
+            while (!active.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    log.warn("Drain timed out with {} jobs still running; they resume from their last checkpoint",
+                            active.size());
+                    break;
+                }
+                log.info("Draining {} running jobs", active.size());
+                try {
+                    active.wait(Math.min(remaining, 1000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Above the web server's graceful-shutdown phase, so draining starts first
+        return Integer.MAX_VALUE;
+    }
+}
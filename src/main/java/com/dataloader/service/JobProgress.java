@@ -0,0 +1,87 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.JobProgressSnapshot;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Live counters of one running job, updated lock-free by the parser and writer threads
+ * and read by {@link JobProgressTracker} and the progress stream.
+ */
+@Getter
+public class JobProgress {
+
+    public enum Stage { PLANNING, SORTING, WRITING, REPLAYING }
+
+    private final UUID jobId;
+    private final long fileSizeBytes;
+    private final long startedNanos = System.nanoTime();
+
+    @Setter private volatile Stage stage = Stage.PLANNING;
+    @Setter private volatile LongSupplier bytesRead = () -> 0L;
+
+    private final AtomicLong parsed    = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong written   = new AtomicLong();
+    private final AtomicLong failed    = new AtomicLong();
+    // Rows a resumed job had committed before this run; they are done but not part of its rate
+    private volatile long resumedFrom;
+
+    // Throttling state for persisted progress
+    final AtomicLong lastPersistNanos = new AtomicLong(System.nanoTime());
+    final AtomicLong lastPersistRows  = new AtomicLong();
+
+    public JobProgress(UUID jobId, long fileSizeBytes) {
+        this.jobId = jobId;
+        this.fileSizeBytes = fileSizeBytes;
+    }
+
+    /** Continue from a checkpoint: its rows count as done but not toward this run's rate. */
+    public void resumeFrom(long rows) {
+        resumedFrom = rows;
+        validated.set(rows);
+        lastPersistRows.set(rows);
+    }
+
+    /**
+     * Total rows estimated from the rows parsed per byte read so far; once the whole file
+     * has been read this is the exact parsed count.
+     */
+    public long estimatedTotalRows() {
+        long rows = parsed.get();
+        long bytes = bytesRead.getAsLong();
+        if (rows == 0 || bytes == 0 || fileSizeBytes <= 0) return rows;
+        if (bytes >= fileSizeBytes) return rows;
+        return Math.max(rows, Math.round(rows * ((double) fileSizeBytes / bytes)));
+    }
+
+    public JobProgressSnapshot snapshot(String status) {
+        long done = validated.get();
+        long total = estimatedTotalRows();
+        double elapsed = (System.nanoTime() - startedNanos) / 1e9;
+        double rate = elapsed > 0 ? (done - resumedFrom) / elapsed : 0;
+        double percent = total > 0 ? Math.min(100.0, done * 100.0 / total) : 0.0;
+        Long eta = rate > 0 && total >= done ? Math.round((total - done) / rate) : null;
+
+        return JobProgressSnapshot.builder()
+                .jobId(jobId)
+                .status(status)
+                .stage(stage.name())
+                .rowsParsed(parsed.get())
+                .rowsValidated(done)
+                .rowsWritten(written.get())
+                .rowsFailed(failed.get())
+                .bytesRead(bytesRead.getAsLong())
+                .fileSizeBytes(fileSizeBytes)
+                .estimatedTotalRows(total)
+                .percentDone(Math.round(percent * 100.0) / 100.0)
+                .rowsPerSecond(Math.round(rate * 10.0) / 10.0)
+                .etaSeconds(eta)
+                .elapsedSeconds((long) elapsed)
+                .build();
+    }
+}
@@ -0,0 +1,114 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.JobProgressSnapshot;
+import com.dataloader.dto.UploadJobResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Server-Sent Events fan-out of job progress.
+ * A single scheduled tick builds one snapshot per subscribed job (from memory while the
+ * job runs here, from one {@code upload_jobs} read otherwise) and pushes it to every
+ * subscriber of that job, so the cost does not grow with the number of clients.
+ * Streams are completed once the job reaches a terminal state.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobProgressStreamer {
+
+    private static final Set<String> TERMINAL = Set.of("COMPLETED", "PARTIAL", "FAILED", "CANCELLED");
+
+    private final JobProgressTracker progressTracker;
+    private final UploadJobService   uploadJobService;
+
+    @Value("${app.progress.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    private final Map<UUID, List<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+
+    public SseEmitter subscribe(UUID jobId) {
+        // Fails fast (400) for unknown jobs
+        UploadJobResponse job = uploadJobService.getJobStatus(jobId);
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        List<SseEmitter> emitters = subscribers.computeIfAbsent(jobId, id -> new CopyOnWriteArrayList<>());
+        emitters.add(emitter);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> emitters.remove(emitter));
+
+        // First event right away instead of after the next tick
+        JobProgressSnapshot first = snapshot(jobId, job);
+        send(emitter, first);
+        if (TERMINAL.contains(first.getStatus())) emitter.complete();
+        return emitter;
+    }
+
+    @Scheduled(fixedRateString = "${app.progress.stream-interval-ms:1000}")
+    public void broadcast() {
+        for (Map.Entry<UUID, List<SseEmitter>> entry : subscribers.entrySet()) {
+            UUID jobId = entry.getKey();
+            List<SseEmitter> emitters = entry.getValue();
+            if (emitters.isEmpty()) {
+                subscribers.remove(jobId, emitters);
+                continue;
+            }
+
+            JobProgressSnapshot snapshot;
+            try {
+                snapshot = snapshot(jobId, null);
+            } catch (Exception e) {
+                log.debug("[Job {}] Progress snapshot failed: {}", jobId, e.getMessage());
+                continue;
+            }
+
+            boolean terminal = TERMINAL.contains(snapshot.getStatus());
+            for (SseEmitter emitter : emitters) {
+                send(emitter, snapshot);
+                if (terminal) emitter.complete();
+            }
+            if (terminal) subscribers.remove(jobId);
+        }
+    }
+
+    private JobProgressSnapshot snapshot(UUID jobId, UploadJobResponse knownJob) {
+        JobProgress live = progressTracker.get(jobId);
+        if (live != null) return live.snapshot("PROCESSING");
+
+        // Not running here: pending, finished, or running on another node
+        UploadJobResponse job = knownJob != null ? knownJob : uploadJobService.getJobStatus(jobId);
+        long done = job.getTotalRows() != null ? job.getTotalRows() : 0;
+        return JobProgressSnapshot.builder()
+                .jobId(jobId)
+                .status(job.getStatus())
+                .rowsValidated(done)
+                .rowsWritten(job.getProcessedRows() != null ? job.getProcessedRows() : 0)
+                .rowsFailed(job.getFailedRows() != null ? job.getFailedRows() : 0)
+                .estimatedTotalRows(done)
+                .percentDone(TERMINAL.contains(job.getStatus()) ? 100.0
+                        : job.getProgressPercent() != null ? job.getProgressPercent() : 0.0)
+                .build();
+    }
+
+    private void send(SseEmitter emitter, JobProgressSnapshot snapshot) {
+        try {
+            emitter.send(SseEmitter.event().name("progress").data(snapshot));
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; the completion callback drops the emitter
+            emitter.completeWithError(e);
+        }
+    }
+}
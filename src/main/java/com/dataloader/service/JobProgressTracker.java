@@ -0,0 +1,67 @@
+package com.dataloader.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of live {@link JobProgress} for the jobs running on this node.
+ * Writers report each finished batch; progress is persisted to {@code upload_jobs}
+ * at most every {@code app.progress.persist-interval-ms} or every
+ * {@code app.progress.persist-every-rows} rows, whichever comes first.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobProgressTracker {
+
+    private final UploadJobService uploadJobService;
+
+    @Value("${app.progress.persist-interval-ms:2000}")
+    private long persistIntervalMs;
+
+    @Value("${app.progress.persist-every-rows:50000}")
+    private long persistEveryRows;
+
+    private final Map<UUID, JobProgress> live = new ConcurrentHashMap<>();
+
+    public JobProgress start(UUID jobId, long fileSizeBytes) {
+        JobProgress progress = new JobProgress(jobId, fileSizeBytes);
+        live.put(jobId, progress);
+        return progress;
+    }
+
+    /** Live progress, or null when the job is not running on this node. */
+    public JobProgress get(UUID jobId) {
+        return live.get(jobId);
+    }
+
+    public void finish(UUID jobId) {
+        live.remove(jobId);
+    }
+
+    /** Called after each batch; persists progress when the time or row threshold is crossed. */
+    public void onBatchDone(JobProgress progress) {
+        long now = System.nanoTime();
+        long last = progress.lastPersistNanos.get();
+        long rows = progress.getValidated().get();
+        boolean due = now - last >= persistIntervalMs * 1_000_000L
+                || rows - progress.lastPersistRows.get() >= persistEveryRows;
+        // Only one writer lane persists a given tick
+        if (!due || !progress.lastPersistNanos.compareAndSet(last, now)) return;
+
+        progress.lastPersistRows.set(rows);
+        try {
+            uploadJobService.updateProgress(progress.getJobId(), progress.estimatedTotalRows(),
+                    progress.getWritten().get(), progress.getFailed().get());
+        } catch (Exception e) {
+            // Progress is advisory; never fail a job over it
+            log.debug("[Job {}] Could not persist progress: {}", progress.getJobId(), e.getMessage());
+        }
+    }
+}
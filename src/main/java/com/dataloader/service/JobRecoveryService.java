@@ -0,0 +1,98 @@
+package com.dataloader.service;
+
+import com.dataloader.model.UploadJob;
+import com.dataloader.repository.UploadJobRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Picks up jobs left unfinished by a crash or redeploy. A {@code PENDING} or
+ * {@code PROCESSING} job whose staged file is still in {@code uploads/} is queued again
+ * and resumes from its last checkpoint (see {@link JobCheckpointService}); one whose
+ * file is gone is marked failed. Jobs of chunked upload sessions that are still open
+ * are left alone; they restart with their next chunk or commit.
+ * <p>
+ * Without cluster mode this assumes one instance owns the staging directory. In cluster
+ * mode, jobs already in {@link JobSegmentQueue} are left to its leases, and a job with no
+ * segments is only queued once it is older than the lease timeout, so a job another node
+ * is still staging or queuing is not taken from it. A landing-directory job is only resumed
+ * by a node that can see its claimed file.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobRecoveryService {
+
+    private static final String RECOVERY_SUBMITTER = "recovery";
+
+    private final UploadJobRepository uploadJobRepository;
+    private final UploadJobService    uploadJobService;
+    private final FileUploadService   fileUploadService;
+    private final BundleUploadService bundleUploadService;
+    private final ChunkedUploadService chunkedUploadService;
+    private final JobSegmentQueue     segmentQueue;
+
+    @Value("${app.jobs.resume-on-startup:true}")
+    private boolean enabled;
+
+    // Before LandingDirectoryWatcher starts creating jobs of its own
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE - 1)
+    public void resumeUnfinishedJobs() {
+        if (!enabled) return;
+
+        List<UploadJob> unfinished = new ArrayList<>(uploadJobRepository.findByStatusInOrderByIdAsc(
+                EnumSet.of(UploadJob.JobStatus.PENDING, UploadJob.JobStatus.PROCESSING)));
+        if (unfinished.isEmpty()) return;
+
+        Set<UUID> receiving = chunkedUploadService.openSessionJobIds();
+        unfinished.removeIf(job -> receiving.contains(job.getJobId()));
+        if (segmentQueue.isEnabled()) {
+            LocalDateTime settled = LocalDateTime.now().minusNanos(segmentQueue.getLeaseTimeoutMs() * 1_000_000L);
+            unfinished.removeIf(job -> job.getCreatedAt() == null || job.getCreatedAt().isAfter(settled)
+                    || segmentQueue.hasSegments(job.getJobId())
+                    // Landing-directory jobs belong to the node that claimed the file
+                    || job.getSourcePath() != null && !Files.exists(fileUploadService.stagedPath(job)));
+        }
+        if (unfinished.isEmpty()) return;
+
+        JobScheduler.JobRequest request = JobScheduler.JobRequest.of(RECOVERY_SUBMITTER, JobScheduler.JobPriority.NORMAL);
+        Map<UUID, List<UploadJob>> bundles = new LinkedHashMap<>();
+        int resumed = 0;
+
+        for (UploadJob job : unfinished) {
+            if (!Files.exists(fileUploadService.stagedPath(job))) {
+                uploadJobService.markFailed(job.getJobId(),
+                        "Interrupted by a restart and the staged file is no longer available; please upload again.");
+                continue;
+            }
+            resumed++;
+            if (job.getBundleId() != null) {
+                bundles.computeIfAbsent(job.getBundleId(), id -> new ArrayList<>()).add(job);
+            } else {
+                fileUploadService.scheduleProcessing(job, request);
+            }
+        }
+        // Unfinished members of a bundle go back through the bundle path so orders wait on their dependencies
+        bundles.values().forEach(members -> bundleUploadService.processBundle(members, request));
+
+        log.info("Recovery: {} unfinished jobs found, {} resumed, {} failed",
+                unfinished.size(), resumed, unfinished.size() - resumed);
+    }
+}
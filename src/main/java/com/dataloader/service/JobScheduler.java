@@ -0,0 +1,362 @@
+package com.dataloader.service;
+
+import com.dataloader.exception.SchedulerSaturatedException;
+import com.dataloader.service.FileUploadService.DataType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which queued upload job runs next, replacing a plain FIFO thread pool.
+ * <ul>
+ *   <li>Priority classes: a runnable HIGH job always goes before NORMAL, NORMAL before LOW.</li>
+ *   <li>Weighted fair sharing: each submitter has a stride-scheduling pass that grows by
+ *       the job's cost (1 + size / {@code app.scheduler.cost-unit-bytes}) divided by the
+ *       submitter's weight; the lowest pass goes next, so one team's 2 GB upload cannot
+ *       starve everyone else.</li>
+ *   <li>Within a submitter, smallest jobs first.</li>
+ *   <li>Per-entity concurrency limits ({@code app.scheduler.max-running.<ENTITY>}).</li>
+ * </ul>
+ * Admission control rejects new jobs with {@link SchedulerSaturatedException} (HTTP 429)
+ * once the queue is full, instead of letting the executor throw. An admitted request
+ * reserves its slots until its jobs are queued or it gives up, so concurrent requests
+ * cannot all pass the same check.
+ * <p>
+ * A submitter is only tracked while it has queued or running jobs; one that comes back
+ * after going idle restarts at the current virtual time.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobScheduler {
+
+    public enum JobPriority { HIGH, NORMAL, LOW }
+
+    /** Who submitted a job and how urgent it is. */
+    public record JobRequest(String submitter, JobPriority priority) {
+
+        public static final String DEFAULT_SUBMITTER = "anonymous";
+
+        // Submitter names become map keys and metric tags, so keep them short and plain
+        private static final Pattern SUBMITTER_NAME = Pattern.compile("[A-Za-z0-9._@:-]{1,64}");
+
+        /** Throws {@link IllegalArgumentException} for a submitter name that is too long or not plain. */
+        public static JobRequest of(String submitter, JobPriority priority) {
+            String name = submitter == null || submitter.isBlank() ? DEFAULT_SUBMITTER : submitter.trim();
+            if (!SUBMITTER_NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException(
+                        "Invalid submitter: use at most 64 letters, digits or any of . _ @ : -");
+            }
+            return new JobRequest(name, priority != null ? priority : JobPriority.NORMAL);
+        }
+    }
+
+    @Qualifier("fileProcessingExecutor")
+    private final Executor executor;
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.scheduler.max-concurrent-jobs:8}")
+    private int maxConcurrentJobs;
+
+    @Value("${app.scheduler.max-queued:200}")
+    private int maxQueued;
+
+    @Value("${app.scheduler.max-queued-per-submitter:50}")
+    private int maxQueuedPerSubmitter;
+
+    @Value("${app.scheduler.cost-unit-bytes:67108864}")
+    private long costUnitBytes;
+
+    @Value("${app.scheduler.retry-after-seconds:30}")
+    private int defaultRetryAfterSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Submitter> submitters = new HashMap<>();
+    private final Map<UUID, QueuedJob> queued = new HashMap<>();
+    // Slots admitted but not queued yet, per request instance and per submitter
+    private final Map<JobRequest, Integer> reservations = new IdentityHashMap<>();
+    private final Map<String, Integer> reservedBySubmitter = new HashMap<>();
+    private int reserved;
+    private final Map<DataType, Integer> runningByType = new EnumMap<>(DataType.class);
+    private final Map<DataType, Integer> limits = new EnumMap<>(DataType.class);
+    private int running;
+    private long sequence;
+    private double virtualTime;
+    private double avgJobSeconds;
+
+    @PostConstruct
+    void init() {
+        for (DataType type : DataType.values()) {
+            limits.put(type, environment.getProperty("app.scheduler.max-running." + type.name(),
+                    Integer.class, maxConcurrentJobs));
+            runningByType.put(type, 0);
+        }
+        Gauge.builder("dataloader.scheduler.queued", this, s -> s.count(true)).register(meterRegistry);
+        Gauge.builder("dataloader.scheduler.running", this, s -> s.count(false)).register(meterRegistry);
+    }
+
+    /** Slots reserved by {@link #admit}; closing releases the ones no job was queued for. */
+    public final class Admission implements AutoCloseable {
+
+        private final JobRequest request;
+
+        private Admission(JobRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void close() {
+            release(request);
+        }
+    }
+
+    /** Admit and reserve one job; see {@link #admit(JobRequest, int)}. */
+    public Admission admit(JobRequest request) {
+        return admit(request, 1);
+    }
+
+    /**
+     * Reserve {@code jobs} queue slots for {@code request}, or throw
+     * {@link SchedulerSaturatedException} when they would not fit. Each job later
+     * {@link #submit submitted} with this same request instance takes one of the slots;
+     * whatever is left is released when the admission is closed.
+     */
+    public Admission admit(JobRequest request, int jobs) {
+        lock.lock();
+        try {
+            Submitter submitter = submitters.get(request.submitter());
+            int mine = (submitter != null ? submitter.jobs.size() : 0)
+                    + reservedBySubmitter.getOrDefault(request.submitter(), 0);
+            if (queued.size() + reserved + jobs > maxQueued || mine + jobs > maxQueuedPerSubmitter) {
+                meterRegistry.counter("dataloader.scheduler.rejected", "submitter", request.submitter()).increment();
+                throw new SchedulerSaturatedException(
+                        "Job queue is full (" + (queued.size() + reserved) + " queued or admitted, " + mine
+                                + " from " + request.submitter() + ")",
+                        retryAfterSeconds());
+            }
+            reservations.merge(request, jobs, Integer::sum);
+            reservedBySubmitter.merge(request.submitter(), jobs, Integer::sum);
+            reserved += jobs;
+            return new Admission(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Release the slots {@code request} still holds; used when it ends without queueing them. */
+    public void release(JobRequest request) {
+        lock.lock();
+        try {
+            release(request, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a job. It becomes runnable once every job in {@code startAfter} has started
+     * (bundle orders wait on their customer and product jobs), and its entity type is
+     * under its concurrency limit.
+     *
+     * @return completes when the task has finished (normally or not)
+     */
+    public CompletableFuture<Void> submit(UUID jobId, JobRequest request, DataType dataType, long sizeBytes,
+                                          Collection<UUID> startAfter, Runnable task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        lock.lock();
+        try {
+            Submitter submitter = submitters.computeIfAbsent(request.submitter(),
+                    name -> new Submitter(name, weightOf(name)));
+            if (submitter.jobs.isEmpty()) {
+                // A submitter returning from idle starts at the current virtual time, not with saved credit
+                submitter.pass = Math.max(submitter.pass, virtualTime);
+            }
+            // The job now counts as queued, so the slot admitted for it is given back
+            release(request, 1);
+            QueuedJob job = new QueuedJob(jobId, submitter, request.priority(), dataType, sizeBytes,
+                    Set.copyOf(startAfter), task, done, sequence++);
+            submitter.jobs.add(job);
+            queued.put(jobId, job);
+            log.info("[Job {}] Queued: submitter={}, priority={}, {} bytes, {} queued",
+                    jobId, submitter.name, request.priority(), sizeBytes, queued.size());
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+        return done;
+    }
+
+    /** Concurrency limit of an entity type on this node ({@code app.scheduler.max-running.<ENTITY>}). */
+    public int limitFor(DataType dataType) {
+        return limits.get(dataType);
+    }
+
+    /** Remove a job that has not started yet; false when it is running or unknown. */
+    public boolean cancelQueued(UUID jobId) {
+        lock.lock();
+        try {
+            QueuedJob job = queued.remove(jobId);
+            if (job == null) return false;
+            job.submitter.jobs.remove(job);
+            forgetIfIdle(job.submitter);
+            job.done.complete(null);
+            dispatch();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // -------------------------------------------------------
+    // DISPATCH (lock held)
+    // -------------------------------------------------------
+    private void dispatch() {
+        while (running < maxConcurrentJobs) {
+            QueuedJob next = pickNext();
+            if (next == null) return;
+
+            queued.remove(next.jobId);
+            next.submitter.jobs.remove(next);
+            virtualTime = next.submitter.pass;
+            next.submitter.pass += (1.0 + (double) next.sizeBytes / costUnitBytes) / next.submitter.weight;
+            next.submitter.running++;
+            running++;
+            runningByType.merge(next.dataType, 1, Integer::sum);
+
+            try {
+                executor.execute(() -> run(next));
+            } catch (RuntimeException e) {
+                finished(next, 0);
+                next.done.completeExceptionally(e);
+                log.error("[Job {}] Could not start: {}", next.jobId, e.getMessage());
+            }
+        }
+    }
+
+    private void release(JobRequest request, int jobs) {
+        Integer held = reservations.get(request);
+        if (held == null) return;
+        int released = Math.min(jobs, held);
+        if (released == held) reservations.remove(request);
+        else reservations.put(request, held - released);
+        reservedBySubmitter.computeIfPresent(request.submitter(), (name, n) -> n > released ? n - released : null);
+        reserved -= released;
+    }
+
+    private QueuedJob pickNext() {
+        for (JobPriority priority : JobPriority.values()) {
+            QueuedJob best = null;
+            for (Submitter submitter : submitters.values()) {
+                if (best != null && submitter.pass >= best.submitter.pass) continue;
+                for (QueuedJob job : submitter.jobs) {
+                    if (job.priority == priority && isRunnable(job)) {
+                        best = job;
+                        break;
+                    }
+                }
+            }
+            if (best != null) return best;
+        }
+        return null;
+    }
+
+    private boolean isRunnable(QueuedJob job) {
+        if (runningByType.get(job.dataType) >= limits.get(job.dataType)) return false;
+        for (UUID prerequisite : job.startAfter) {
+            if (queued.containsKey(prerequisite)) return false;
+        }
+        return true;
+    }
+
+    private void run(QueuedJob job) {
+        long start = System.nanoTime();
+        try {
+            job.task.run();
+            job.done.complete(null);
+        } catch (Throwable t) {
+            log.error("[Job {}] Scheduled task failed", job.jobId, t);
+            job.done.completeExceptionally(t);
+        } finally {
+            lock.lock();
+            try {
+                finished(job, (System.nanoTime() - start) / 1e9);
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void finished(QueuedJob job, double seconds) {
+        running--;
+        runningByType.merge(job.dataType, -1, Integer::sum);
+        job.submitter.running--;
+        forgetIfIdle(job.submitter);
+        if (seconds > 0) {
+            avgJobSeconds = avgJobSeconds == 0 ? seconds : avgJobSeconds * 0.8 + seconds * 0.2;
+        }
+    }
+
+    // Keeps the map (scanned on every dispatch) to submitters with work; pass resets on return anyway
+    private void forgetIfIdle(Submitter submitter) {
+        if (submitter.jobs.isEmpty() && submitter.running == 0) {
+            submitters.remove(submitter.name, submitter);
+        }
+    }
+
+    private int retryAfterSeconds() {
+        if (avgJobSeconds <= 0) return defaultRetryAfterSeconds;
+        // Time for the running slots to drain one queue-length's worth of jobs
+        double estimate = avgJobSeconds * Math.max(1, queued.size()) / Math.max(1, maxConcurrentJobs);
+        return (int) Math.max(1, Math.min(600, Math.ceil(estimate)));
+    }
+
+    private double weightOf(String submitter) {
+        double weight = environment.getProperty("app.scheduler.weights." + submitter, Double.class, 1.0);
+        return weight > 0 ? weight : 1.0;
+    }
+
+    private int count(boolean queuedJobs) {
+        lock.lock();
+        try {
+            return queuedJobs ? queued.size() : running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // -------------------------------------------------------
+    // STATE
+    // -------------------------------------------------------
+    private static final class Submitter {
+        final String name;
+        final double weight;
+        double pass;
+        int running;
+        // Smallest first, then submission order
+        final NavigableSet<QueuedJob> jobs = new TreeSet<>(
+                Comparator.comparingLong((QueuedJob j) -> j.sizeBytes).thenComparingLong(j -> j.seq));
+
+        Submitter(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+
+    private record QueuedJob(UUID jobId, Submitter submitter, JobPriority priority, DataType dataType,
+                             long sizeBytes, Set<UUID> startAfter, Runnable task,
+                             CompletableFuture<Void> done, long seq) {}
+}
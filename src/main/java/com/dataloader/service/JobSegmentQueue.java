@@ -0,0 +1,352 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.LoadPlan;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.util.CommitWatermark;
+import com.dataloader.util.FileSegments;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Cluster-wide work queue in Postgres ({@code job_segments}), used when
+ * {@code app.cluster.enabled=true}.
+ * <p>
+ * A staged customer or product CSV larger than {@code app.cluster.segment-bytes} is cut
+ * into byte-range segments; other files become a single segment. Any node claims
+ * segments with {@code FOR UPDATE SKIP LOCKED}, so claimers never wait on each other,
+ * and keeps them leased through a heartbeat. A segment whose heartbeat is older than
+ * {@code app.cluster.lease-timeout-ms} is claimed again and resumes from its checkpoint.
+ * Heartbeats are a {@code TIMESTAMPTZ} set and compared with the database's {@code now()}
+ * only, so node clocks and session time zones never decide whether a lease expired.
+ * Every write by a worker is fenced on {@code owner}, so a node that lost its lease
+ * cannot overwrite the new owner's progress. Job totals are rolled up from the segments;
+ * whoever completes the last segment finishes the job.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class JobSegmentQueue {
+
+    /** A claimed segment; {@code checkpoint} is where a previous owner left off. */
+    public record Segment(long id, UUID jobId, int index, int count, FileSegments.Range range,
+                          String submitter, String fileName, UploadJob.FileType fileType,
+                          DataType dataType, CommitWatermark.Position checkpoint, LocalDateTime deadline) {
+
+        public String label() {
+            return jobId + " segment " + (index + 1) + "/" + count;
+        }
+    }
+
+    private static final String INSERT_SQL = """
+            INSERT INTO job_segments (job_id, segment_index, segment_count, start_offset, end_offset,
+                                      first_row, submitter, priority, start_after)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (job_id, segment_index) DO NOTHING
+            """;
+
+    // Priority class first, then the submitter with the fewest segments running cluster-wide
+    private static final String CLAIM_SQL = """
+            WITH picked AS (
+                SELECT s.id FROM job_segments s
+                JOIN upload_jobs j ON j.job_id = s.job_id
+                WHERE (s.status = 'PENDING'
+                       OR (s.status = 'CLAIMED' AND s.heartbeat_at < now() - (? * INTERVAL '1 millisecond')))
+                  AND j.status IN ('PENDING', 'PROCESSING')
+                  AND j.data_type <> ALL(?)
+                  AND (s.start_after IS NULL OR NOT EXISTS (
+                        SELECT 1 FROM upload_jobs d
+                        WHERE d.job_id = ANY(s.start_after) AND d.status IN ('PENDING', 'PROCESSING')))
+                ORDER BY s.priority,
+                         (SELECT count(*) FROM job_segments r WHERE r.submitter = s.submitter AND r.status = 'CLAIMED'),
+                         s.id
+                LIMIT ?
+                FOR UPDATE OF s SKIP LOCKED
+            )
+            UPDATE job_segments s
+            SET status = 'CLAIMED', owner = ?, heartbeat_at = now(), attempts = s.attempts + 1
+            FROM picked p, upload_jobs j
+            WHERE s.id = p.id AND j.job_id = s.job_id
+            RETURNING s.id, s.job_id, s.segment_index, s.segment_count, s.start_offset, s.end_offset,
+                      s.first_row, s.submitter, s.checkpoint_rows, s.checkpoint_processed_rows,
+                      s.checkpoint_failed_rows, j.file_name, j.file_type, j.data_type, j.deadline_at
+            """;
+
+    private static final String START_JOB_SQL = """
+            UPDATE upload_jobs SET status = 'PROCESSING', started_at = COALESCE(started_at, now())
+            WHERE job_id = ? AND status = 'PENDING'
+            """;
+
+    private static final String HEARTBEAT_SQL = """
+            UPDATE job_segments SET heartbeat_at = now() WHERE owner = ? AND status = 'CLAIMED'
+            """;
+
+    private static final String CHECKPOINT_SQL = """
+            UPDATE job_segments
+            SET checkpoint_rows = ?, checkpoint_processed_rows = ?, checkpoint_failed_rows = ?, heartbeat_at = now()
+            WHERE id = ? AND owner = ? AND status = 'CLAIMED'
+            """;
+
+    private static final String ROLL_UP_SQL = """
+            UPDATE upload_jobs j
+            SET total_rows = t.total, processed_rows = t.processed, failed_rows = t.failed
+            FROM (SELECT sum(checkpoint_rows) AS total, sum(checkpoint_processed_rows) AS processed,
+                         sum(checkpoint_failed_rows) AS failed
+                  FROM job_segments WHERE job_id = ?) t
+            WHERE j.job_id = ? AND j.status = 'PROCESSING'
+            """;
+
+    private static final String LOCK_JOB_SQL = "SELECT id FROM upload_jobs WHERE job_id = ? FOR UPDATE";
+
+    private static final String COMPLETE_SQL = """
+            UPDATE job_segments
+            SET status = 'DONE', checkpoint_rows = ?, checkpoint_processed_rows = ?, checkpoint_failed_rows = ?,
+                owner = NULL, completed_at = now()
+            WHERE id = ? AND owner = ? AND status = 'CLAIMED'
+            """;
+
+    // Same outcome rules as UploadJobService.markCompleted
+    private static final String FINISH_JOB_SQL = """
+            UPDATE upload_jobs j
+            SET status = CASE WHEN t.failed = 0 THEN 'COMPLETED'
+                              WHEN t.processed = 0 THEN 'FAILED'
+                              ELSE 'PARTIAL' END,
+                total_rows = t.total, processed_rows = t.processed, failed_rows = t.failed, completed_at = now()
+            FROM (SELECT sum(checkpoint_rows) AS total, sum(checkpoint_processed_rows) AS processed,
+                         sum(checkpoint_failed_rows) AS failed
+                  FROM job_segments WHERE job_id = ?) t
+            WHERE j.job_id = ? AND j.status = 'PROCESSING'
+              AND NOT EXISTS (SELECT 1 FROM job_segments s WHERE s.job_id = ? AND s.status <> 'DONE')
+            """;
+
+    private static final String RELEASE_SQL = """
+            UPDATE job_segments SET status = 'PENDING', owner = NULL, heartbeat_at = NULL
+            WHERE id = ? AND owner = ? AND status = 'CLAIMED'
+            """;
+
+    private static final String FAIL_SEGMENTS_SQL = """
+            UPDATE job_segments SET status = 'FAILED', completed_at = now()
+            WHERE job_id = ? AND status IN ('PENDING', 'CLAIMED')
+            """;
+
+    private static final String FAIL_JOB_SQL = """
+            UPDATE upload_jobs SET status = 'FAILED', error_message = ?, completed_at = now()
+            WHERE job_id = ? AND status IN ('PENDING', 'PROCESSING')
+            """;
+
+    // Running segments find their lease gone at the next checkpoint and stop
+    private static final String CANCEL_SEGMENTS_SQL = """
+            UPDATE job_segments SET status = 'CANCELLED', owner = NULL, completed_at = now()
+            WHERE job_id = ? AND status IN ('PENDING', 'CLAIMED')
+            """;
+
+    private static final String CANCEL_JOB_SQL = """
+            UPDATE upload_jobs j
+            SET status = 'CANCELLED', error_message = ?, total_rows = t.total, processed_rows = t.processed,
+                failed_rows = t.failed, completed_at = now()
+            FROM (SELECT sum(checkpoint_rows) AS total, sum(checkpoint_processed_rows) AS processed,
+                         sum(checkpoint_failed_rows) AS failed
+                  FROM job_segments WHERE job_id = ?) t
+            WHERE j.job_id = ? AND j.status IN ('PENDING', 'PROCESSING')
+            """;
+
+    private static final String PLAN_SQL = """
+            UPDATE upload_jobs SET file_size_bytes = ?, estimated_rows = ?, load_strategy = ?,
+                                   planned_batch_size = ?, planned_parallelism = ?, plan_details = ?
+            WHERE job_id = ?
+            """;
+
+    private static final String HAS_SEGMENTS_SQL = "SELECT EXISTS (SELECT 1 FROM job_segments WHERE job_id = ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.cluster.node-id:}")
+    private String configuredNodeId;
+
+    @Value("${app.cluster.segment-bytes:268435456}")
+    private long segmentBytes;
+
+    @Value("${app.cluster.lease-timeout-ms:30000}")
+    private long leaseTimeoutMs;
+
+    private volatile String nodeId;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getLeaseTimeoutMs() {
+        return leaseTimeoutMs;
+    }
+
+    /** Owner name written on claimed segments; unique per running process unless configured. */
+    public String nodeId() {
+        if (nodeId == null) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (IOException e) {
+                host = "node";
+            }
+            nodeId = configuredNodeId != null && !configuredNodeId.isBlank()
+                    ? configuredNodeId.trim()
+                    : host + ":" + ProcessHandle.current().pid();
+        }
+        return nodeId;
+    }
+
+    // -------------------------------------------------------
+    // PRODUCER SIDE
+    // -------------------------------------------------------
+    /**
+     * Cut the staged file into segments and queue them. Idempotent: queuing a job twice
+     * produces the same segments and inserts nothing the second time.
+     *
+     * @param startAfter jobs that must have finished before any segment is claimed
+     */
+    public void enqueue(UploadJob job, Path stagedFile, JobScheduler.JobRequest request,
+                        Collection<UUID> startAfter) throws IOException {
+        DataType dataType = DataType.valueOf(job.getDataType());
+        // Orders are batched per order (and possibly sorted), JSON has no record boundaries we can seek to
+        boolean splittable = job.getFileType() == UploadJob.FileType.CSV && dataType != DataType.ORDERS;
+        List<FileSegments.Range> ranges = splittable
+                ? FileSegments.split(stagedFile, segmentBytes)
+                : FileSegments.split(stagedFile, Long.MAX_VALUE);
+
+        UUID[] after = startAfter.isEmpty() ? null : startAfter.toArray(UUID[]::new);
+        List<Integer> indexes = IntStream.range(0, ranges.size()).boxed().toList();
+        jdbcTemplate.batchUpdate(INSERT_SQL, indexes, indexes.size(), (ps, i) -> {
+            FileSegments.Range range = ranges.get(i);
+            ps.setObject(1, job.getJobId());
+            ps.setInt(2, i);
+            ps.setInt(3, ranges.size());
+            ps.setLong(4, range.start());
+            ps.setLong(5, range.end());
+            ps.setLong(6, range.firstRow());
+            ps.setString(7, request.submitter());
+            ps.setInt(8, request.priority().ordinal());
+            ps.setArray(9, after != null ? ps.getConnection().createArrayOf("uuid", after) : null);
+        });
+        log.info("[Job {}] Queued cluster-wide as {} segments", job.getJobId(), ranges.size());
+    }
+
+    public boolean hasSegments(UUID jobId) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_SEGMENTS_SQL, Boolean.class, jobId));
+    }
+
+    // -------------------------------------------------------
+    // WORKER SIDE
+    // -------------------------------------------------------
+    /**
+     * Lease up to {@code limit} runnable segments to this node.
+     *
+     * @param excluded entity types this node has no free slot for
+     */
+    public List<Segment> claim(int limit, Collection<DataType> excluded) {
+        if (limit <= 0) return List.of();
+        List<Segment> claimed = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(CLAIM_SQL);
+            ps.setLong(1, leaseTimeoutMs);
+            ps.setArray(2, con.createArrayOf("varchar", excluded.stream().map(Enum::name).toArray(String[]::new)));
+            ps.setInt(3, limit);
+            ps.setString(4, nodeId());
+            return ps;
+        }, (rs, i) -> new Segment(
+                rs.getLong("id"),
+                rs.getObject("job_id", UUID.class),
+                rs.getInt("segment_index"),
+                rs.getInt("segment_count"),
+                new FileSegments.Range(rs.getLong("start_offset"), rs.getLong("end_offset"), rs.getLong("first_row")),
+                rs.getString("submitter"),
+                rs.getString("file_name"),
+                UploadJob.FileType.valueOf(rs.getString("file_type")),
+                DataType.valueOf(rs.getString("data_type")),
+                new CommitWatermark.Position(rs.getLong("checkpoint_rows"),
+                        rs.getLong("checkpoint_processed_rows"), rs.getLong("checkpoint_failed_rows")),
+                rs.getTimestamp("deadline_at") != null ? rs.getTimestamp("deadline_at").toLocalDateTime() : null));
+        for (Segment segment : claimed) {
+            jdbcTemplate.update(START_JOB_SQL, segment.jobId());
+        }
+        return claimed;
+    }
+
+    /** Extend the lease of every segment this node holds. */
+    public int heartbeat() {
+        return jdbcTemplate.update(HEARTBEAT_SQL, nodeId());
+    }
+
+    /** @return false when this node no longer owns the segment (lease lost or job failed elsewhere) */
+    public boolean checkpoint(Segment segment, CommitWatermark.Position position) {
+        int updated = jdbcTemplate.update(CHECKPOINT_SQL, position.rows(), position.processed(), position.failed(),
+                segment.id(), nodeId());
+        if (updated == 0) return false;
+        jdbcTemplate.update(ROLL_UP_SQL, segment.jobId(), segment.jobId());
+        return true;
+    }
+
+    /**
+     * Mark the segment done; if it was the job's last one, finish the job.
+     * The job row is locked first so two nodes finishing the last two segments at once
+     * cannot both miss each other's commit.
+     *
+     * @return true when this call finished the job
+     */
+    @Transactional
+    public boolean complete(Segment segment, CommitWatermark.Position position) {
+        jdbcTemplate.queryForList(LOCK_JOB_SQL, segment.jobId());
+        int updated = jdbcTemplate.update(COMPLETE_SQL, position.rows(), position.processed(), position.failed(),
+                segment.id(), nodeId());
+        if (updated == 0) {
+            log.warn("[Job {}] No longer owned by this node at completion", segment.label());
+            return false;
+        }
+        return jdbcTemplate.update(FINISH_JOB_SQL, segment.jobId(), segment.jobId(), segment.jobId()) > 0;
+    }
+
+    /** Give the segment back (shutdown); another node resumes it from its checkpoint. */
+    public void release(Segment segment) {
+        jdbcTemplate.update(RELEASE_SQL, segment.id(), nodeId());
+    }
+
+    /** Fail the job; its queued segments are dropped, running ones stop at their next checkpoint. */
+    @Transactional
+    public void fail(Segment segment, String errorMessage) {
+        jdbcTemplate.update(FAIL_SEGMENTS_SQL, segment.jobId());
+        jdbcTemplate.update(FAIL_JOB_SQL, errorMessage, segment.jobId());
+    }
+
+    /**
+     * Cancel the job cluster-wide; counters keep what its segments had checkpointed.
+     *
+     * @return false when the job had already finished
+     */
+    @Transactional
+    public boolean cancel(UUID jobId, String reason) {
+        jdbcTemplate.queryForList(LOCK_JOB_SQL, jobId);
+        jdbcTemplate.update(CANCEL_SEGMENTS_SQL, jobId);
+        return jdbcTemplate.update(CANCEL_JOB_SQL, reason, jobId, jobId) > 0;
+    }
+
+    /** Plan columns only: the rest of the row belongs to the roll-up. */
+    public void recordPlan(UUID jobId, LoadPlan plan, String planDetails) {
+        jdbcTemplate.update(PLAN_SQL, plan.getFileSizeBytes(), plan.getEstimatedRows(), plan.getStrategy().name(),
+                plan.getBatchSize(), plan.getParallelism(), planDetails, jobId);
+    }
+}
@@ -0,0 +1,191 @@
+package com.dataloader.service;
+
+import com.dataloader.model.UploadJob;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-process owner of live upload job state.
+ * <p>
+ * Transitions and progress updates change the in-memory job and mark it dirty; a
+ * scheduled write-behind flush writes each dirty job once per tick with a single
+ * batched UPDATE, however many updates it received in between. Terminal states are
+ * flushed synchronously before the caller continues. Finished jobs stay in memory
+ * for {@code app.jobs.registry.retain-terminal-ms} so status polling is served here.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class JobStateRegistry {
+
+    private static final Set<UploadJob.JobStatus> TERMINAL = Set.of(
+            UploadJob.JobStatus.COMPLETED, UploadJob.JobStatus.PARTIAL, UploadJob.JobStatus.FAILED,
+            UploadJob.JobStatus.CANCELLED);
+
+    private static final String UPDATE_SQL = """
+            UPDATE upload_jobs SET
+                status = ?, total_rows = ?, processed_rows = ?, failed_rows = ?, error_message = ?,
+                started_at = ?, completed_at = ?, file_size_bytes = ?, estimated_rows = ?,
+                load_strategy = ?, planned_batch_size = ?, planned_parallelism = ?, plan_details = ?
+            WHERE job_id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.jobs.registry.retain-terminal-ms:600000}")
+    private long retainTerminalMs;
+
+    private final Map<UUID, UploadJob> jobs = new ConcurrentHashMap<>();
+    private final Set<UUID> dirty = ConcurrentHashMap.newKeySet();
+
+    // Serializes flushes so an older snapshot can never be written after a newer one
+    private final Object flushLock = new Object();
+
+    /**
+     * Track a job that has just been persisted or loaded. A detached copy is kept, so a
+     * JPA session still holding the entity never flushes registry changes behind our back.
+     */
+    public void register(UploadJob job) {
+        jobs.put(job.getJobId(), copyOf(job));
+    }
+
+    /** Copy of the live state, or null when the job is not held here. */
+    public UploadJob get(UUID jobId) {
+        UploadJob job = jobs.get(jobId);
+        if (job == null) return null;
+        synchronized (job) {
+            return copyOf(job);
+        }
+    }
+
+    /**
+     * Apply {@code change} to the live job. Non-terminal results are written behind;
+     * a terminal result is flushed before this method returns.
+     *
+     * @return false when the job is not held here
+     */
+    public boolean update(UUID jobId, Consumer<UploadJob> change) {
+        UploadJob job = jobs.get(jobId);
+        if (job == null) return false;
+
+        boolean terminal;
+        synchronized (job) {
+            change.accept(job);
+            terminal = TERMINAL.contains(job.getStatus());
+        }
+        dirty.add(jobId);
+        if (terminal) flush(List.of(jobId), true);
+        return true;
+    }
+
+    /** Write any pending change and stop holding the job; later reads go to the table. */
+    public void release(UUID jobId) {
+        if (dirty.contains(jobId)) flush(List.of(jobId), false);
+        jobs.remove(jobId);
+    }
+
+    @Scheduled(fixedDelayString = "${app.jobs.registry.flush-interval-ms:1000}")
+    public void flushDirty() {
+        if (!dirty.isEmpty()) flush(new ArrayList<>(dirty), false);
+        evictExpired();
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flushDirty();
+    }
+
+    /** @param force write even if a concurrent flush already took the job (terminal writes) */
+    private void flush(List<UUID> jobIds, boolean force) {
+        synchronized (flushLock) {
+            List<Object[]> rows = new ArrayList<>(jobIds.size());
+            for (UUID jobId : jobIds) {
+                // Removed before the snapshot: a concurrent update re-marks the job dirty
+                if (!dirty.remove(jobId) && !force) continue;
+                UploadJob job = jobs.get(jobId);
+                if (job == null) continue;
+                synchronized (job) {
+                    rows.add(toArgs(job));
+                }
+            }
+            if (rows.isEmpty()) return;
+
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+            } catch (RuntimeException e) {
+                jobIds.forEach(dirty::add);
+                log.warn("Write-behind flush of {} jobs failed, will retry: {}", rows.size(), e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    private void evictExpired() {
+        LocalDateTime cutoff = LocalDateTime.now().minusNanos(retainTerminalMs * 1_000_000L);
+        jobs.entrySet().removeIf(e -> {
+            UploadJob job = e.getValue();
+            synchronized (job) {
+                return TERMINAL.contains(job.getStatus()) && !dirty.contains(e.getKey())
+                        && job.getCompletedAt() != null && job.getCompletedAt().isBefore(cutoff);
+            }
+        });
+    }
+
+    private Object[] toArgs(UploadJob job) {
+        return new Object[]{
+                job.getStatus().name(), job.getTotalRows(), job.getProcessedRows(), job.getFailedRows(),
+                job.getErrorMessage(), timestamp(job.getStartedAt()), timestamp(job.getCompletedAt()),
+                job.getFileSizeBytes(), job.getEstimatedRows(), job.getLoadStrategy(),
+                job.getPlannedBatchSize(), job.getPlannedParallelism(), job.getPlanDetails(),
+                job.getJobId()
+        };
+    }
+
+    private Timestamp timestamp(LocalDateTime value) {
+        return value != null ? Timestamp.valueOf(value) : null;
+    }
+
+    private UploadJob copyOf(UploadJob job) {
+        return UploadJob.builder()
+                .id(job.getId())
+                .jobId(job.getJobId())
+                .bundleId(job.getBundleId())
+                .fileName(job.getFileName())
+                .fileType(job.getFileType())
+                .dataType(job.getDataType())
+                .status(job.getStatus())
+                .totalRows(job.getTotalRows())
+                .processedRows(job.getProcessedRows())
+                .failedRows(job.getFailedRows())
+                .errorMessage(job.getErrorMessage())
+                .startedAt(job.getStartedAt())
+                .completedAt(job.getCompletedAt())
+                .fileSizeBytes(job.getFileSizeBytes())
+                .estimatedRows(job.getEstimatedRows())
+                .loadStrategy(job.getLoadStrategy())
+                .plannedBatchSize(job.getPlannedBatchSize())
+                .plannedParallelism(job.getPlannedParallelism())
+                .planDetails(job.getPlanDetails())
+                .contentSha256(job.getContentSha256())
+                .idempotencyKey(job.getIdempotencyKey())
+                .sourcePath(job.getSourcePath())
+                .deadlineAt(job.getDeadlineAt())
+                .createdAt(job.getCreatedAt())
+                .build();
+    }
+}
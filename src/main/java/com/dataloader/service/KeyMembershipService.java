@@ -0,0 +1,164 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.LoadPlan;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-entity Bloom filters of existing business keys, used to route rows whose key
+ * is definitely new down a plain INSERT path instead of the ON CONFLICT upsert.
+ * Filters are built at startup from a streaming scan and updated as batches write.
+ * Until a filter is ready every key is reported as possibly existing.
+ */
+@Service
+@Slf4j
+public class KeyMembershipService {
+
+    private final JdbcTemplate scanTemplate;
+    private final TransactionTemplate readOnlyTx;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.bloom.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.bloom.expected-keys:10000000}")
+    private long expectedKeys;
+
+    @Value("${app.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${app.bloom.max-bytes-per-entity:67108864}")
+    private long maxBytes;
+
+    private final Map<DataType, BloomFilter> filters = new ConcurrentHashMap<>();
+    private final Set<DataType> ready = ConcurrentHashMap.newKeySet();
+
+    public KeyMembershipService(DataSource dataSource,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry) {
+        this.scanTemplate = new JdbcTemplate(dataSource);
+        this.scanTemplate.setFetchSize(10_000);
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildFilters() {
+        if (!enabled) return;
+
+        for (DataType type : DataType.values()) {
+            BloomFilter filter = BloomFilter.create(expectedKeys, fpp, maxBytes);
+            filters.put(type, filter);
+            registerGauges(type, filter);
+        }
+
+        Thread warmup = new Thread(() -> {
+            for (DataType type : DataType.values()) {
+                scan(type);
+            }
+        }, "bloom-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    /** True only when the key has certainly never been written for this entity. */
+    public boolean isDefinitelyNew(DataType type, String key) {
+        if (!enabled || key == null) return false;
+        if (!ready.contains(type)) return false;
+        boolean isNew = !filters.get(type).mightContain(key.trim());
+        routedCounter(type, isNew ? "insert" : "upsert").increment();
+        return isNew;
+    }
+
+    /** Whether a row should take the plain insert path under the job's load strategy. */
+    public boolean routesToInsert(LoadPlan.Strategy strategy, DataType type, String key) {
+        return switch (strategy) {
+            case INSERT_ONLY -> true;
+            case UPSERT      -> false;
+            case ROUTED      -> isDefinitelyNew(type, key);
+        };
+    }
+
+    /**
+     * Fraction of the given keys that are definitely new, or null when no filter is ready.
+     * Does not count towards the routing metrics.
+     */
+    public Double estimateNewFraction(DataType type, Collection<String> keys) {
+        if (!enabled || !ready.contains(type) || keys.isEmpty()) return null;
+        BloomFilter filter = filters.get(type);
+        long fresh = keys.stream().filter(k -> !filter.mightContain(k.trim())).count();
+        return (double) fresh / keys.size();
+    }
+
+    /** Record keys that were (or may have been) written; extra keys only cost false positives. */
+    public void recordKeys(DataType type, Collection<String> keys) {
+        BloomFilter filter = filters.get(type);
+        if (filter == null) return;
+        keys.stream().filter(Objects::nonNull).map(String::trim).forEach(filter::put);
+    }
+
+    /** Called when a key routed to the insert path turned out to exist (filter was stale). */
+    public void recordInsertConflicts(DataType type, int conflicts) {
+        if (conflicts > 0) {
+            meterRegistry.counter("dataloader.bloom.insert.conflicts", "entity", type.name())
+                    .increment(conflicts);
+        }
+    }
+
+    private void scan(DataType type) {
+        String sql = switch (type) {
+            case CUSTOMERS -> "SELECT customer_code FROM customers";
+            case PRODUCTS  -> "SELECT product_code FROM products";
+            case ORDERS    -> "SELECT order_number FROM orders";
+        };
+        BloomFilter filter = filters.get(type);
+
+        long start = System.currentTimeMillis();
+        try {
+            readOnlyTx.executeWithoutResult(status ->
+                    scanTemplate.query(sql, rs -> {
+                        filter.put(rs.getString(1));
+                    }));
+            ready.add(type);
+            log.info("Bloom filter for {} ready: {} keys, {} KB, expected fpp {}",
+                    type, filter.insertions(), filter.sizeInBytes() / 1024,
+                    String.format("%.5f", filter.expectedFpp()));
+        } catch (Exception e) {
+            // Filter stays not-ready: every row keeps taking the upsert path
+            log.error("Bloom filter scan for {} failed after {} ms: {}",
+                    type, System.currentTimeMillis() - start, e.getMessage());
+        }
+    }
+
+    private void registerGauges(DataType type, BloomFilter filter) {
+        Gauge.builder("dataloader.bloom.keys", filter, BloomFilter::insertions)
+                .tag("entity", type.name()).register(meterRegistry);
+        Gauge.builder("dataloader.bloom.size.bytes", filter, BloomFilter::sizeInBytes)
+                .tag("entity", type.name()).register(meterRegistry);
+        Gauge.builder("dataloader.bloom.expected.fpp", filter, BloomFilter::expectedFpp)
+                .tag("entity", type.name()).register(meterRegistry);
+    }
+
+    private Counter routedCounter(DataType type, String path) {
+        return meterRegistry.counter("dataloader.bloom.routed", "entity", type.name(), "path", path);
+    }
+}
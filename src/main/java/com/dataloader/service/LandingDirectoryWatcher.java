@@ -0,0 +1,275 @@
+package com.dataloader.service;
+
+import com.dataloader.exception.SchedulerSaturatedException;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.util.LandingDirectory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingests files dropped into landing directories, one per entity
+ * ({@code app.landing.dirs.<ENTITY>}), without going through HTTP.
+ * <p>
+ * Producers commit a file by renaming it into the directory once it is complete; names
+ * starting with a dot or ending in one of {@code app.landing.ignore-suffixes} are still
+ * being written and are skipped. Each committed {@code .csv} or {@code .json} file is
+ * claimed by renaming it into {@code processing/} (see {@link LandingDirectory}), gets a
+ * job and is queued on the {@link JobScheduler} like an upload, so several files run in
+ * parallel under the same limits. The job reads the file where it is and moves it to
+ * {@code done/} or {@code failed/} when it finishes. A file is left where it was while
+ * the job queue is full and picked up by the next rescan
+ * ({@code app.landing.rescan-interval-ms}).
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LandingDirectoryWatcher {
+
+    private final FileUploadService    fileUploadService;
+    private final UploadJobService     uploadJobService;
+    private final JobScheduler         jobScheduler;
+    private final JobCheckpointService checkpoints;
+    private final MeterRegistry        meterRegistry;
+    private final Environment          environment;
+
+    @Value("${app.landing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.landing.submitter:landing}")
+    private String submitter;
+
+    @Value("${app.landing.priority:NORMAL}")
+    private JobScheduler.JobPriority priority;
+
+    @Value("${app.landing.ignore-suffixes:.tmp,.part,.partial}")
+    private List<String> ignoreSuffixes;
+
+    @Value("${app.landing.rescan-interval-ms:30000}")
+    private long rescanIntervalMs;
+
+    @Value("${app.landing.orphan-grace-ms:300000}")
+    private long orphanGraceMs;
+
+    private final Map<Path, DataType> dirs = new HashMap<>();
+    private WatchService watchService;
+    private Thread watcher;
+
+    // Ordered after JobRecoveryService, so a job created here is never queued twice
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void start() throws IOException {
+        if (!enabled) return;
+
+        Map<DataType, Path> configured = new EnumMap<>(DataType.class);
+        for (DataType type : DataType.values()) {
+            String dir = environment.getProperty("app.landing.dirs." + type.name());
+            if (dir != null && !dir.isBlank()) configured.put(type, Paths.get(dir).toAbsolutePath().normalize());
+        }
+        if (configured.isEmpty()) {
+            log.warn("Landing directories enabled but none configured (app.landing.dirs.<ENTITY>)");
+            return;
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Map.Entry<DataType, Path> entry : configured.entrySet()) {
+            Path dir = entry.getValue();
+            LandingDirectory.create(dir);
+            // A rename into the directory is reported as a create
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            dirs.put(dir, entry.getKey());
+            log.info("Watching landing directory {} for {}", dir, entry.getKey());
+        }
+
+        watcher = new Thread(this::watch, "LandingWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) watchService.close();
+    }
+
+    // -------------------------------------------------------
+    // WATCH LOOP
+    // -------------------------------------------------------
+    private void watch() {
+        long lastScan = 0;
+        try {
+            while (true) {
+                if (System.currentTimeMillis() - lastScan >= rescanIntervalMs) {
+                    // Files present at startup, skipped while the queue was full, or whose events were lost
+                    dirs.keySet().forEach(this::scan);
+                    dirs.keySet().forEach(this::returnOrphans);
+                    lastScan = System.currentTimeMillis();
+                }
+                WatchKey key = watchService.poll(rescanIntervalMs, TimeUnit.MILLISECONDS);
+                if (key == null) continue;
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan(dir);
+                    } else {
+                        offer(dir, dir.resolve((Path) event.context()));
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Landing directory watcher stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scan(Path dir) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                offer(dir, file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not scan landing directory {}: {}", dir, e.getMessage());
+        }
+    }
+
+    // -------------------------------------------------------
+    // CLAIM -> JOB -> SCHEDULER
+    // -------------------------------------------------------
+    private void offer(Path dir, Path file) {
+        try {
+            claim(dir, file);
+        } catch (RuntimeException e) {
+            log.error("Could not ingest landed file {}", file, e);
+        }
+    }
+
+    private void claim(Path dir, Path file) {
+        if (checkpoints.isDraining() || !Files.isRegularFile(file)) return;
+        String name = file.getFileName().toString();
+        if (!isCommitted(name)) return;
+        UploadJob.FileType fileType = fileTypeOf(name);
+        if (fileType == null) {
+            log.debug("Ignoring {} in landing directory: not .csv or .json", name);
+            return;
+        }
+        DataType dataType = dirs.get(dir);
+
+        JobScheduler.JobRequest request = JobScheduler.JobRequest.of(submitter, priority);
+        JobScheduler.Admission admission;
+        try {
+            admission = jobScheduler.admit(request);
+        } catch (SchedulerSaturatedException e) {
+            log.debug("Job queue is full; {} stays in the landing directory", name);
+            return;
+        }
+
+        // Released by the queued job, or here when the file is not claimed after all
+        try (admission) {
+            UUID jobId = UUID.randomUUID();
+            Path claimed;
+            try {
+                claimed = LandingDirectory.claim(file, jobId);
+            } catch (IOException e) {
+                log.warn("Could not claim landed file {}: {}", file, e.getMessage());
+                return;
+            }
+            if (claimed == null) return;   // taken by another instance
+
+            UploadJob job;
+            try {
+                job = uploadJobService.createLandedJob(jobId, name, fileType, dataType, claimed.toString());
+            } catch (RuntimeException e) {
+                log.error("Could not create a job for landed file {}; putting it back", name, e);
+                unclaimQuietly(claimed, name);
+                return;
+            }
+            meterRegistry.counter("dataloader.landing.files", "entity", dataType.name()).increment();
+            log.info("[Job {}] Landed {} file {}", jobId, dataType, name);
+            fileUploadService.scheduleProcessing(job, request);
+        }
+    }
+
+    /**
+     * A file in {@code processing/} without a job was claimed by an instance that stopped
+     * before it created the job; it goes back to be claimed again. Only claims older than
+     * {@code app.landing.orphan-grace-ms} count: a younger one may belong to a live instance
+     * (this one or another on the same mount) that is about to create its job. Checked on
+     * every rescan. Files with a job are resumed by {@link JobRecoveryService}.
+     */
+    private void returnOrphans(Path dir) {
+        Instant graceStart = Instant.now().minusMillis(orphanGraceMs);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir.resolve(LandingDirectory.PROCESSING))) {
+            for (Path file : files) {
+                UUID jobId = LandingDirectory.jobIdOf(file);
+                if (jobId == null || claimedAfter(file, graceStart)) continue;
+                if (!uploadJobService.exists(jobId)) {
+                    log.info("Returning orphaned file {} to landing directory {}", file.getFileName(), dir);
+                    unclaimQuietly(file, LandingDirectory.originalName(file));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Runs on the watcher thread: a database hiccup must not stop the watch loop
+            log.warn("Could not check {} for orphaned files: {}", dir, e.getMessage());
+        }
+    }
+
+    // A file that is gone was retired meanwhile and is no orphan either
+    private static boolean claimedAfter(Path file, Instant instant) {
+        try {
+            return LandingDirectory.claimedAt(file).isAfter(instant);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private boolean isCommitted(String name) {
+        if (name.startsWith(".")) return false;
+        String lower = name.toLowerCase(Locale.ROOT);
+        return ignoreSuffixes.stream().noneMatch(suffix -> lower.endsWith(suffix.toLowerCase(Locale.ROOT)));
+    }
+
+    private static UploadJob.FileType fileTypeOf(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".csv")) return UploadJob.FileType.CSV;
+        if (lower.endsWith(".json")) return UploadJob.FileType.JSON;
+        return null;
+    }
+
+    private void unclaimQuietly(Path claimed, String originalName) {
+        try {
+            LandingDirectory.unclaim(claimed, originalName);
+        } catch (IOException e) {
+            log.warn("Could not move {} back to the landing directory: {}", claimed, e.getMessage());
+        }
+    }
+}
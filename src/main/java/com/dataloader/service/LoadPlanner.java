@@ -0,0 +1,336 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.LoadPlan;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the load strategy, batch size and write parallelism for a job.
+ * Samples the head of the staged file to estimate row count and size, looks at the
+ * target table's statistics and the share of new keys in the sample, and returns a
+ * {@link LoadPlan} that also carries every input used for the decision.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class LoadPlanner {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final KeyMembershipService keyMembershipService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.batch.size:500}")
+    private int defaultBatchSize;
+
+    @Value("${app.planner.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.planner.sample-bytes:1048576}")
+    private int sampleBytes;
+
+    @Value("${app.planner.target-batch-bytes:1048576}")
+    private long targetBatchBytes;
+
+    @Value("${app.planner.min-batch-size:100}")
+    private int minBatchSize;
+
+    @Value("${app.planner.max-batch-size:5000}")
+    private int maxBatchSize;
+
+    @Value("${app.planner.max-parallelism:4}")
+    private int maxParallelism;
+
+    @Value("${app.planner.rows-per-lane:50000}")
+    private long rowsPerLane;
+
+    @Value("${app.planner.routed-min-new-fraction:0.1}")
+    private double routedMinNewFraction;
+
+    /**
+     * AUTO sorts every order file unless its order numbers are proven never to decrease
+     * over the whole file; ALWAYS sorts regardless. Either way each order reaches the
+     * writers as one contiguous run.
+     */
+    public enum OrderSortMode { AUTO, ALWAYS }
+
+    @Value("${app.orders.sort-mode:AUTO}")
+    private OrderSortMode orderSortMode;
+
+    public LoadPlan plan(Path filePath, DataType dataType, UploadJob.FileType fileType) {
+        if (!enabled) return fallback(dataType, "planner disabled");
+
+        try {
+            long fileSize = Files.size(filePath);
+            Sample sample = fileType == UploadJob.FileType.CSV
+                    ? sampleCsv(filePath, dataType)
+                    : sampleJson(filePath, dataType);
+
+            double avgRowBytes = sample.rows > 0 ? (double) sample.bytes / sample.rows : 0;
+            long estimatedRows = avgRowBytes > 0 ? Math.round(fileSize / avgRowBytes) : 0;
+
+            String table = tableFor(dataType);
+            boolean targetEmpty = !Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM " + table + ")", Boolean.class));
+            Long reltuples = jdbcTemplate.queryForObject(
+                    "SELECT reltuples::bigint FROM pg_class WHERE oid = ?::regclass", Long.class, table);
+            Integer indexCount = jdbcTemplate.queryForObject(
+                    "SELECT count(*)::int FROM pg_indexes WHERE schemaname = current_schema() AND tablename = ?",
+                    Integer.class, table);
+            Double newFraction = keyMembershipService.estimateNewFraction(dataType, sample.keys);
+
+            LoadPlan.Strategy strategy;
+            String reason;
+            if (targetEmpty) {
+                strategy = LoadPlan.Strategy.INSERT_ONLY;
+                reason = "target table is empty";
+            } else if (newFraction == null) {
+                strategy = LoadPlan.Strategy.UPSERT;
+                reason = "key filter not ready";
+            } else if (newFraction >= routedMinNewFraction) {
+                strategy = LoadPlan.Strategy.ROUTED;
+                reason = String.format("%.0f%% of sampled keys are new", newFraction * 100);
+            } else {
+                strategy = LoadPlan.Strategy.UPSERT;
+                reason = String.format("only %.0f%% of sampled keys are new", newFraction * 100);
+            }
+
+            int batchSize = chooseBatchSize(avgRowBytes, indexCount != null ? indexCount : 0);
+            int parallelism = chooseParallelism(dataType, estimatedRows);
+            // The sample is a cheap first check; only a file whose sample is sorted gets the full scan
+            Boolean keysSorted = dataType == DataType.ORDERS && orderSortMode == OrderSortMode.AUTO
+                    ? isSorted(sample.keys) && isSorted(filePath, fileType)
+                    : null;
+            boolean sortByKey = dataType == DataType.ORDERS && !Boolean.TRUE.equals(keysSorted);
+
+            LoadPlan plan = LoadPlan.builder()
+                    .strategy(strategy)
+                    .batchSize(batchSize)
+                    .parallelism(parallelism)
+                    .reason(reason)
+                    .sortByKey(sortByKey)
+                    .fileSizeBytes(fileSize)
+                    .sampledRows(sample.rows)
+                    .avgRowBytes(Math.round(avgRowBytes * 10) / 10.0)
+                    .estimatedRows(estimatedRows)
+                    .newKeyFraction(newFraction)
+                    .targetEmpty(targetEmpty)
+                    .targetRowEstimate(reltuples != null ? Math.max(reltuples, 0) : 0)
+                    .targetIndexCount(indexCount != null ? indexCount : 0)
+                    .keysSorted(keysSorted)
+                    .build();
+
+            log.info("Planned {} load: strategy={}, batchSize={}, parallelism={}, sortByKey={} ({})",
+                    dataType, strategy, batchSize, parallelism, sortByKey, reason);
+            return plan;
+
+        } catch (Exception e) {
+            log.warn("Load planning failed for {}, using defaults: {}", filePath, e.getMessage());
+            return fallback(dataType, "planning failed: " + e.getMessage());
+        }
+    }
+
+    /** Default plan; orders are still sorted, since nothing proved the file grouped. */
+    private LoadPlan fallback(DataType dataType, String reason) {
+        LoadPlan plan = LoadPlan.fallback(defaultBatchSize, reason);
+        plan.setSortByKey(dataType == DataType.ORDERS);
+        return plan;
+    }
+
+    /** JSON rendering of the plan stored on the job for auditing. */
+    public String describe(LoadPlan plan) {
+        try {
+            return objectMapper.writeValueAsString(plan);
+        } catch (Exception e) {
+            return plan.getReason();
+        }
+    }
+
+    // -------------------------------------------------------
+    // DECISIONS
+    // -------------------------------------------------------
+    private int chooseBatchSize(double avgRowBytes, int indexCount) {
+        if (avgRowBytes <= 0) return defaultBatchSize;
+        double rows = targetBatchBytes / avgRowBytes;
+        // Every index beyond the unique key adds per-row write cost; keep transactions short
+        if (indexCount > 3) rows = rows * 3 / indexCount;
+        return (int) Math.max(minBatchSize, Math.min(maxBatchSize, Math.round(rows)));
+    }
+
+    private int chooseParallelism(DataType dataType, long estimatedRows) {
+        // Order batches group items per order; keep them on a single lane
+        if (dataType == DataType.ORDERS) return 1;
+        long lanes = (estimatedRows + rowsPerLane - 1) / rowsPerLane;
+        return (int) Math.max(1, Math.min(maxParallelism, lanes));
+    }
+
+    /**
+     * True when no key is smaller than the one before it, which also means no key can
+     * reappear after a different one. Compares trimmed keys, as the order sort does.
+     */
+    private boolean isSorted(List<String> keys) {
+        String previous = "";
+        for (String key : keys) {
+            String k = key.trim();
+            if (k.compareTo(previous) < 0) return false;
+            previous = k;
+        }
+        return true;
+    }
+
+    /**
+     * Full streaming pass over the order numbers of the file, in constant memory. A
+     * grouped sample says nothing about the rest of the file, so skipping the sort
+     * needs the whole file in order. Rows without an order number count as empty,
+     * as in the sort.
+     */
+    private boolean isSorted(Path filePath, UploadJob.FileType fileType) throws IOException {
+        String keyColumn = keyColumnFor(DataType.ORDERS);
+        String previous = "";
+        if (fileType == UploadJob.FileType.CSV) {
+            try (CSVParser parser = CSVFormat.DEFAULT.builder()
+                    .setHeader()
+                    .setSkipHeaderRecord(true)
+                    .setIgnoreEmptyLines(true)
+                    .setTrim(true)
+                    .build()
+                    .parse(Files.newBufferedReader(filePath, StandardCharsets.UTF_8))) {
+                for (CSVRecord record : parser) {
+                    String key = record.isMapped(keyColumn) && record.isSet(keyColumn) ? record.get(keyColumn) : "";
+                    if (key.compareTo(previous) < 0) return false;
+                    previous = key;
+                }
+            }
+            return true;
+        }
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(filePath.toFile())) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken() == JsonToken.START_ARRAY) break;
+                }
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode node = objectMapper.readTree(parser);
+                JsonNode key = node.get(keyColumn);
+                String k = key != null ? key.asText().trim() : "";
+                if (k.compareTo(previous) < 0) return false;
+                previous = k;
+            }
+        }
+        return true;
+    }
+
+    // -------------------------------------------------------
+    // SAMPLING
+    // -------------------------------------------------------
+    private record Sample(int rows, long bytes, List<String> keys) {}
+
+    private Sample sampleCsv(Path filePath, DataType dataType) throws IOException {
+        byte[] head = readHead(filePath);
+        int end = head.length;
+        // Drop the trailing partial line unless the whole file fit in the sample
+        if (head.length == sampleBytes) {
+            while (end > 0 && head[end - 1] != '\n') end--;
+        }
+        int headerEnd = 0;
+        while (headerEnd < end && head[headerEnd] != '\n') headerEnd++;
+
+        String text = new String(head, 0, end, StandardCharsets.UTF_8);
+        List<String> keys = new ArrayList<>();
+        int rows = 0;
+        try (CSVParser parser = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .setIgnoreEmptyLines(true)
+                .setTrim(true)
+                .build()
+                .parse(new StringReader(text))) {
+            String keyColumn = keyColumnFor(dataType);
+            for (CSVRecord record : parser) {
+                rows++;
+                if (record.isMapped(keyColumn) && record.isSet(keyColumn) && !record.get(keyColumn).isBlank()) {
+                    keys.add(record.get(keyColumn));
+                }
+            }
+        } catch (UncheckedIOException truncated) {
+            // A quoted field spans the sample boundary; keep the rows parsed so far
+        }
+        return new Sample(rows, Math.max(0, end - headerEnd - 1), keys);
+    }
+
+    private Sample sampleJson(Path filePath, DataType dataType) throws IOException {
+        byte[] head = readHead(filePath);
+        List<String> keys = new ArrayList<>();
+        int rows = 0;
+        long firstStart = -1;
+        long lastEnd = 0;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(head)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken() == JsonToken.START_ARRAY) break;
+                }
+            }
+            String keyField = keyColumnFor(dataType);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                long start = parser.getTokenLocation().getByteOffset();
+                JsonNode node = objectMapper.readTree(parser);
+                if (firstStart < 0) firstStart = start;
+                lastEnd = parser.getCurrentLocation().getByteOffset();
+                rows++;
+                JsonNode key = node.get(keyField);
+                if (key != null && !key.asText().isBlank()) keys.add(key.asText());
+            }
+        } catch (IOException truncated) {
+            // The sample ends mid-element; everything parsed so far is usable
+        }
+        long bytes = rows > 0 ? lastEnd - firstStart : 0;
+        return new Sample(rows, bytes, keys);
+    }
+
+    private byte[] readHead(Path filePath) throws IOException {
+        try (InputStream is = Files.newInputStream(filePath)) {
+            return is.readNBytes(sampleBytes);
+        }
+    }
+
+    private String tableFor(DataType dataType) {
+        return switch (dataType) {
+            case CUSTOMERS -> "customers";
+            case PRODUCTS  -> "products";
+            case ORDERS    -> "orders";
+        };
+    }
+
+    private String keyColumnFor(DataType dataType) {
+        return switch (dataType) {
+            case CUSTOMERS -> "customerCode";
+            case PRODUCTS  -> "productCode";
+            case ORDERS    -> "orderNumber";
+        };
+    }
+}
@@ -1,26 +1,32 @@
 package com.dataloader.service;
 
+import com.dataloader.dto.LoadPlan;
 import com.dataloader.dto.OrderCsvRow;
-import com.dataloader.model.Customer;
 import com.dataloader.model.Order;
-import com.dataloader.model.Product;
-import com.dataloader.repository.CustomerRepository;
 import com.dataloader.repository.OrderRepository;
-import com.dataloader.repository.ProductRepository;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.ReferenceResolver.RefType;
 import com.dataloader.util.DataValidator;
 import com.dataloader.util.JdbcBatchInserter;
+import com.dataloader.util.KeyPartitionLocker;
+import com.dataloader.util.OrderLineDiff;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -28,23 +34,28 @@ import java.util.stream.Collectors;
 @Slf4j
 public class OrderService {
 
-    private final CustomerRepository customerRepository;
-    private final ProductRepository productRepository;
     private final OrderRepository orderRepository;
     private final JdbcBatchInserter jdbcBatchInserter;
     private final JdbcTemplate jdbcTemplate;
     private final DataValidator dataValidator;
+    private final KeyPartitionLocker keyPartitionLocker;
+    private final KeyMembershipService keyMembershipService;
+    private final ReferenceResolver referenceResolver;
 
-    // Caches to avoid repeated lookups during bulk processing
-    private final Map<String, Long> customerCache = new ConcurrentHashMap<>();
-    private final Map<String, Long> productCache  = new ConcurrentHashMap<>();
 
+    // Set-based order upsert: one statement per batch, ids come back via RETURNING
     private static final String ORDER_UPSERT_SQL = """
             INSERT INTO orders (order_number, customer_id, status, total_amount,
                 discount_amount, tax_amount, shipping_amount, currency,
                 shipping_address, notes, ordered_at, shipped_at, delivered_at,
                 created_at, updated_at)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW(), NOW())
+            SELECT o.*, NOW(), NOW()
+            FROM unnest(?::varchar[], ?::bigint[], ?::varchar[], ?::numeric[], ?::numeric[],
+                        ?::numeric[], ?::numeric[], ?::varchar[], ?::text[], ?::text[],
+                        ?::timestamp[], ?::timestamp[], ?::timestamp[])
+                AS o(order_number, customer_id, status, total_amount, discount_amount,
+                     tax_amount, shipping_amount, currency, shipping_address, notes,
+                     ordered_at, shipped_at, delivered_at)
             ON CONFLICT (order_number)
             DO UPDATE SET
                 status = EXCLUDED.status,
@@ -53,19 +64,100 @@ public class OrderService {
             RETURNING id, order_number
             """;
 
-    private static final String ORDER_ITEM_INSERT_SQL = """
+    // Same shape as ORDER_UPSERT_SQL; used for order numbers routed to the insert path
+    private static final String ORDER_INSERT_SQL = """
+            INSERT INTO orders (order_number, customer_id, status, total_amount,
+                discount_amount, tax_amount, shipping_amount, currency,
+                shipping_address, notes, ordered_at, shipped_at, delivered_at,
+                created_at, updated_at)
+            SELECT o.*, NOW(), NOW()
+            FROM unnest(?::varchar[], ?::bigint[], ?::varchar[], ?::numeric[], ?::numeric[],
+                        ?::numeric[], ?::numeric[], ?::varchar[], ?::text[], ?::text[],
+                        ?::timestamp[], ?::timestamp[], ?::timestamp[])
+                AS o(order_number, customer_id, status, total_amount, discount_amount,
+                     tax_amount, shipping_amount, currency, shipping_address, notes,
+                     ordered_at, shipped_at, delivered_at)
+            ON CONFLICT (order_number) DO NOTHING
+            RETURNING id, order_number
+            """;
+
+    // Lines are identified by (order_id, product_id); only added or changed lines are sent here
+    private static final String ORDER_ITEM_UPSERT_SQL = """
             INSERT INTO order_items (order_id, product_id, quantity, unit_price, discount, created_at)
             VALUES (?, ?, ?, ?, ?, NOW())
-            ON CONFLICT DO NOTHING
+            ON CONFLICT (order_id, product_id)
+            DO UPDATE SET
+                quantity = EXCLUDED.quantity,
+                unit_price = EXCLUDED.unit_price,
+                discount = EXCLUDED.discount
             """;
 
+    private static final String ORDER_ITEM_SELECT_SQL = """
+            SELECT order_id, product_id, quantity, unit_price, discount
+            FROM order_items
+            WHERE order_id = ANY(?)
+            """;
+
+    // Removes stored lines that are no longer part of a complete order
+    private static final String ORDER_ITEM_DELETE_SQL = """
+            DELETE FROM order_items oi
+            USING unnest(?::bigint[], ?::bigint[]) AS k(order_id, product_id)
+            WHERE oi.order_id = k.order_id
+              AND oi.product_id = k.product_id
+            """;
+
+    /** How a batch treats the stored lines of its orders that it does not contain. */
+    public enum ItemSync {
+        /** Rows of an order may arrive over several batches; stored lines are only added or updated. */
+        MERGE,
+        /** Every order in the batch is complete; stored lines missing from it are removed. */
+        REPLACE
+    }
+
+    /** One order header, taken from the first row of its group. */
+    private record OrderHeader(String orderNumber, Long customerId, String status,
+                               BigDecimal total, BigDecimal discount, BigDecimal tax, BigDecimal shipping,
+                               String currency, String shippingAddress, String notes,
+                               Timestamp orderedAt, Timestamp shippedAt, Timestamp deliveredAt) {}
+
+    /** One order line whose order id is filled in once the headers are written. */
+    private record OrderLine(String orderNumber, Long productId, int quantity,
+                             BigDecimal unitPrice, BigDecimal discount) {
+
+        OrderLineDiff.Line withOrderId(long orderId) {
+            return new OrderLineDiff.Line(orderId, productId, quantity, unitPrice, discount);
+        }
+    }
+
     /**
-     * Process a batch of order rows.
-     * Groups rows by order_number, upserts orders, then inserts order items.
+     * Process a batch of order rows whose orders may continue in other batches.
+     * Groups rows by order_number, upserts all orders of the batch in one statement,
+     * then syncs their items: lines are identified by product within the order and
+     * compared with the stored lines, so only added or changed lines are written.
      */
     @Transactional
     public int[] processBatch(List<OrderCsvRow> rows, AtomicInteger rowOffset) {
+        return processBatch(rows, rowOffset, LoadPlan.Strategy.ROUTED, ItemSync.MERGE);
+    }
+
+    @Transactional
+    public int[] processBatch(List<OrderCsvRow> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy,
+                              ItemSync itemSync) {
+        return processBatch(rows, rowOffset, strategy, itemSync, null);
+    }
+
+    /**
+     * Like {@link #processBatch(List, AtomicInteger, LoadPlan.Strategy, ItemSync)}, but whole orders
+     * whose customer or any product is not (yet) known are handed to {@code deferUnresolved} instead
+     * of being rejected, so a bundle upload can retry them once its customers and products are loaded.
+     * Deferred rows count neither as inserted nor as failed.
+     */
+    @Transactional
+    public int[] processBatch(List<OrderCsvRow> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy,
+                              ItemSync itemSync, Consumer<List<OrderCsvRow>> deferUnresolved) {
         List<OrderCsvRow> validRows = new ArrayList<>();
+        // Orders that lost a row in this batch; their stored lines are never removed
+        Set<String> partialOrders = new HashSet<>();
         int failedCount = 0;
         int rowNumber = rowOffset.get();
 
@@ -76,6 +168,7 @@ public class OrderService {
                 validRows.add(row);
             } else {
                 failedCount++;
+                if (!dataValidator.isBlank(row.getOrderNumber())) partialOrders.add(row.getOrderNumber().trim());
                 log.warn("Order validation errors at row {}: {}", rowNumber, errors);
             }
         }
@@ -83,126 +176,211 @@ public class OrderService {
 
         if (validRows.isEmpty()) return new int[]{0, failedCount};
 
-        // Group by order number
+        // Group by order number, sorted so every job locks and upserts orders in the same order
         Map<String, List<OrderCsvRow>> orderGroups = validRows.stream()
                 .collect(Collectors.groupingBy(r -> r.getOrderNumber().trim(),
-                         LinkedHashMap::new, Collectors.toList()));
+                         TreeMap::new, Collectors.toList()));
+
+        // Resolve every referenced code with one query per entity; unknown codes reject their
+        // rows here, before any write is attempted
+        Map<String, Long> customerIds = referenceResolver.resolve(RefType.CUSTOMER,
+                validRows.stream().map(r -> r.getCustomerCode().trim()).toList());
+        Map<String, Long> productIds = referenceResolver.resolve(RefType.PRODUCT,
+                validRows.stream().map(r -> r.getProductCode().trim()).toList());
 
-        int insertedOrders = 0;
-        int insertedItems  = 0;
+        // Build headers/lines in memory before touching the tables
+        List<OrderHeader> newHeaders = new ArrayList<>();
+        List<OrderHeader> upsertHeaders = new ArrayList<>();
+        List<OrderLine> lines = new ArrayList<>();
+        List<OrderCsvRow> deferred = new ArrayList<>();
 
         for (Map.Entry<String, List<OrderCsvRow>> entry : orderGroups.entrySet()) {
             String orderNumber = entry.getKey();
             List<OrderCsvRow> orderRows = entry.getValue();
             OrderCsvRow first = orderRows.get(0);
 
-            try {
-                Long customerId = resolveCustomerId(first.getCustomerCode());
-                if (customerId == null) {
-                    log.warn("Customer not found for code '{}', skipping order '{}'",
-                             first.getCustomerCode(), orderNumber);
-                    failedCount += orderRows.size();
-                    continue;
-                }
+            Long customerId = customerIds.get(first.getCustomerCode().trim());
+            if (deferUnresolved != null && (customerId == null || orderRows.stream()
+                    .anyMatch(r -> !productIds.containsKey(r.getProductCode().trim())))) {
+                deferred.addAll(orderRows);
+                continue;
+            }
+            if (customerId == null) {
+                log.warn("Customer not found for code '{}', skipping order '{}'",
+                         first.getCustomerCode(), orderNumber);
+                failedCount += orderRows.size();
+                continue;
+            }
 
-                // Upsert order - get back the order ID
-                Long orderId = upsertOrder(first, customerId);
-                if (orderId == null) {
-                    failedCount += orderRows.size();
+            OrderHeader header = toHeader(orderNumber, first, customerId);
+            if (keyMembershipService.routesToInsert(strategy, DataType.ORDERS, orderNumber)) {
+                newHeaders.add(header);
+            } else {
+                upsertHeaders.add(header);
+            }
+
+            for (OrderCsvRow itemRow : orderRows) {
+                Long productId = productIds.get(itemRow.getProductCode().trim());
+                if (productId == null) {
+                    log.warn("Product not found: '{}', skipping item for order '{}'",
+                             itemRow.getProductCode(), orderNumber);
+                    failedCount++;
+                    partialOrders.add(orderNumber);
                     continue;
                 }
-                insertedOrders++;
-
-                // Insert order items
-                for (OrderCsvRow itemRow : orderRows) {
-                    Long productId = resolveProductId(itemRow.getProductCode());
-                    if (productId == null) {
-                        log.warn("Product not found: '{}', skipping item for order '{}'",
-                                 itemRow.getProductCode(), orderNumber);
-                        failedCount++;
-                        continue;
-                    }
-                    insertOrderItem(orderId, productId, itemRow);
-                    insertedItems++;
-                }
+                lines.add(toLine(orderNumber, productId, itemRow));
+            }
+        }
 
-            } catch (Exception e) {
-                log.error("Error processing order '{}': {}", orderNumber, e.getMessage());
-                failedCount += orderRows.size();
+        if (!deferred.isEmpty()) {
+            log.debug("Deferring {} order rows with unresolved references", deferred.size());
+            deferUnresolved.accept(deferred);
+        }
+
+        if (newHeaders.isEmpty() && upsertHeaders.isEmpty()) return new int[]{0, failedCount};
+
+        keyPartitionLocker.lockKeys(KeyPartitionLocker.LockSpace.ORDERS, orderGroups.keySet());
+
+        // New order numbers: plain insert; whatever it skipped joins the upsert
+        Map<String, Long> orderIds = new HashMap<>(writeOrders(ORDER_INSERT_SQL, newHeaders));
+        int conflicts = 0;
+        for (OrderHeader header : newHeaders) {
+            if (!orderIds.containsKey(header.orderNumber())) {
+                upsertHeaders.add(header);
+                conflicts++;
             }
         }
+        keyMembershipService.recordInsertConflicts(DataType.ORDERS, conflicts);
+        Map<String, Long> upsertedIds = writeOrders(ORDER_UPSERT_SQL, upsertHeaders);
+        orderIds.putAll(upsertedIds);
+        keyMembershipService.recordKeys(DataType.ORDERS, orderIds.keySet());
+
+        // Only a complete order that kept every row may lose stored lines
+        Set<Long> completeOrders = new HashSet<>();
+        if (itemSync == ItemSync.REPLACE) {
+            upsertedIds.forEach((orderNumber, id) -> {
+                if (!partialOrders.contains(orderNumber)) completeOrders.add(id);
+            });
+        }
+        int[] itemCounts = syncItems(lines, orderIds, upsertedIds.values(), completeOrders);
 
-        log.debug("Batch: {} orders, {} items inserted, {} failed", insertedOrders, insertedItems, failedCount);
-        return new int[]{insertedOrders + insertedItems, failedCount};
+        int insertedOrders = orderIds.size();
+        log.debug("Batch: {} orders, {} items written, {} items removed, {} failed",
+                  insertedOrders, itemCounts[0], itemCounts[1], failedCount);
+        return new int[]{insertedOrders + itemCounts[0], failedCount};
     }
 
-    private Long upsertOrder(OrderCsvRow row, Long customerId) {
-        try {
-            String status = dataValidator.isBlank(row.getStatus()) ? "PENDING" : row.getStatus().trim().toUpperCase();
-            BigDecimal total    = safeDecimal(row.getTotalAmount(),    BigDecimal.ZERO);
-            BigDecimal discount = safeDecimal(row.getDiscountAmount(), BigDecimal.ZERO);
-            BigDecimal tax      = safeDecimal(row.getTaxAmount(),      BigDecimal.ZERO);
-            BigDecimal shipping = safeDecimal(row.getShippingAmount(), BigDecimal.ZERO);
-            String currency     = dataValidator.isBlank(row.getCurrency()) ? "USD" : row.getCurrency().trim().toUpperCase();
-
-            LocalDateTime orderedAt  = dataValidator.parseDateTime(row.getOrderedAt());
-            LocalDateTime shippedAt  = dataValidator.parseDateTime(row.getShippedAt());
-            LocalDateTime deliveredAt = dataValidator.parseDateTime(row.getDeliveredAt());
-
-            // Use simple INSERT ... ON CONFLICT and then fetch the ID
-            jdbcTemplate.update("""
-                    INSERT INTO orders (order_number, customer_id, status, total_amount,
-                        discount_amount, tax_amount, shipping_amount, currency,
-                        shipping_address, notes, ordered_at, shipped_at, delivered_at,
-                        created_at, updated_at)
-                    VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW(), NOW())
-                    ON CONFLICT (order_number) DO UPDATE SET
-                        status = EXCLUDED.status,
-                        total_amount = EXCLUDED.total_amount,
-                        updated_at = NOW()
-                    """,
-                    row.getOrderNumber().trim(), customerId, status, total, discount, tax, shipping,
-                    currency, row.getShippingAddress(), row.getNotes(),
-                    orderedAt  != null ? Timestamp.valueOf(orderedAt)   : Timestamp.valueOf(LocalDateTime.now()),
-                    shippedAt  != null ? Timestamp.valueOf(shippedAt)   : null,
-                    deliveredAt!= null ? Timestamp.valueOf(deliveredAt) : null
-            );
-
-            return jdbcTemplate.queryForObject(
-                    "SELECT id FROM orders WHERE order_number = ?",
-                    Long.class, row.getOrderNumber().trim());
-
-        } catch (Exception e) {
-            log.error("Failed to upsert order '{}': {}", row.getOrderNumber(), e.getMessage());
-            return null;
+    /**
+     * Bring the items of the batch's orders in line with the incoming lines.
+     * Orders that were just inserted have no stored lines; for the rest the stored lines
+     * are loaded with one query and diffed by product.
+     *
+     * @return {written, removed}
+     */
+    private int[] syncItems(List<OrderLine> lines, Map<String, Long> orderIds,
+                            Collection<Long> existingOrderIds, Set<Long> completeOrders) {
+        List<OrderLineDiff.Line> incoming = new ArrayList<>(lines.size());
+        for (OrderLine line : lines) {
+            Long orderId = orderIds.get(line.orderNumber());
+            if (orderId != null) incoming.add(line.withOrderId(orderId));
+        }
+        OrderLineDiff diff = OrderLineDiff.of(incoming, loadStoredLines(existingOrderIds), completeOrders);
+
+        List<Object[]> itemArgs = new ArrayList<>();
+        for (OrderLineDiff.Line line : diff.writes()) {
+            itemArgs.add(new Object[]{line.orderId(), line.productId(),
+                    line.quantity(), line.unitPrice(), line.discount()});
         }
+        int written = jdbcBatchInserter.batchInsert(ORDER_ITEM_UPSERT_SQL, itemArgs, (ps, args) -> {
+            try {
+                for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            } catch (SQLException e) {
+                throw new RuntimeException("Error mapping order item: " + e.getMessage(), e);
+            }
+        }, Math.max(1, itemArgs.size()));
+
+        List<OrderLineDiff.Line> removals = diff.removals();
+        int removed = removals.isEmpty() ? 0 : jdbcTemplate.execute((ConnectionCallback<Integer>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(ORDER_ITEM_DELETE_SQL)) {
+                ps.setArray(1, con.createArrayOf("int8", removals.stream().map(OrderLineDiff.Line::orderId).toArray(Long[]::new)));
+                ps.setArray(2, con.createArrayOf("int8", removals.stream().map(OrderLineDiff.Line::productId).toArray(Long[]::new)));
+                return ps.executeUpdate();
+            }
+        });
+
+        return new int[]{written, removed};
     }
 
-    private void insertOrderItem(Long orderId, Long productId, OrderCsvRow row) {
-        BigDecimal unitPrice = safeDecimal(row.getUnitPrice(), BigDecimal.ZERO);
-        BigDecimal discount  = safeDecimal(row.getItemDiscount(), BigDecimal.ZERO);
-        Integer quantity     = dataValidator.parseInteger(row.getQuantity());
-        if (quantity == null || quantity <= 0) quantity = 1;
+    /** Stored lines of the given orders. */
+    private List<OrderLineDiff.Line> loadStoredLines(Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) return List.of();
 
-        jdbcTemplate.update(
-                "INSERT INTO order_items (order_id, product_id, quantity, unit_price, discount, created_at) " +
-                "VALUES (?, ?, ?, ?, ?, NOW())",
-                orderId, productId, quantity, unitPrice, discount
-        );
+        return jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(ORDER_ITEM_SELECT_SQL);
+            ps.setArray(1, con.createArrayOf("int8", orderIds.toArray(Long[]::new)));
+            return ps;
+        }, (rs, i) -> new OrderLineDiff.Line(rs.getLong(1), rs.getLong(2), rs.getInt(3),
+                rs.getBigDecimal(4), rs.getBigDecimal(5)));
     }
 
-    private Long resolveCustomerId(String customerCode) {
-        if (dataValidator.isBlank(customerCode)) return null;
-        String code = customerCode.trim();
-        return customerCache.computeIfAbsent(code, c ->
-                customerRepository.findByCustomerCode(c).map(Customer::getId).orElse(null));
+    /** Write order headers with one array-bound statement and return order_number -> id. */
+    private Map<String, Long> writeOrders(String sql, List<OrderHeader> headers) {
+        if (headers.isEmpty()) return Map.of();
+
+        return jdbcTemplate.execute((ConnectionCallback<Map<String, Long>>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                int n = headers.size();
+                ps.setArray(1,  con.createArrayOf("varchar",   headers.stream().map(OrderHeader::orderNumber).toArray(String[]::new)));
+                ps.setArray(2,  con.createArrayOf("int8",      headers.stream().map(OrderHeader::customerId).toArray(Long[]::new)));
+                ps.setArray(3,  con.createArrayOf("varchar",   headers.stream().map(OrderHeader::status).toArray(String[]::new)));
+                ps.setArray(4,  con.createArrayOf("numeric",   headers.stream().map(OrderHeader::total).toArray(BigDecimal[]::new)));
+                ps.setArray(5,  con.createArrayOf("numeric",   headers.stream().map(OrderHeader::discount).toArray(BigDecimal[]::new)));
+                ps.setArray(6,  con.createArrayOf("numeric",   headers.stream().map(OrderHeader::tax).toArray(BigDecimal[]::new)));
+                ps.setArray(7,  con.createArrayOf("numeric",   headers.stream().map(OrderHeader::shipping).toArray(BigDecimal[]::new)));
+                ps.setArray(8,  con.createArrayOf("varchar",   headers.stream().map(OrderHeader::currency).toArray(String[]::new)));
+                ps.setArray(9,  con.createArrayOf("text",      headers.stream().map(OrderHeader::shippingAddress).toArray(String[]::new)));
+                ps.setArray(10, con.createArrayOf("text",      headers.stream().map(OrderHeader::notes).toArray(String[]::new)));
+                ps.setArray(11, con.createArrayOf("timestamp", headers.stream().map(OrderHeader::orderedAt).toArray(Timestamp[]::new)));
+                ps.setArray(12, con.createArrayOf("timestamp", headers.stream().map(OrderHeader::shippedAt).toArray(Timestamp[]::new)));
+                ps.setArray(13, con.createArrayOf("timestamp", headers.stream().map(OrderHeader::deliveredAt).toArray(Timestamp[]::new)));
+
+                Map<String, Long> ids = new HashMap<>(n * 2);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.put(rs.getString(2), rs.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    private OrderHeader toHeader(String orderNumber, OrderCsvRow row, Long customerId) {
+        String status = dataValidator.isBlank(row.getStatus()) ? "PENDING" : row.getStatus().trim().toUpperCase();
+        String currency = dataValidator.isBlank(row.getCurrency()) ? "USD" : row.getCurrency().trim().toUpperCase();
+
+        LocalDateTime orderedAt   = dataValidator.parseDateTime(row.getOrderedAt());
+        LocalDateTime shippedAt   = dataValidator.parseDateTime(row.getShippedAt());
+        LocalDateTime deliveredAt = dataValidator.parseDateTime(row.getDeliveredAt());
+
+        return new OrderHeader(orderNumber, customerId, status,
+                safeDecimal(row.getTotalAmount(),    BigDecimal.ZERO),
+                safeDecimal(row.getDiscountAmount(), BigDecimal.ZERO),
+                safeDecimal(row.getTaxAmount(),      BigDecimal.ZERO),
+                safeDecimal(row.getShippingAmount(), BigDecimal.ZERO),
+                currency, row.getShippingAddress(), row.getNotes(),
+                orderedAt   != null ? Timestamp.valueOf(orderedAt)   : Timestamp.valueOf(LocalDateTime.now()),
+                shippedAt   != null ? Timestamp.valueOf(shippedAt)   : null,
+                deliveredAt != null ? Timestamp.valueOf(deliveredAt) : null);
     }
 
-    private Long resolveProductId(String productCode) {
-        if (dataValidator.isBlank(productCode)) return null;
-        String code = productCode.trim();
-        return productCache.computeIfAbsent(code, c ->
-                productRepository.findByProductCode(c).map(Product::getId).orElse(null));
+    private OrderLine toLine(String orderNumber, Long productId, OrderCsvRow row) {
+        Integer quantity = dataValidator.parseInteger(row.getQuantity());
+        if (quantity == null || quantity <= 0) quantity = 1;
+        // Rounded as NUMERIC(15, 2) stores them, so unchanged lines compare equal to stored ones
+        return new OrderLine(orderNumber, productId, quantity,
+                safeDecimal(row.getUnitPrice(), BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP),
+                safeDecimal(row.getItemDiscount(), BigDecimal.ZERO).setScale(2, RoundingMode.HALF_UP));
     }
 
     private BigDecimal safeDecimal(String value, BigDecimal defaultValue) {
@@ -211,7 +389,7 @@ public class OrderService {
     }
 
     public void clearCaches() {
-        customerCache.clear();
-        productCache.clear();
+        referenceResolver.clear(RefType.CUSTOMER);
+        referenceResolver.clear(RefType.PRODUCT);
     }
 }
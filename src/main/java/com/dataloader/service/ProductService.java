@@ -1,21 +1,25 @@
 package com.dataloader.service;
 
+import com.dataloader.dto.LoadPlan;
 import com.dataloader.dto.ProductCsvRow;
-import com.dataloader.model.Category;
-import com.dataloader.repository.CategoryRepository;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.ReferenceResolver.CodesWrittenEvent;
+import com.dataloader.service.ReferenceResolver.RefType;
 import com.dataloader.util.DataValidator;
 import com.dataloader.util.JdbcBatchInserter;
+import com.dataloader.util.KeyPartitionLocker;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
@@ -23,12 +27,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Slf4j
 public class ProductService {
 
-    private final CategoryRepository categoryRepository;
     private final JdbcBatchInserter jdbcBatchInserter;
     private final DataValidator dataValidator;
-
-    // Category code -> ID cache (avoid repeated DB lookups)
-    private final Map<String, Long> categoryCache = new ConcurrentHashMap<>();
+    private final KeyPartitionLocker keyPartitionLocker;
+    private final KeyMembershipService keyMembershipService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ReferenceResolver referenceResolver;
 
     private static final String UPSERT_SQL = """
             INSERT INTO products (product_code, product_name, description, category_id,
@@ -48,15 +52,39 @@ public class ProductService {
                 updated_at = NOW()
             """;
 
+    // Same column list as UPSERT_SQL; used for keys the Bloom filter says are new
+    private static final String INSERT_SQL = """
+            INSERT INTO products (product_code, product_name, description, category_id,
+                unit_price, stock_quantity, weight_kg, brand, sku, is_active, created_at, updated_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, NOW(), NOW())
+            ON CONFLICT (product_code) DO NOTHING
+            """;
+
     @Transactional
     public int[] processBatch(List<ProductCsvRow> rows, AtomicInteger rowOffset) {
+        return processBatch(rows, rowOffset, LoadPlan.Strategy.ROUTED);
+    }
+
+    @Transactional
+    public int[] processBatch(List<ProductCsvRow> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy) {
         List<ProductCsvRow> validRows = new ArrayList<>();
         int failedCount = 0;
         int rowNumber = rowOffset.get();
 
+        // Resolve every category code of the batch in one query
+        Map<String, Long> categoryIds = referenceResolver.resolve(RefType.CATEGORY, rows.stream()
+                .map(ProductCsvRow::getCategoryCode)
+                .filter(c -> !dataValidator.isBlank(c))
+                .map(ProductService::normalizeCategoryCode)
+                .toList());
+
         for (ProductCsvRow row : rows) {
             rowNumber++;
             List<String> errors = dataValidator.validateProductRow(row, rowNumber);
+            if (!dataValidator.isBlank(row.getCategoryCode())
+                    && !categoryIds.containsKey(normalizeCategoryCode(row.getCategoryCode()))) {
+                errors.add(String.format("Row %d: unknown categoryCode '%s'", rowNumber, row.getCategoryCode()));
+            }
             if (errors.isEmpty()) {
                 validRows.add(row);
             } else {
@@ -68,53 +96,80 @@ public class ProductService {
 
         int inserted = 0;
         if (!validRows.isEmpty()) {
-            inserted = jdbcBatchInserter.batchUpsert(UPSERT_SQL, validRows, (ps, row) -> {
-                try {
-                    ps.setString(1, row.getProductCode().trim());
-                    ps.setString(2, row.getProductName().trim());
-                    ps.setString(3, row.getDescription());
-
-                    Long categoryId = resolveCategoryId(row.getCategoryCode());
-                    if (categoryId != null) {
-                        ps.setLong(4, categoryId);
-                    } else {
-                        ps.setNull(4, java.sql.Types.BIGINT);
-                    }
-
-                    BigDecimal price = dataValidator.parseDecimal(row.getUnitPrice());
-                    ps.setBigDecimal(5, price != null ? price : BigDecimal.ZERO);
-
-                    Integer stock = dataValidator.parseInteger(row.getStockQuantity());
-                    ps.setInt(6, stock != null ? stock : 0);
-
-                    BigDecimal weight = dataValidator.parseDecimal(row.getWeightKg());
-                    if (weight != null) ps.setBigDecimal(7, weight);
-                    else ps.setNull(7, java.sql.Types.NUMERIC);
-
-                    ps.setString(8, row.getBrand());
-                    ps.setString(9, dataValidator.isBlank(row.getSku()) ? null : row.getSku().trim());
-
-                    Boolean active = dataValidator.parseBoolean(row.getIsActive());
-                    ps.setBoolean(10, active != null ? active : true);
-                } catch (Exception e) {
-                    throw new RuntimeException("Error mapping product row: " + e.getMessage(), e);
+            // Consistent key order + key locks keep concurrent jobs from deadlocking in ON CONFLICT
+            validRows.sort(Comparator.comparing(r -> r.getProductCode().trim()));
+            keyPartitionLocker.lockKeys(KeyPartitionLocker.LockSpace.PRODUCTS,
+                    validRows.stream().map(ProductCsvRow::getProductCode).toList());
+
+            // New keys (per the load strategy) skip the upsert; anything the insert skipped falls back to it
+            List<ProductCsvRow> newRows = new ArrayList<>();
+            List<ProductCsvRow> upsertRows = new ArrayList<>();
+            for (ProductCsvRow row : validRows) {
+                if (keyMembershipService.routesToInsert(strategy, DataType.PRODUCTS, row.getProductCode())) {
+                    newRows.add(row);
+                } else {
+                    upsertRows.add(row);
                 }
-            });
+            }
+
+            List<ProductCsvRow> skipped = jdbcBatchInserter.batchInsertCollectSkipped(INSERT_SQL, newRows,
+                    (ps, row) -> bindRow(ps, row, categoryIds));
+            keyMembershipService.recordInsertConflicts(DataType.PRODUCTS, skipped.size());
+            inserted = newRows.size() - skipped.size();
+            upsertRows.addAll(skipped);
+            inserted += jdbcBatchInserter.batchUpsert(UPSERT_SQL, upsertRows,
+                    (ps, row) -> bindRow(ps, row, categoryIds));
+
+            keyMembershipService.recordKeys(DataType.PRODUCTS,
+                    newRows.stream().map(ProductCsvRow::getProductCode).toList());
+
+            // Lets the code -> id caches drop stale (negative) entries once this batch commits
+            eventPublisher.publishEvent(new CodesWrittenEvent(RefType.PRODUCT,
+                    validRows.stream().map(r -> r.getProductCode().trim()).toList()));
         }
 
         return new int[]{inserted, failedCount};
     }
 
-    private Long resolveCategoryId(String categoryCode) {
-        if (dataValidator.isBlank(categoryCode)) return null;
-        String code = categoryCode.trim().toUpperCase();
-        return categoryCache.computeIfAbsent(code, c -> {
-            Optional<Category> category = categoryRepository.findByCategoryCode(c);
-            return category.map(Category::getId).orElse(null);
-        });
+    private void bindRow(PreparedStatement ps, ProductCsvRow row, Map<String, Long> categoryIds) {
+        try {
+            ps.setString(1, row.getProductCode().trim());
+            ps.setString(2, row.getProductName().trim());
+            ps.setString(3, row.getDescription());
+
+            Long categoryId = dataValidator.isBlank(row.getCategoryCode())
+                    ? null : categoryIds.get(normalizeCategoryCode(row.getCategoryCode()));
+            if (categoryId != null) {
+                ps.setLong(4, categoryId);
+            } else {
+                ps.setNull(4, java.sql.Types.BIGINT);
+            }
+
+            BigDecimal price = dataValidator.parseDecimal(row.getUnitPrice());
+            ps.setBigDecimal(5, price != null ? price : BigDecimal.ZERO);
+
+            Integer stock = dataValidator.parseInteger(row.getStockQuantity());
+            ps.setInt(6, stock != null ? stock : 0);
+
+            BigDecimal weight = dataValidator.parseDecimal(row.getWeightKg());
+            if (weight != null) ps.setBigDecimal(7, weight);
+            else ps.setNull(7, java.sql.Types.NUMERIC);
+
+            ps.setString(8, row.getBrand());
+            ps.setString(9, dataValidator.isBlank(row.getSku()) ? null : row.getSku().trim());
+
+            Boolean active = dataValidator.parseBoolean(row.getIsActive());
+            ps.setBoolean(10, active != null ? active : true);
+        } catch (Exception e) {
+            throw new RuntimeException("Error mapping product row: " + e.getMessage(), e);
+        }
+    }
+
+    static String normalizeCategoryCode(String categoryCode) {
+        return categoryCode.trim().toUpperCase();
     }
 
     public void clearCategoryCache() {
-        categoryCache.clear();
+        referenceResolver.clear(RefType.CATEGORY);
     }
 }
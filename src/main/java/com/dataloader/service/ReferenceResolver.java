@@ -0,0 +1,175 @@
+package com.dataloader.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves business codes (customer, product, category) to primary-key ids for a whole
+ * batch at once. Codes not yet cached are fetched as (code, id) pairs with a single
+ * {@code WHERE code = ANY(?)} query per batch, instead of one JPA entity load per code.
+ * <p>
+ * Each entity has a size-bounded Caffeine cache (W-TinyLFU eviction). Unknown codes are
+ * cached as short-lived negative entries so a bad code is not re-queried on every row,
+ * and entries are invalidated when a customer or product batch commits. A negative entry
+ * is only kept if no such invalidation ran while its query was in flight, so a lookup that
+ * raced a commit cannot re-cache a code the commit just created.
+ * <p>
+ * When {@link CodeDictionaryService} is enabled, known customer and product ids are
+ * kept in its off-heap dictionary instead, and Caffeine only holds their negative entries.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ReferenceResolver {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final CodeDictionaryService codeDictionary;
+
+    @Value("${app.cache.code-ids.max-entries:1000000}")
+    private long maxEntries;
+
+    @Value("${app.cache.code-ids.negative-ttl-seconds:30}")
+    private long negativeTtlSeconds;
+
+    // Keeps each ANY(?) array to a size Postgres plans well
+    private static final int MAX_CODES_PER_QUERY = 10_000;
+
+    // Cached value for a code known not to exist
+    private static final long NOT_FOUND = -1L;
+
+    public enum RefType {
+        CUSTOMER("SELECT customer_code, id FROM customers WHERE customer_code = ANY(?)"),
+        PRODUCT("SELECT product_code, id FROM products WHERE product_code = ANY(?)"),
+        CATEGORY("SELECT category_code, id FROM categories WHERE category_code = ANY(?)");
+
+        private final String sql;
+
+        RefType(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /** Published by the entity services after writing codes; handled once the transaction commits. */
+    public record CodesWrittenEvent(RefType type, Collection<String> codes) {}
+
+    private final Map<RefType, Cache<String, Long>> caches = new EnumMap<>(RefType.class);
+
+    // Bumped before every invalidation of a type
+    private final Map<RefType, AtomicLong> generations = new EnumMap<>(RefType.class);
+
+    @PostConstruct
+    void initCaches() {
+        for (RefType type : RefType.values()) {
+            Cache<String, Long> cache = Caffeine.newBuilder()
+                    .maximumSize(maxEntries)
+                    .expireAfter(new NegativeEntryExpiry(Duration.ofSeconds(negativeTtlSeconds)))
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "codeIds", "entity", type.name());
+            caches.put(type, cache);
+            generations.put(type, new AtomicLong());
+        }
+    }
+
+    /**
+     * Resolve every code in {@code codes} (already normalized by the caller).
+     * The returned map only contains codes that exist; callers reject the rest.
+     */
+    public Map<String, Long> resolve(RefType type, Collection<String> codes) {
+        Cache<String, Long> cache = caches.get(type);
+        AtomicLong generation = generations.get(type);
+        long queriedAt = generation.get();
+        boolean offHeap = codeDictionary.handles(type);
+        Map<String, Long> resolved = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+
+        Set<String> distinct = new HashSet<>(codes);
+        distinct.remove(null);
+        for (String code : distinct) {
+            Long id = offHeap ? codeDictionary.get(type, code) : null;
+            if (id == null) id = cache.getIfPresent(code);
+            if (id == null) {
+                missing.add(code);
+            } else if (id != NOT_FOUND) {
+                resolved.put(code, id);
+            }
+        }
+
+        for (int start = 0; start < missing.size(); start += MAX_CODES_PER_QUERY) {
+            List<String> chunk = missing.subList(start, Math.min(start + MAX_CODES_PER_QUERY, missing.size()));
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(type.sql);
+                ps.setArray(1, con.createArrayOf("varchar", chunk.toArray(String[]::new)));
+                return ps;
+            }, rs -> {
+                String code = rs.getString(1);
+                long id = rs.getLong(2);
+                if (offHeap) {
+                    codeDictionary.put(type, code, id);
+                } else {
+                    cache.put(code, id);
+                }
+                resolved.put(code, id);
+            });
+        }
+        List<String> unknown = missing.stream().filter(code -> !resolved.containsKey(code)).toList();
+        unknown.forEach(code -> cache.put(code, NOT_FOUND));
+        // Re-checked after the put: an invalidation either sees these entries or bumped the generation first
+        if (!unknown.isEmpty() && generation.get() != queriedAt) {
+            cache.invalidateAll(unknown);
+        }
+
+        if (!missing.isEmpty()) {
+            log.debug("Resolved {} {} codes ({} queried, {} unknown)", resolved.size(), type,
+                    missing.size(), distinct.size() - resolved.size());
+        }
+        return resolved;
+    }
+
+    /** Drop cached entries (notably negative ones) for codes a committed batch just wrote. */
+    @TransactionalEventListener
+    public void onCodesWritten(CodesWrittenEvent event) {
+        generations.get(event.type()).incrementAndGet();
+        caches.get(event.type()).invalidateAll(event.codes());
+    }
+
+    public void clear(RefType type) {
+        generations.get(type).incrementAndGet();
+        caches.get(type).invalidateAll();
+    }
+
+    /** Positive entries live until evicted by size; negative entries expire after a short TTL. */
+    private record NegativeEntryExpiry(Duration negativeTtl) implements Expiry<String, Long> {
+
+        @Override
+        public long expireAfterCreate(String key, Long value, long currentTime) {
+            return value == NOT_FOUND ? negativeTtl.toNanos() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Long value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Long value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.dataloader.service;
+
+import com.dataloader.service.FileUploadService.DataType;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Cluster mode: claims segments from {@link JobSegmentQueue} while this node has free
+ * job slots ({@code app.scheduler.max-concurrent-jobs}, and the per-entity
+ * {@code app.scheduler.max-running.<ENTITY>} limits), runs them on the job executor and
+ * keeps their leases alive. Stops claiming once shutdown has begun.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SegmentWorker {
+
+    private final JobSegmentQueue      segmentQueue;
+    private final FileUploadService    fileUploadService;
+    private final JobScheduler         jobScheduler;
+    private final JobCheckpointService checkpoints;
+    private final MeterRegistry        meterRegistry;
+
+    @Qualifier("fileProcessingExecutor")
+    private final Executor executor;
+
+    @Value("${app.scheduler.max-concurrent-jobs:8}")
+    private int maxConcurrentJobs;
+
+    private final Map<DataType, Integer> runningByType = new EnumMap<>(DataType.class);
+    private int running;
+
+    @PostConstruct
+    void init() {
+        if (segmentQueue.isEnabled()) {
+            Gauge.builder("dataloader.cluster.segments.running", this, SegmentWorker::runningCount)
+                    .register(meterRegistry);
+            log.info("Cluster mode: node {} takes work from job_segments", segmentQueue.nodeId());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.cluster.poll-interval-ms:1000}")
+    public void poll() {
+        if (!segmentQueue.isEnabled() || checkpoints.isDraining()) return;
+
+        // One at a time, so a claim never overshoots an entity's limit
+        while (true) {
+            List<DataType> full = new ArrayList<>();
+            synchronized (this) {
+                if (running >= maxConcurrentJobs) return;
+                for (DataType type : DataType.values()) {
+                    if (runningByType.getOrDefault(type, 0) >= jobScheduler.limitFor(type)) full.add(type);
+                }
+            }
+            if (full.size() == DataType.values().length) return;
+
+            List<JobSegmentQueue.Segment> claimed = segmentQueue.claim(1, full);
+            if (claimed.isEmpty()) return;
+            start(claimed.get(0));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.cluster.heartbeat-interval-ms:5000}")
+    public void heartbeat() {
+        if (!segmentQueue.isEnabled() || runningCount() == 0) return;
+        try {
+            segmentQueue.heartbeat();
+        } catch (Exception e) {
+            // A missed beat is harmless unless it lasts the whole lease
+            log.warn("Segment heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    private void start(JobSegmentQueue.Segment segment) {
+        synchronized (this) {
+            running++;
+            runningByType.merge(segment.dataType(), 1, Integer::sum);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    fileUploadService.processSegment(segment);
+                } finally {
+                    finished(segment);
+                }
+            });
+        } catch (RuntimeException e) {
+            finished(segment);
+            segmentQueue.release(segment);
+            log.warn("[Job {}] Could not start, released: {}", segment.label(), e.getMessage());
+        }
+    }
+
+    private synchronized void finished(JobSegmentQueue.Segment segment) {
+        running--;
+        runningByType.merge(segment.dataType(), -1, Integer::sum);
+    }
+
+    private synchronized int runningCount() {
+        return running;
+    }
+}
@@ -0,0 +1,426 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.CustomerCsvRow;
+import com.dataloader.dto.LoadPlan;
+import com.dataloader.dto.OrderCsvRow;
+import com.dataloader.dto.ProductCsvRow;
+import com.dataloader.model.UploadJob;
+import com.dataloader.service.FileUploadService.DataType;
+import com.dataloader.service.FileUploadService.StagedUpload;
+import com.dataloader.util.CsvStreamParser;
+import com.dataloader.util.JsonStreamParser;
+import com.dataloader.util.KeyPartitionLocker;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Fast path for tiny uploads. A file of at most {@code app.upload.coalesce.max-file-bytes}
+ * is parsed in the request instead of being staged and queued, and its rows wait briefly
+ * for other small uploads of the same entity. A group is committed in one transaction
+ * once it holds {@code app.upload.coalesce.max-batch-rows} rows (by the request that
+ * filled it) or its first upload has waited {@code app.upload.coalesce.max-linger-ms}:
+ * the group's job rows are inserted with one JDBC batch, every upload's rows are written,
+ * and the final statuses are set with a second batch.
+ * <p>
+ * Each upload still gets its own job, with its own counters: its rows go through the
+ * entity's {@code processBatch} separately, inside the shared transaction, after all
+ * keys the group touches have been locked in order. The request is answered once
+ * the group has committed, with the finished job. If the shared transaction fails, each
+ * upload of the group is retried in a transaction of its own, so one bad file cannot fail
+ * its neighbours.
+ * <p>
+ * Off by default: it changes the contract of the multipart endpoints for small files
+ * (200 with a finished job instead of 202, no priority or fair-share ordering).
+ */
+@Service
+@Slf4j
+public class SmallUploadCoalescer {
+
+    private static final int PARSE_BATCH_SIZE = 1000;
+
+    // Conflicts only on a live job holding the same Idempotency-Key
+    private static final String INSERT_JOB_SQL = """
+            INSERT INTO upload_jobs (job_id, file_name, file_type, data_type, status, total_rows,
+                processed_rows, failed_rows, error_message, content_sha256, idempotency_key,
+                file_size_bytes, load_strategy, started_at, completed_at)
+            VALUES (?, ?, ?, ?, ?, ?, 0, 0, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT DO NOTHING
+            """;
+
+    private static final String COMPLETE_JOB_SQL = """
+            UPDATE upload_jobs
+            SET status = ?, processed_rows = ?, failed_rows = ?, completed_at = ?
+            WHERE job_id = ?
+            """;
+
+    private final JdbcTemplate         jdbcTemplate;
+    private final TransactionTemplate  tx;
+    private final UploadJobService     uploadJobService;
+    private final CustomerService      customerService;
+    private final ProductService       productService;
+    private final OrderService         orderService;
+    private final CsvStreamParser      csvStreamParser;
+    private final JsonStreamParser     jsonStreamParser;
+    private final KeyPartitionLocker   keyPartitionLocker;
+    private final JobCheckpointService checkpoints;
+    private final MeterRegistry        meterRegistry;
+
+    @Value("${app.upload.coalesce.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.upload.coalesce.max-file-bytes:65536}")
+    private long maxFileBytes;
+
+    @Value("${app.upload.coalesce.max-batch-rows:2000}")
+    private int maxBatchRows;
+
+    @Value("${app.upload.coalesce.max-linger-ms:50}")
+    private long maxLingerMs;
+
+    @Value("${app.upload.dedup.enabled:true}")
+    private boolean dedupEnabled;
+
+    private final Map<DataType, Group<?>> groups = new EnumMap<>(DataType.class);
+    private ScheduledExecutorService lingerTimer;
+
+    public SmallUploadCoalescer(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                UploadJobService uploadJobService, CustomerService customerService,
+                                ProductService productService, OrderService orderService,
+                                CsvStreamParser csvStreamParser, JsonStreamParser jsonStreamParser,
+                                KeyPartitionLocker keyPartitionLocker, JobCheckpointService checkpoints,
+                                MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.uploadJobService = uploadJobService;
+        this.customerService = customerService;
+        this.productService = productService;
+        this.orderService = orderService;
+        this.csvStreamParser = csvStreamParser;
+        this.jsonStreamParser = jsonStreamParser;
+        this.keyPartitionLocker = keyPartitionLocker;
+        this.checkpoints = checkpoints;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        lingerTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "UploadCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        groups.put(DataType.CUSTOMERS, new Group<>(DataType.CUSTOMERS, CustomerCsvRow.class,
+                KeyPartitionLocker.LockSpace.CUSTOMERS, CustomerCsvRow::getCustomerCode,
+                csvStreamParser::streamCustomers, customerService::processBatch));
+        groups.put(DataType.PRODUCTS, new Group<>(DataType.PRODUCTS, ProductCsvRow.class,
+                KeyPartitionLocker.LockSpace.PRODUCTS, ProductCsvRow::getProductCode,
+                csvStreamParser::streamProducts, productService::processBatch));
+        // The same order may come in several coalesced uploads, so its lines are only merged
+        groups.put(DataType.ORDERS, new Group<>(DataType.ORDERS, OrderCsvRow.class,
+                KeyPartitionLocker.LockSpace.ORDERS, OrderCsvRow::getOrderNumber,
+                csvStreamParser::streamOrders, (rows, offset, strategy) ->
+                        orderService.processBatch(rows, offset, strategy, OrderService.ItemSync.MERGE)));
+    }
+
+    /** Commit whatever is waiting, so no request is left without an answer. */
+    @PreDestroy
+    void shutdown() {
+        groups.values().forEach(Group::flushLingering);
+        lingerTimer.shutdownNow();
+    }
+
+    /** Whether {@code file} takes the fast path. */
+    public boolean accepts(MultipartFile file) {
+        return enabled && file.getSize() <= maxFileBytes && !checkpoints.isDraining();
+    }
+
+    /**
+     * Parse {@code file}, load it together with other small uploads and return its
+     * finished job ({@code existing} for a duplicate, as in
+     * {@link FileUploadService#initiateUpload}). Returns null when the file cannot be
+     * parsed here; the caller stages it as usual so the failure is recorded on a job.
+     */
+    public StagedUpload load(MultipartFile file, DataType dataType, UploadJob.FileType fileType,
+                             String idempotencyKey) throws IOException {
+        byte[] content = file.getBytes();
+        String contentSha256 = HexFormat.of().formatHex(sha256().digest(content));
+        String fileName = file.getOriginalFilename() != null ? file.getOriginalFilename() : "unknown";
+
+        if (dedupEnabled) {
+            Optional<UploadJob> loaded = uploadJobService.findCompletedDuplicate(dataType, contentSha256);
+            if (loaded.isPresent()) {
+                log.info("Upload '{}' is identical to job {} ({}), not processing it again",
+                        fileName, loaded.get().getJobId(), contentSha256);
+                return new StagedUpload(loaded.get(), true);
+            }
+        }
+
+        UploadJob job = UploadJob.builder()
+                .jobId(UUID.randomUUID())
+                .fileName(fileName)
+                .fileType(fileType)
+                .dataType(dataType.name())
+                .status(UploadJob.JobStatus.PROCESSING)
+                .processedRows(0L)
+                .failedRows(0L)
+                .contentSha256(contentSha256)
+                .idempotencyKey(idempotencyKey)
+                .fileSizeBytes((long) content.length)
+                .loadStrategy(LoadPlan.Strategy.ROUTED.name())
+                .startedAt(LocalDateTime.now())
+                .build();
+        try {
+            return groups.get(dataType).submit(job, content).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    // -------------------------------------------------------
+    // ONE ENTITY'S PENDING GROUP
+    // -------------------------------------------------------
+    private final class Group<T> {
+
+        private final DataType dataType;
+        private final Class<T> rowType;
+        private final KeyPartitionLocker.LockSpace lockSpace;
+        private final Function<T, String> key;
+        private final CsvParser<T> csvParser;
+        private final BatchProcessor<T> processor;
+        private final ReentrantLock lock = new ReentrantLock();
+        private List<Upload<T>> pending = new ArrayList<>();
+        private int pendingRows;
+        private ScheduledFuture<?> linger;
+
+        Group(DataType dataType, Class<T> rowType, KeyPartitionLocker.LockSpace lockSpace, Function<T, String> key,
+              CsvParser<T> csvParser, BatchProcessor<T> processor) {
+            this.dataType = dataType;
+            this.rowType = rowType;
+            this.lockSpace = lockSpace;
+            this.key = key;
+            this.csvParser = csvParser;
+            this.processor = processor;
+        }
+
+        CompletableFuture<StagedUpload> submit(UploadJob job, byte[] content) throws IOException {
+            List<T> rows = new ArrayList<>();
+            try (InputStream in = new ByteArrayInputStream(content)) {
+                if (job.getFileType() == UploadJob.FileType.CSV) {
+                    csvParser.parse(in, PARSE_BATCH_SIZE, rows::addAll, total -> {});
+                } else {
+                    jsonStreamParser.streamArray(in, rowType, PARSE_BATCH_SIZE, rows::addAll, total -> {});
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Small upload '{}' did not parse inline, staging it: {}", job.getFileName(), e.getMessage());
+                return CompletableFuture.completedFuture(null);
+            }
+            job.setTotalRows((long) rows.size());
+            Upload<T> upload = new Upload<>(job, rows);
+
+            List<Upload<T>> full = null;
+            lock.lock();
+            try {
+                pending.add(upload);
+                pendingRows += rows.size();
+                if (pendingRows >= maxBatchRows) {
+                    full = take();
+                } else if (linger == null) {
+                    linger = lingerTimer.schedule(this::flushLingering, maxLingerMs, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+            // The request that fills the group commits it, without a hand-off
+            if (full != null) commit(full);
+            return upload.result;
+        }
+
+        void flushLingering() {
+            List<Upload<T>> uploads;
+            lock.lock();
+            try {
+                uploads = take();
+            } finally {
+                lock.unlock();
+            }
+            if (!uploads.isEmpty()) commit(uploads);
+        }
+
+        /** Caller holds {@link #lock}. */
+        private List<Upload<T>> take() {
+            List<Upload<T>> uploads = pending;
+            pending = new ArrayList<>();
+            pendingRows = 0;
+            if (linger != null) {
+                linger.cancel(false);
+                linger = null;
+            }
+            return uploads;
+        }
+
+        private void commit(List<Upload<T>> uploads) {
+            try {
+                tx.executeWithoutResult(status -> write(uploads));
+            } catch (RuntimeException e) {
+                if (uploads.size() == 1) {
+                    fail(uploads.get(0), e);
+                    return;
+                }
+                log.warn("Shared commit of {} small {} uploads failed, retrying them one by one: {}",
+                        uploads.size(), dataType, e.getMessage());
+                uploads.forEach(upload -> commit(List.of(upload)));
+                return;
+            }
+            meterRegistry.summary("dataloader.upload.coalesce.group.size", "entity", dataType.name())
+                    .record(uploads.size());
+            meterRegistry.counter("dataloader.upload.coalesced", "entity", dataType.name())
+                    .increment(uploads.size());
+            log.debug("Committed {} small {} uploads together", uploads.size(), dataType);
+            uploads.forEach(this::answer);
+        }
+
+        /** Jobs, rows and final statuses of the group, in the caller's transaction. */
+        private void write(List<Upload<T>> uploads) {
+            // A retry after a failed shared commit starts over
+            uploads.forEach(upload -> {
+                upload.job.setStatus(UploadJob.JobStatus.PROCESSING);
+                upload.job.setCompletedAt(null);
+            });
+            int[] inserted = jdbcTemplate.batchUpdate(INSERT_JOB_SQL, uploads.stream()
+                    .map(upload -> jobArgs(upload.job, null))
+                    .toList());
+
+            List<Upload<T>> owned = new ArrayList<>();
+            for (int i = 0; i < uploads.size(); i++) {
+                uploads.get(i).lostKey = inserted[i] == 0;
+                if (!uploads.get(i).lostKey) owned.add(uploads.get(i));
+            }
+
+            // Every key of the group up front and in order, as a single batch would
+            keyPartitionLocker.lockKeys(lockSpace, owned.stream()
+                    .flatMap(upload -> upload.rows.stream().map(key))
+                    .toList());
+
+            List<Object[]> completions = new ArrayList<>();
+            for (Upload<T> upload : owned) {
+                int[] r = upload.rows.isEmpty()
+                        ? new int[]{0, 0}
+                        : processor.process(upload.rows, new AtomicInteger(), LoadPlan.Strategy.ROUTED);
+                UploadJob job = upload.job;
+                job.setProcessedRows((long) r[0]);
+                job.setFailedRows((long) r[1]);
+                job.setStatus(r[1] == 0
+                        ? UploadJob.JobStatus.COMPLETED
+                        : (r[0] == 0 ? UploadJob.JobStatus.FAILED : UploadJob.JobStatus.PARTIAL));
+                job.setCompletedAt(LocalDateTime.now());
+                completions.add(new Object[]{job.getStatus().name(), job.getProcessedRows(), job.getFailedRows(),
+                        job.getCompletedAt(), job.getJobId()});
+            }
+            if (!completions.isEmpty()) jdbcTemplate.batchUpdate(COMPLETE_JOB_SQL, completions);
+        }
+
+        private void answer(Upload<T> upload) {
+            UploadJob job = upload.job;
+            if (upload.lostKey) {
+                // Lost the race for the key to a concurrent request
+                Optional<UploadJob> winner = uploadJobService.findByIdempotencyKey(job.getIdempotencyKey());
+                if (winner.isPresent()) {
+                    upload.result.complete(new StagedUpload(winner.get(), true));
+                } else {
+                    upload.result.completeExceptionally(new IllegalStateException(
+                            "Idempotency-Key " + job.getIdempotencyKey() + " is held by another upload."));
+                }
+                return;
+            }
+            log.info("[Job {}] {} completed inline. total={}, ok={}, failed={}", job.getJobId(), dataType,
+                    job.getTotalRows(), job.getProcessedRows(), job.getFailedRows());
+            upload.result.complete(new StagedUpload(job, false));
+        }
+
+        /** The upload failed on its own: record it as a failed job. */
+        private void fail(Upload<T> upload, RuntimeException error) {
+            UploadJob job = upload.job;
+            log.error("[Job {}] {} processing failed", job.getJobId(), job.getFileType(), error);
+            job.setStatus(UploadJob.JobStatus.FAILED);
+            job.setErrorMessage(error.getMessage());
+            job.setCompletedAt(LocalDateTime.now());
+            try {
+                jdbcTemplate.update(INSERT_JOB_SQL, jobArgs(job, error.getMessage()));
+                upload.result.complete(new StagedUpload(job, false));
+            } catch (RuntimeException e) {
+                error.addSuppressed(e);
+                upload.result.completeExceptionally(error);
+            }
+        }
+
+        private Object[] jobArgs(UploadJob job, String errorMessage) {
+            return new Object[]{job.getJobId(), job.getFileName(), job.getFileType().name(), job.getDataType(),
+                    job.getStatus().name(), job.getTotalRows(), errorMessage, job.getContentSha256(),
+                    job.getIdempotencyKey(), job.getFileSizeBytes(), job.getLoadStrategy(), job.getStartedAt(),
+                    job.getCompletedAt()};
+        }
+    }
+
+    private static final class Upload<T> {
+        final UploadJob job;
+        final List<T> rows;
+        final CompletableFuture<StagedUpload> result = new CompletableFuture<>();
+        boolean lostKey;
+
+        Upload(UploadJob job, List<T> rows) {
+            this.job = job;
+            this.rows = rows;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CsvParser<T> {
+        void parse(InputStream is, int batchSize, Consumer<List<T>> batchConsumer,
+                   Consumer<Long> totalRowCounter) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BatchProcessor<T> {
+        int[] process(List<T> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.dataloader.service;
+
+import com.dataloader.dto.CustomerCsvRow;
+import com.dataloader.dto.IngestStreamResponse;
+import com.dataloader.dto.LoadPlan;
+import com.dataloader.dto.OrderCsvRow;
+import com.dataloader.dto.ProductCsvRow;
+import com.dataloader.service.FileUploadService.DataType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Continuous ingestion of an unbounded NDJSON stream (one record per line) into one
+ * entity, over a long-lived chunked HTTP request.
+ * <p>
+ * Records are micro-batched: a batch is committed through the entity's
+ * {@code processBatch} once it holds {@code app.stream.batch-size} records, or once its
+ * oldest record has waited {@code app.stream.max-linger-ms}. Order batches end at an
+ * order boundary, so an order's items are written together: the order read last is held
+ * back until a record of another order arrives or the request ends normally. After a
+ * disconnect or on shutdown it stays uncommitted and unacknowledged, so the producer sends
+ * it again; an order of more than {@code app.stream.max-order-records} records fails the
+ * stream instead of being buffered without bound. After each commit the
+ * stream's offset (records written or rejected so far) is stored in
+ * {@code ingest_streams} and acknowledged to the client as an NDJSON line on the
+ * response. A producer that loses its connection reconnects with {@code offset} set to
+ * the first record it sends; records below the committed offset are skipped, so
+ * resending from the last acknowledgement is safe.
+ * <p>
+ * Offsets count non-blank lines; blank lines can be sent as keep-alives. A line that is
+ * not valid JSON counts as a failed row. A last line without a newline is never taken,
+ * since it may be a record cut off by a disconnect. One connection per stream at a time:
+ * the offset is committed with compare-and-set, so a second connection to the same stream
+ * (here or on another node) is rejected at its first commit.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StreamIngestService {
+
+    private static final Pattern STREAM_ID = Pattern.compile("[A-Za-z0-9._:-]{1,200}");
+
+    private static final String INSERT_STREAM_SQL = """
+            INSERT INTO ingest_streams (stream_id, data_type) VALUES (?, ?)
+            ON CONFLICT (stream_id) DO NOTHING
+            """;
+
+    private static final String SELECT_STREAM_SQL = """
+            SELECT stream_id, data_type, committed_offset, processed_rows, failed_rows, updated_at
+            FROM ingest_streams WHERE stream_id = ?
+            """;
+
+    private static final String COMMIT_SQL = """
+            UPDATE ingest_streams
+            SET committed_offset = ?, processed_rows = processed_rows + ?, failed_rows = failed_rows + ?,
+                updated_at = now()
+            WHERE stream_id = ? AND committed_offset = ?
+            RETURNING processed_rows, failed_rows
+            """;
+
+    private final JdbcTemplate         jdbcTemplate;
+    private final ObjectMapper         objectMapper;
+    private final CustomerService      customerService;
+    private final ProductService       productService;
+    private final OrderService         orderService;
+    private final JobCheckpointService checkpoints;
+    private final MeterRegistry        meterRegistry;
+
+    @Value("${app.stream.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.stream.max-linger-ms:1000}")
+    private long maxLingerMs;
+
+    @Value("${app.stream.max-record-bytes:1048576}")
+    private int maxRecordBytes;
+
+    @Value("${app.stream.linger-threads:4}")
+    private int lingerThreads;
+
+    @Value("${app.stream.max-order-records:10000}")
+    private int maxOrderRecords;
+
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService lingerTimer;
+
+    @PostConstruct
+    void init() {
+        // More than one thread, so one stream's slow linger commit does not hold up the others' ticks
+        lingerTimer = Executors.newScheduledThreadPool(Math.max(1, lingerThreads), runnable -> {
+            Thread thread = new Thread(runnable, "StreamLinger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("dataloader.stream.connections", active, Set::size).register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        lingerTimer.shutdownNow();
+    }
+
+    /** Committed offset and totals of a stream. */
+    public IngestStreamResponse getStream(String streamId) {
+        try {
+            return jdbcTemplate.queryForObject(SELECT_STREAM_SQL, (rs, i) -> IngestStreamResponse.builder()
+                    .streamId(rs.getString("stream_id"))
+                    .dataType(rs.getString("data_type"))
+                    .committedOffset(rs.getLong("committed_offset"))
+                    .processedRows(rs.getLong("processed_rows"))
+                    .failedRows(rs.getLong("failed_rows"))
+                    .updatedAt(rs.getTimestamp("updated_at").toLocalDateTime())
+                    .build(), streamId);
+        } catch (EmptyResultDataAccessException e) {
+            throw new IllegalArgumentException("Stream not found: " + streamId);
+        }
+    }
+
+    /**
+     * Validate the request and open the stream (created on first use). Throws before
+     * anything is written to the response, so errors still get a normal status code.
+     *
+     * @param offset stream offset of the first record in the request body
+     */
+    public Connection open(String streamId, DataType dataType, long offset) {
+        if (streamId == null || !STREAM_ID.matcher(streamId).matches()) {
+            throw new IllegalArgumentException("streamId must be 1-200 characters of letters, digits and . _ : -");
+        }
+        if (offset < 0) throw new IllegalArgumentException("offset must not be negative.");
+
+        jdbcTemplate.update(INSERT_STREAM_SQL, streamId, dataType.name());
+        IngestStreamResponse stream = getStream(streamId);
+        if (!stream.getDataType().equals(dataType.name())) {
+            throw new IllegalArgumentException("Stream " + streamId + " carries " + stream.getDataType() + ".");
+        }
+        if (offset > stream.getCommittedOffset()) {
+            throw new IllegalArgumentException("Stream " + streamId + " has committed " + stream.getCommittedOffset()
+                    + " records; resume from there, not from " + offset + ".");
+        }
+        if (!active.add(streamId)) {
+            throw new IllegalArgumentException("Stream " + streamId + " already has an open connection.");
+        }
+        return switch (dataType) {
+            case CUSTOMERS -> new Connection(stream, offset, new Batches<>(CustomerCsvRow.class, null,
+                    customerService::processBatch));
+            case PRODUCTS -> new Connection(stream, offset, new Batches<>(ProductCsvRow.class, null,
+                    productService::processBatch));
+            // An order may span flushes and reconnects, so its lines are only merged
+            case ORDERS -> new Connection(stream, offset, new Batches<>(OrderCsvRow.class,
+                    OrderCsvRow::getOrderNumber, (rows, rowOffset, strategy) ->
+                            orderService.processBatch(rows, rowOffset, strategy, OrderService.ItemSync.MERGE)));
+        };
+    }
+
+    // -------------------------------------------------------
+    // ONE CONNECTION
+    // -------------------------------------------------------
+    /** An open stream: read records from the request, acknowledge commits on the response. */
+    public final class Connection {
+
+        private final String streamId;
+        private final DataType dataType;
+        private final Batches<?> batches;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Counter records;
+        private OutputStream acks;
+        private long nextOffset;
+        private long committed;
+        private long processedRows;
+        private long failedRows;
+        private long oldestPendingNanos;
+        private long lastRecordNanos;
+        private RuntimeException lingerFailure;
+
+        private Connection(IngestStreamResponse stream, long offset, Batches<?> batches) {
+            this.streamId = stream.getStreamId();
+            this.dataType = DataType.valueOf(stream.getDataType());
+            this.batches = batches;
+            this.nextOffset = offset;
+            this.committed = stream.getCommittedOffset();
+            this.processedRows = stream.getProcessedRows();
+            this.failedRows = stream.getFailedRows();
+            this.records = meterRegistry.counter("dataloader.stream.records", "entity", dataType.name());
+        }
+
+        /**
+         * Read records until the client ends the request, the connection drops or shutdown
+         * begins. Complete records are committed before returning; the last order only
+         * when the client ended the request, since otherwise more of it may follow.
+         */
+        public void run(InputStream body, OutputStream acks) {
+            this.acks = acks;
+            long tick = Math.max(10, maxLingerMs / 4);
+            ScheduledFuture<?> linger = lingerTimer.scheduleWithFixedDelay(this::flushIfLingering,
+                    tick, tick, TimeUnit.MILLISECONDS);
+            log.info("Stream {} ({}) connected at offset {}, committed {}", streamId, dataType, nextOffset, committed);
+            String status = "COMPLETED";
+            String error = null;
+            try (InputStream in = new BufferedInputStream(body)) {
+                byte[] line;
+                while ((line = readLine(in)) != null) {
+                    if (checkpoints.isDraining()) {
+                        status = "SHUTDOWN";
+                        break;
+                    }
+                    accept(line);
+                }
+            } catch (IOException e) {
+                // Disconnected; the complete orders read so far are still committed and the client resumes from the offset
+                status = "DISCONNECTED";
+                log.info("Stream {} disconnected at offset {}: {}", streamId, nextOffset, e.getMessage());
+            } catch (RuntimeException e) {
+                status = "FAILED";
+                error = e.getMessage();
+                log.error("Stream {} failed at offset {}", streamId, nextOffset, e);
+            } finally {
+                linger.cancel(false);
+            }
+
+            lock.lock();
+            try {
+                if (error == null) flush(status.equals("COMPLETED"));
+            } catch (RuntimeException e) {
+                status = "FAILED";
+                error = e.getMessage();
+                log.error("Stream {} failed to commit at offset {}", streamId, committed, e);
+            } finally {
+                ack(status, error);
+                lock.unlock();
+                active.remove(streamId);
+            }
+            log.info("Stream {} closed ({}): committed {}", streamId, status, committed);
+        }
+
+        private void accept(byte[] line) {
+            String text = new String(line, StandardCharsets.UTF_8).trim();
+            if (text.isEmpty()) return;   // keep-alive
+
+            lock.lock();
+            try {
+                if (lingerFailure != null) throw lingerFailure;
+                long offset = nextOffset++;
+                if (offset < committed) return;   // resent after a reconnect, already committed
+
+                long now = System.nanoTime();
+                if (batches.isEmpty()) oldestPendingNanos = now;
+                lastRecordNanos = now;
+                batches.add(text);
+                records.increment();
+                if (batches.heldBack() > maxOrderRecords) {
+                    throw new IllegalArgumentException("Order at offset " + offset + " has more than "
+                            + maxOrderRecords + " records; split it or raise app.stream.max-order-records.");
+                }
+                if (batches.size() >= batchSize) flush(false);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void flushIfLingering() {
+            // Busy means the reader is adding a record or committing a batch itself; try again next tick
+            if (!lock.tryLock()) return;
+            try {
+                if (lingerFailure != null || batches.isEmpty()) return;
+                long now = System.nanoTime();
+                if (now - oldestPendingNanos < TimeUnit.MILLISECONDS.toNanos(maxLingerMs)) return;
+                // A quiet producer may still send more of the last order, so it stays pending
+                flush(false);
+            } catch (RuntimeException e) {
+                lingerFailure = e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Commit pending records: all of them, or up to the last group boundary. Caller holds the lock. */
+        private void flush(boolean all) {
+            int count = batches.cut(all);
+            if (count == 0) return;
+
+            long from = committed;
+            int[] result = batches.commit(count, from);
+            long ok = result[0];
+            long failed = result[1];
+            long to = from + count;
+
+            List<long[]> totals = jdbcTemplate.query(COMMIT_SQL,
+                    (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2)},
+                    to, ok, failed, streamId, from);
+            if (totals.isEmpty()) {
+                throw new IllegalStateException("Stream " + streamId + " was advanced by another connection.");
+            }
+            committed = to;
+            processedRows = totals.get(0)[0];
+            failedRows = totals.get(0)[1];
+            if (!batches.isEmpty()) oldestPendingNanos = lastRecordNanos;
+            ack(null, null);
+        }
+
+        private void ack(String status, String error) {
+            if (acks == null) return;
+            try {
+                acks.write(objectMapper.writeValueAsBytes(IngestStreamResponse.builder()
+                        .streamId(streamId)
+                        .committedOffset(committed)
+                        .processedRows(processedRows)
+                        .failedRows(failedRows)
+                        .status(status)
+                        .error(error)
+                        .build()));
+                acks.write('\n');
+                acks.flush();
+            } catch (IOException e) {
+                // The client is gone; it reads the offset with GET /streams/{streamId} when it is back
+                acks = null;
+            }
+        }
+
+        /** Next newline-terminated line, or null at the end of the body. */
+        private byte[] readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') return line.toByteArray();
+                if (line.size() >= maxRecordBytes) {
+                    throw new IllegalArgumentException("Record at offset " + nextOffset
+                            + " exceeds " + maxRecordBytes + " bytes.");
+                }
+                line.write(b);
+            }
+            return null;
+        }
+    }
+
+    // -------------------------------------------------------
+    // PENDING RECORDS OF ONE ENTITY
+    // -------------------------------------------------------
+    @FunctionalInterface
+    private interface BatchProcessor<T> {
+        int[] process(List<T> rows, AtomicInteger rowOffset, LoadPlan.Strategy strategy);
+    }
+
+    /** Records read but not committed, in offset order; {@code null} for lines that were not valid JSON. */
+    private final class Batches<T> {
+
+        private final Class<T> rowType;
+        private final Function<T, String> groupKey;
+        private final BatchProcessor<T> processor;
+        private final List<T> pending = new ArrayList<>();
+        private String lastKey;
+        private int groupStart;   // index of the first pending record of the last group
+
+        private Batches(Class<T> rowType, Function<T, String> groupKey, BatchProcessor<T> processor) {
+            this.rowType = rowType;
+            this.groupKey = groupKey;
+            this.processor = processor;
+        }
+
+        void add(String json) {
+            T row;
+            try {
+                row = objectMapper.readValue(json, rowType);
+            } catch (JsonProcessingException e) {
+                row = null;
+            }
+            if (row != null && groupKey != null) {
+                String key = groupKey.apply(row);
+                if (!Objects.equals(key, lastKey)) {
+                    lastKey = key;
+                    groupStart = pending.size();
+                }
+            }
+            pending.add(row);
+        }
+
+        int size() {
+            return pending.size();
+        }
+
+        boolean isEmpty() {
+            return pending.isEmpty();
+        }
+
+        /** Pending records of the last group, which a partial commit holds back. */
+        int heldBack() {
+            return groupKey == null ? 0 : pending.size() - groupStart;
+        }
+
+        /** How many pending records to commit; without {@code all}, the last group is held back. */
+        int cut(boolean all) {
+            return all ? pending.size() : pending.size() - heldBack();
+        }
+
+        /** Write the first {@code count} records; returns {ok, failed}. */
+        int[] commit(int count, long firstOffset) {
+            List<T> head = pending.subList(0, count);
+            List<T> rows = new ArrayList<>(count);
+            int unparsed = 0;
+            for (T row : head) {
+                if (row != null) rows.add(row);
+                else unparsed++;
+            }
+            int[] result = rows.isEmpty()
+                    ? new int[]{0, 0}
+                    : processor.process(rows, new AtomicInteger((int) Math.min(firstOffset, Integer.MAX_VALUE)),
+                            LoadPlan.Strategy.ROUTED);
+            head.clear();
+            groupStart = Math.max(0, groupStart - count);
+            return new int[]{result[0], result[1] + unparsed};
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.dataloader.service;
 
+import com.dataloader.dto.LoadPlan;
 import com.dataloader.dto.UploadJobResponse;
 import com.dataloader.model.UploadJob;
 import com.dataloader.repository.UploadJobRepository;
@@ -9,47 +10,121 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
+/**
+ * Job lifecycle. Creation is written through to {@code upload_jobs}; later transitions
+ * and progress go through {@link JobStateRegistry} (write-behind, terminal states
+ * flushed synchronously), and status reads are answered from it when possible.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class UploadJobService {
 
     private final UploadJobRepository uploadJobRepository;
+    private final JobStateRegistry    jobStateRegistry;
+
+    private static final Set<UploadJob.JobStatus> TERMINAL = Set.of(
+            UploadJob.JobStatus.COMPLETED, UploadJob.JobStatus.PARTIAL, UploadJob.JobStatus.FAILED,
+            UploadJob.JobStatus.CANCELLED);
+
+    @Transactional
+    public UploadJob createJob(String fileName, UploadJob.FileType fileType, FileUploadService.DataType dataType) {
+        return createJob(fileName, fileType, dataType, null);
+    }
 
     @Transactional
-    public UploadJob createJob(String fileName, UploadJob.FileType fileType) {
+    public UploadJob createJob(String fileName, UploadJob.FileType fileType,
+                               FileUploadService.DataType dataType, UUID bundleId) {
+        return createJob(fileName, fileType, dataType, bundleId, null, null);
+    }
+
+    /**
+     * @throws org.springframework.dao.DataIntegrityViolationException when another live
+     *         job already holds {@code idempotencyKey}
+     */
+    @Transactional
+    public UploadJob createJob(String fileName, UploadJob.FileType fileType, FileUploadService.DataType dataType,
+                               UUID bundleId, String contentSha256, String idempotencyKey) {
         UploadJob job = UploadJob.builder()
                 .jobId(UUID.randomUUID())
+                .bundleId(bundleId)
                 .fileName(fileName)
                 .fileType(fileType)
+                .dataType(dataType.name())
                 .status(UploadJob.JobStatus.PENDING)
                 .totalRows(0L)
                 .processedRows(0L)
                 .failedRows(0L)
+                .contentSha256(contentSha256)
+                .idempotencyKey(idempotencyKey)
                 .build();
-        return uploadJobRepository.save(job);
+        UploadJob saved = uploadJobRepository.save(job);
+        jobStateRegistry.register(saved);
+        return saved;
     }
 
+    /** A job for a landing-directory file, read in place from {@code sourcePath}. */
     @Transactional
+    public UploadJob createLandedJob(UUID jobId, String fileName, UploadJob.FileType fileType,
+                                     FileUploadService.DataType dataType, String sourcePath) {
+        UploadJob job = UploadJob.builder()
+                .jobId(jobId)
+                .fileName(fileName)
+                .fileType(fileType)
+                .dataType(dataType.name())
+                .status(UploadJob.JobStatus.PENDING)
+                .totalRows(0L)
+                .processedRows(0L)
+                .failedRows(0L)
+                .sourcePath(sourcePath)
+                .build();
+        UploadJob saved = uploadJobRepository.save(job);
+        jobStateRegistry.register(saved);
+        return saved;
+    }
+
+    /** Whether a job with this id exists at all. */
+    @Transactional(readOnly = true)
+    public boolean exists(UUID jobId) {
+        return jobStateRegistry.get(jobId) != null || uploadJobRepository.findByJobId(jobId).isPresent();
+    }
+
     public void markProcessing(UUID jobId) {
-        uploadJobRepository.findByJobId(jobId).ifPresent(job -> {
+        apply(jobId, job -> {
             job.setStatus(UploadJob.JobStatus.PROCESSING);
             job.setStartedAt(LocalDateTime.now());
-            uploadJobRepository.save(job);
         });
     }
 
-    @Transactional
+    public void recordPlan(UUID jobId, LoadPlan plan, String planDetails) {
+        apply(jobId, job -> {
+            job.setFileSizeBytes(plan.getFileSizeBytes());
+            job.setEstimatedRows(plan.getEstimatedRows());
+            job.setLoadStrategy(plan.getStrategy().name());
+            job.setPlannedBatchSize(plan.getBatchSize());
+            job.setPlannedParallelism(plan.getParallelism());
+            job.setPlanDetails(planDetails);
+        });
+    }
+
     public void updateProgress(UUID jobId, long totalRows, long processedRows, long failedRows) {
-        uploadJobRepository.updateProgress(jobId, UploadJob.JobStatus.PROCESSING,
-                processedRows, failedRows, totalRows);
+        apply(jobId, job -> {
+            job.setStatus(UploadJob.JobStatus.PROCESSING);
+            job.setTotalRows(totalRows);
+            job.setProcessedRows(processedRows);
+            job.setFailedRows(failedRows);
+        });
     }
 
-    @Transactional
     public void markCompleted(UUID jobId, long totalRows, long processedRows, long failedRows) {
-        uploadJobRepository.findByJobId(jobId).ifPresent(job -> {
+        apply(jobId, job -> {
             UploadJob.JobStatus finalStatus = failedRows == 0
                     ? UploadJob.JobStatus.COMPLETED
                     : (processedRows == 0 ? UploadJob.JobStatus.FAILED : UploadJob.JobStatus.PARTIAL);
@@ -58,24 +133,101 @@ public class UploadJobService {
             job.setProcessedRows(processedRows);
             job.setFailedRows(failedRows);
             job.setCompletedAt(LocalDateTime.now());
-            uploadJobRepository.save(job);
         });
     }
 
-    @Transactional
     public void markFailed(UUID jobId, String errorMessage) {
-        uploadJobRepository.findByJobId(jobId).ifPresent(job -> {
+        apply(jobId, job -> {
             job.setStatus(UploadJob.JobStatus.FAILED);
             job.setErrorMessage(errorMessage);
             job.setCompletedAt(LocalDateTime.now());
-            uploadJobRepository.save(job);
         });
     }
 
+    /**
+     * Cancelled by request or by its deadline; the counters are what was committed before
+     * the job stopped.
+     */
+    public void markCancelled(UUID jobId, String reason, long totalRows, long processedRows, long failedRows) {
+        apply(jobId, job -> {
+            job.setStatus(UploadJob.JobStatus.CANCELLED);
+            job.setErrorMessage(reason);
+            job.setTotalRows(totalRows);
+            job.setProcessedRows(processedRows);
+            job.setFailedRows(failedRows);
+            job.setCompletedAt(LocalDateTime.now());
+        });
+    }
+
+    /** Written through, so a job recovered after a restart or claimed by another node keeps it. */
+    @Transactional
+    public void setDeadline(UUID jobId, LocalDateTime deadline) {
+        uploadJobRepository.updateDeadline(jobId, deadline);
+        jobStateRegistry.update(jobId, live -> live.setDeadlineAt(deadline));
+    }
+
+    /** Current state of a job: from memory when held here, otherwise from the table. */
+    @Transactional(readOnly = true)
+    public Optional<UploadJob> findJob(UUID jobId) {
+        UploadJob live = jobStateRegistry.get(jobId);
+        return live != null ? Optional.of(live) : uploadJobRepository.findByJobId(jobId);
+    }
+
+    public static boolean isTerminal(UploadJob.JobStatus status) {
+        return TERMINAL.contains(status);
+    }
+
+    /** The job holding {@code idempotencyKey}, unless it failed or was cancelled (which frees the key). */
+    @Transactional(readOnly = true)
+    public Optional<UploadJob> findByIdempotencyKey(String idempotencyKey) {
+        if (idempotencyKey == null) return Optional.empty();
+        return uploadJobRepository.findFirstByIdempotencyKeyAndStatusNotInOrderByIdDesc(
+                idempotencyKey, EnumSet.of(UploadJob.JobStatus.FAILED, UploadJob.JobStatus.CANCELLED));
+    }
+
+    /** Latest fully successful job that loaded the same content as the same data type. */
+    @Transactional(readOnly = true)
+    public Optional<UploadJob> findCompletedDuplicate(FileUploadService.DataType dataType, String contentSha256) {
+        return uploadJobRepository.findFirstByDataTypeAndContentSha256AndStatusOrderByIdDesc(
+                dataType.name(), contentSha256, UploadJob.JobStatus.COMPLETED);
+    }
+
+    /** The job is now updated elsewhere (cluster queue); stop serving it from memory here. */
+    public void release(UUID jobId) {
+        jobStateRegistry.release(jobId);
+    }
+
     @Transactional(readOnly = true)
+    public List<UploadJobResponse> getBundleStatus(UUID bundleId) {
+        List<UploadJobResponse> jobs = uploadJobRepository.findByBundleIdOrderByIdAsc(bundleId).stream()
+                .map(job -> {
+                    // Live state may be ahead of the row
+                    UploadJob live = jobStateRegistry.get(job.getJobId());
+                    return UploadJobResponse.from(live != null ? live : job);
+                })
+                .toList();
+        if (jobs.isEmpty()) throw new IllegalArgumentException("Bundle not found: " + bundleId);
+        return jobs;
+    }
+
+    /** Served from memory for jobs running (or recently finished) here; otherwise from the table. */
     public UploadJobResponse getJobStatus(UUID jobId) {
-        return uploadJobRepository.findByJobId(jobId)
-                .map(UploadJobResponse::from)
+        UploadJob live = jobStateRegistry.get(jobId);
+        if (live != null) return UploadJobResponse.from(live);
+
+        UploadJob job = uploadJobRepository.findByJobId(jobId)
                 .orElseThrow(() -> new IllegalArgumentException("Job not found: " + jobId));
+        // Finished jobs no longer change, so they can be answered from memory from now on
+        if (TERMINAL.contains(job.getStatus())) jobStateRegistry.register(job);
+        return UploadJobResponse.from(job);
+    }
+
+    /** Apply a state change through the registry, loading the job first if it is not held here. */
+    private void apply(UUID jobId, Consumer<UploadJob> change) {
+        if (jobStateRegistry.update(jobId, change)) return;
+        uploadJobRepository.findByJobId(jobId).ifPresent(job -> {
+            jobStateRegistry.register(job);
+            jobStateRegistry.update(jobId, change);
+        });
     }
 }
@@ -0,0 +1,105 @@
+package com.dataloader.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free Bloom filter over string keys.
+ * Answers "definitely absent" or "possibly present"; never produces false negatives
+ * for keys that were {@link #put}. Sized from an expected key count and a target
+ * false-positive probability, optionally capped to a maximum memory footprint.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashFunctions;
+    private final LongAdder insertions = new LongAdder();
+
+    private BloomFilter(long bitCount, int hashFunctions) {
+        this.bitCount = bitCount;
+        this.hashFunctions = hashFunctions;
+        this.words = new AtomicLongArray((int) ((bitCount + 63) / 64));
+    }
+
+    /**
+     * @param expectedKeys number of keys the filter should hold at the target rate
+     * @param fpp          target false-positive probability, e.g. 0.01
+     * @param maxBytes     hard cap on the bit array size; the achieved rate degrades if it binds
+     */
+    public static BloomFilter create(long expectedKeys, double fpp, long maxBytes) {
+        long n = Math.max(1, expectedKeys);
+        double p = Math.min(Math.max(fpp, 1e-9), 0.5);
+
+        long optimalBits = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+        long maxBits = maxBytes > Long.MAX_VALUE / 8 ? Long.MAX_VALUE : maxBytes * 8;
+        long cappedBits = Math.min(optimalBits, Math.max(64, maxBits));
+        // AtomicLongArray is int-indexed
+        long bits = Math.min(cappedBits, (long) Integer.MAX_VALUE * 64);
+
+        int k = (int) Math.max(1, Math.round((double) bits / n * Math.log(2)));
+        return new BloomFilter(bits, Math.min(k, 16));
+    }
+
+    public void put(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            setBit(bit);
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /** False-positive probability at the current fill level. */
+    public double expectedFpp() {
+        double fill = -(double) hashFunctions * insertions.sum() / bitCount;
+        return Math.pow(1 - Math.exp(fill), hashFunctions);
+    }
+
+    public long insertions() {
+        return insertions.sum();
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    private void setBit(long bit) {
+        int index = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = words.get(index);
+            if ((current & mask) != 0) return;
+        } while (!words.compareAndSet(index, current, current | mask));
+    }
+
+    // 64-bit mix over the UTF-16 code units (murmur3 finalizer per step)
+    private static long hash(String key, long seed) {
+        long h = seed ^ key.length();
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+        }
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,239 @@
+package com.dataloader.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A file assembled from fixed-size numbered chunks that may arrive in any order and
+ * in parallel. Each chunk is written at {@code index * chunkSize} with positional
+ * {@link FileChannel} writes, checked against its SHA-256 and forced to disk before it
+ * counts as received.
+ * <p>
+ * {@link #openPrefixStream()} reads the file while it is still being assembled: it
+ * returns bytes of the contiguous received prefix and blocks at its end until the
+ * next chunk lands, so a reader can start before the upload is complete. Waiting uses a
+ * lock condition rather than a monitor, so a virtual-thread reader does not pin its carrier.
+ */
+public class ChunkedFile {
+
+    private static final int COPY_BUFFER = 256 * 1024;
+
+    private final Path path;
+    private final long totalSize;
+    private final int chunkSize;
+    private final int chunkCount;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition grown = lock.newCondition();
+    private final BitSet received = new BitSet();
+    private long contiguousBytes;
+    private IOException failure;
+
+    public ChunkedFile(Path path, long totalSize, int chunkSize) {
+        this.path = path;
+        this.totalSize = totalSize;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** @throws IllegalArgumentException for an index outside {@code 0..chunkCount-1} */
+    public long expectedSize(int index) {
+        checkIndex(index);
+        return Math.min(chunkSize, totalSize - (long) index * chunkSize);
+    }
+
+    /**
+     * Write one chunk from {@code body} at its position and verify it. The chunk is not
+     * marked received here; call {@link #markReceived} once it is recorded durably.
+     *
+     * @return the chunk's SHA-256 as lower-case hex
+     * @throws IllegalArgumentException on a size or checksum mismatch
+     */
+    public String write(int index, InputStream body, String expectedSha256) throws IOException {
+        long expected = expectedSize(index);
+        MessageDigest digest = sha256();
+        long position = (long) index * chunkSize;
+        long written = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[COPY_BUFFER];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                if (written + n > expected) {
+                    throw new IllegalArgumentException("Chunk " + index + " is larger than " + expected + " bytes");
+                }
+                digest.update(buffer, 0, n);
+                ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+                while (bb.hasRemaining()) {
+                    written += channel.write(bb, position + written);
+                }
+            }
+            if (written != expected) {
+                throw new IllegalArgumentException("Chunk " + index + " has " + written + " bytes, expected " + expected);
+            }
+            String actual = HexFormat.of().formatHex(digest.digest());
+            if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(actual)) {
+                throw new IllegalArgumentException("Chunk " + index + " checksum mismatch: got " + actual);
+            }
+            channel.force(false);
+            return actual;
+        }
+    }
+
+    /** @return false if the chunk had already been received */
+    public boolean markReceived(int index) {
+        checkIndex(index);
+        lock.lock();
+        try {
+            if (received.get(index)) return false;
+            received.set(index);
+            int next = (int) (contiguousBytes / chunkSize);
+            while (next < chunkCount && received.get(next)) {
+                contiguousBytes = Math.min(totalSize, contiguousBytes + expectedSize(next));
+                next++;
+            }
+            grown.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isReceived(int index) {
+        checkIndex(index);
+        lock.lock();
+        try {
+            return received.get(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return received.cardinality() == chunkCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long contiguousBytes() {
+        lock.lock();
+        try {
+            return contiguousBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Integer> missing() {
+        lock.lock();
+        try {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < chunkCount; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            return missing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Abort readers blocked in the prefix stream, e.g. when the session expires. */
+    public void fail(IOException cause) {
+        lock.lock();
+        try {
+            failure = cause;
+            grown.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stream of the file that waits for missing chunks instead of reading holes. */
+    public InputStream openPrefixStream() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position >= totalSize) return -1;
+                long available = awaitBeyond(position);
+                int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available - position)), position);
+                if (n > 0) position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    private long awaitBeyond(long position) throws IOException {
+        lock.lock();
+        try {
+            while (contiguousBytes <= position) {
+                if (failure != null) throw failure;
+                grown.await();
+            }
+            return contiguousBytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for upload chunks", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= chunkCount) {
+            throw new IllegalArgumentException("Chunk index " + index + " out of range 0.." + (chunkCount - 1));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.dataloader.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the committed prefix of a job whose batches may finish out of order on
+ * several writer lanes. Batches cover consecutive row ranges in dispatch order; the
+ * watermark only moves past a batch once every batch before it has committed too,
+ * so a job resumed from it never skips an uncommitted row.
+ */
+public class CommitWatermark {
+
+    /** Rows committed from the start of the stream, with the counters at that point. */
+    public record Position(long rows, long processed, long failed) {}
+
+    private final Map<Long, long[]> done = new HashMap<>();
+    private Position position;
+
+    public CommitWatermark(Position start) {
+        this.position = start;
+    }
+
+    /**
+     * Record a committed batch.
+     *
+     * @return the new watermark, or null if an earlier batch is still in flight
+     */
+    public synchronized Position complete(long startRow, int rows, long processed, long failed) {
+        done.put(startRow, new long[]{rows, processed, failed});
+        Position before = position;
+        long[] next;
+        while ((next = done.remove(position.rows())) != null) {
+            position = new Position(position.rows() + next[0], position.processed() + next[1],
+                    position.failed() + next[2]);
+        }
+        return position != before ? position : null;
+    }
+
+    public synchronized Position position() {
+        return position;
+    }
+}
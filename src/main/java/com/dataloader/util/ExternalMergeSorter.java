@@ -0,0 +1,135 @@
+package com.dataloader.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Stable external merge sort with bounded memory.
+ * Rows are buffered up to {@code maxRowsInMemory}, then sorted and spilled to a run
+ * file (one JSON document per line). {@link #drainTo} k-way merges the runs and emits
+ * the rows in order, in batches. Equal keys keep their input order, so an order's
+ * lines stay in file order. Run files are deleted by {@link #close}.
+ */
+@Slf4j
+public class ExternalMergeSorter<T> implements Closeable {
+
+    private final Class<T> type;
+    private final Comparator<T> comparator;
+    private final ObjectMapper objectMapper;
+    private final Path spillDir;
+    private final int maxRowsInMemory;
+
+    private final List<T> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long rows;
+
+    public ExternalMergeSorter(Class<T> type, Comparator<T> comparator, ObjectMapper objectMapper,
+                               Path spillDir, int maxRowsInMemory) {
+        this.type = type;
+        this.comparator = comparator;
+        this.objectMapper = objectMapper;
+        this.spillDir = spillDir;
+        this.maxRowsInMemory = Math.max(1, maxRowsInMemory);
+    }
+
+    /** Batch consumer for the stream parsers; spill failures surface as {@link UncheckedIOException}. */
+    public void addAll(List<T> batch) {
+        for (T row : batch) {
+            buffer.add(row);
+            rows++;
+            if (buffer.size() >= maxRowsInMemory) {
+                try {
+                    spill();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to spill sort run", e);
+                }
+            }
+        }
+    }
+
+    /** Emit every row added so far in sorted order, {@code batchSize} rows at a time. */
+    public void drainTo(int batchSize, Consumer<List<T>> consumer) throws IOException {
+        if (runs.isEmpty()) {
+            // Everything fit in memory: no disk round trip
+            buffer.sort(comparator);
+            for (int start = 0; start < buffer.size(); start += batchSize) {
+                consumer.accept(new ArrayList<>(buffer.subList(start, Math.min(start + batchSize, buffer.size()))));
+            }
+            buffer.clear();
+            return;
+        }
+        if (!buffer.isEmpty()) spill();
+
+        log.info("Merging {} sorted runs ({} rows)", runs.size(), rows);
+        List<MappingIterator<T>> iterators = new ArrayList<>(runs.size());
+        try {
+            // Ties go to the earlier run, which keeps the sort stable
+            PriorityQueue<RunHead<T>> heads = new PriorityQueue<>(
+                    Comparator.<RunHead<T>, T>comparing(RunHead::row, comparator).thenComparingInt(RunHead::run));
+            for (int i = 0; i < runs.size(); i++) {
+                BufferedReader reader = Files.newBufferedReader(runs.get(i), StandardCharsets.UTF_8);
+                MappingIterator<T> it = objectMapper.readerFor(type).readValues(reader);
+                iterators.add(it);
+                if (it.hasNextValue()) heads.add(new RunHead<>(it.nextValue(), i));
+            }
+
+            List<T> batch = new ArrayList<>(batchSize);
+            while (!heads.isEmpty()) {
+                RunHead<T> head = heads.poll();
+                batch.add(head.row());
+                MappingIterator<T> it = iterators.get(head.run());
+                if (it.hasNextValue()) heads.add(new RunHead<>(it.nextValue(), head.run()));
+                if (batch.size() >= batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) consumer.accept(batch);
+        } finally {
+            for (MappingIterator<T> it : iterators) it.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException ignored) {
+            }
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(comparator);
+        Files.createDirectories(spillDir);
+        Path run = Files.createTempFile(spillDir, "sort-run-", ".ndjson");
+        runs.add(run);
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8);
+             SequenceWriter out = objectMapper.writer().withRootValueSeparator("\n").writeValues(writer)) {
+            out.writeAll(buffer);
+        }
+        log.debug("Spilled sort run {} with {} rows", run.getFileName(), buffer.size());
+        buffer.clear();
+    }
+
+    private record RunHead<T>(T row, int run) {}
+}
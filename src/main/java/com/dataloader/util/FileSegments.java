@@ -0,0 +1,136 @@
+package com.dataloader.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a staged CSV file into byte ranges that can be parsed independently, and
+ * opens one range as a stream that starts with the file's header line.
+ * <p>
+ * Cuts are made at the first record end at or after each multiple of the target size.
+ * The file is scanned once, tracking double quotes, so a newline inside a quoted field
+ * is never taken for a record end; the same scan counts the records before each cut
+ * so a segment's row numbers continue those of the file.
+ */
+public final class FileSegments {
+
+    /** Bytes {@code [start, end)} of the file; {@code firstRow} data rows come before it. */
+    public record Range(long start, long end, long firstRow) {}
+
+    private static final int SCAN_BUFFER = 1024 * 1024;
+
+    private FileSegments() {
+    }
+
+    /** One range for the whole file when it is no larger than {@code targetBytes}. */
+    public static List<Range> split(Path file, long targetBytes) throws IOException {
+        long size = Files.size(file);
+        if (size <= targetBytes) return List.of(new Range(0, size, 0));
+
+        List<Range> ranges = new ArrayList<>();
+        long start = 0;
+        long nextCut = targetBytes;
+        long rows = 0;
+        long rowsAtStart = 0;
+        boolean header = true;     // the first record is the header, not a row
+        boolean inQuotes = false;
+        boolean lineHasContent = false;
+        long position = 0;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), SCAN_BUFFER)) {
+            byte[] buffer = new byte[SCAN_BUFFER];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++, position++) {
+                    byte b = buffer[i];
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        if (header) {
+                            header = false;
+                        } else if (lineHasContent) {
+                            rows++;
+                        }
+                        lineHasContent = false;
+                        long end = position + 1;
+                        if (end >= nextCut && end < size) {
+                            ranges.add(new Range(start, end, rowsAtStart));
+                            start = end;
+                            rowsAtStart = rows;
+                            nextCut = end + targetBytes;
+                        }
+                        continue;
+                    }
+                    if (b != '\r') lineHasContent = true;
+                }
+            }
+        }
+        ranges.add(new Range(start, size, rowsAtStart));
+        return ranges;
+    }
+
+    /**
+     * Stream of the header line followed by the range; a range starting at 0 already
+     * holds the header and is returned as is.
+     */
+    public static InputStream open(Path file, Range range) throws IOException {
+        InputStream body = slice(file, range.start(), range.end());
+        if (range.start() == 0) return body;
+        return new SequenceInputStream(new ByteArrayInputStream(readHeader(file)), body);
+    }
+
+    private static byte[] readHeader(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+            boolean inQuotes = false;
+            int b;
+            while ((b = in.read()) != -1) {
+                header.write(b);
+                if (b == '"') inQuotes = !inQuotes;
+                if (b == '\n' && !inQuotes) break;
+            }
+            return header.toByteArray();
+        }
+    }
+
+    private static InputStream slice(Path file, long start, long end) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(start);
+        InputStream in = Channels.newInputStream(channel);
+        return new InputStream() {
+            private long remaining = end - start;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = in.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) remaining -= n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.dataloader.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Re-chunks parsed rows so that a batch is only cut where the group key changes.
+ * Used for orders: every line of an order reaches the same batch as long as the
+ * input keeps an order's lines together (sorted or grouped). A batch therefore
+ * holds at least {@code batchSize} rows, plus the rest of the group in progress.
+ * The size may be a supplier, read once per incoming chunk, so it can shrink while
+ * rows stream. Call {@link #flush} once the input is exhausted.
+ */
+public class GroupBoundaryBatcher<T> implements Consumer<List<T>> {
+
+    private final IntSupplier batchSize;
+    private final Function<T, String> groupKey;
+    private final Consumer<List<T>> downstream;
+
+    private List<T> pending;
+    private String lastKey;
+
+    public GroupBoundaryBatcher(int batchSize, Function<T, String> groupKey, Consumer<List<T>> downstream) {
+        this(() -> batchSize, groupKey, downstream);
+    }
+
+    public GroupBoundaryBatcher(IntSupplier batchSize, Function<T, String> groupKey, Consumer<List<T>> downstream) {
+        this.batchSize = () -> Math.max(1, batchSize.getAsInt());
+        this.groupKey = groupKey;
+        this.downstream = downstream;
+        this.pending = new ArrayList<>(this.batchSize.getAsInt());
+    }
+
+    @Override
+    public void accept(List<T> rows) {
+        int limit = batchSize.getAsInt();
+        for (T row : rows) {
+            String key = keyOf(row);
+            if (pending.size() >= limit && !Objects.equals(key, lastKey)) {
+                flush();
+            }
+            pending.add(row);
+            lastKey = key;
+        }
+    }
+
+    public void flush() {
+        if (pending.isEmpty()) return;
+        downstream.accept(pending);
+        pending = new ArrayList<>();
+    }
+
+    private String keyOf(T row) {
+        String key = groupKey.apply(row);
+        return key != null ? key.trim() : null;
+    }
+}
@@ -6,6 +6,7 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.BiConsumer;
 
@@ -52,6 +53,26 @@ public class JdbcBatchInserter {
         return sumArray(counts);
     }
 
+    /**
+     * Execute an INSERT ... ON CONFLICT DO NOTHING batch and return the items the
+     * database did not insert (or did not report a count for), so the caller can
+     * retry them through the upsert path.
+     */
+    public <T> List<T> batchInsertCollectSkipped(String sql, List<T> items, BiConsumer<PreparedStatement, T> setter) {
+        if (items == null || items.isEmpty()) return List.of();
+
+        int[][] counts = jdbcTemplate.batchUpdate(sql, items, items.size(), (ps, item) -> setter.accept(ps, item));
+        List<T> skipped = new ArrayList<>();
+        int index = 0;
+        for (int[] batch : counts) {
+            for (int c : batch) {
+                if (c != 1) skipped.add(items.get(index));
+                index++;
+            }
+        }
+        return skipped;
+    }
+
     private int sumArray(int[][] counts) {
         int sum = 0;
         for (int[] batch : counts) {
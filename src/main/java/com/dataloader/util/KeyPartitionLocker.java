@@ -0,0 +1,109 @@
+package com.dataloader.util;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Coordinates concurrent upload jobs writing the same entity.
+ * Each batch takes a Postgres transaction-scoped advisory lock per distinct key hash,
+ * using the full 32-bit hash so that a batch of thousands of keys does not cover a
+ * bounded bucket space. Locks are always taken in ascending order. Two jobs with
+ * overlapping keys are serialized on the shared keys only; jobs on disjoint keys only
+ * meet on the rare hash collision and otherwise never wait on each other.
+ * <p>
+ * Advisory locks live in the shared lock table, which only holds about
+ * {@code max_locks_per_transaction * max_connections} entries. A batch with more than
+ * {@code app.write-lock.max-keys-per-transaction} distinct keys therefore takes one
+ * exclusive lock on its whole lock space instead; every key-locking batch holds that
+ * space lock shared, so the two kinds still exclude each other.
+ * Locks are released automatically when the surrounding transaction ends.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class KeyPartitionLocker {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.write-lock.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.write-lock.max-keys-per-transaction:512}")
+    private int maxKeysPerTransaction;
+
+    /** First key of the two-int advisory lock; keeps entities in separate lock spaces. */
+    public enum LockSpace {
+        CUSTOMERS(0x43555354),
+        PRODUCTS(0x50524f44),
+        ORDERS(0x4f524452);
+
+        private final int id;
+
+        LockSpace(int id) {
+            this.id = id;
+        }
+    }
+
+    // Single bigint key: a separate lock space from the two-int key locks
+    private static final String SPACE_LOCK_SHARED_SQL = "SELECT pg_advisory_xact_lock_shared(?::bigint)";
+    private static final String SPACE_LOCK_SQL = "SELECT pg_advisory_xact_lock(?::bigint)";
+
+    // Sorting again in SQL guarantees the acquisition order even if the planner reorders unnest
+    private static final String LOCK_SQL = """
+            SELECT pg_advisory_xact_lock(?, h)
+            FROM unnest(?::int[]) AS h
+            ORDER BY h
+            """;
+
+    /**
+     * Lock every key of the batch. Must be called inside the transaction that
+     * performs the writes.
+     */
+    public void lockKeys(LockSpace space, Collection<String> keys) {
+        if (!enabled || keys == null || keys.isEmpty()) return;
+
+        Integer[] lockIds = lockIds(keys);
+        if (lockIds.length == 0) return;
+
+        long start = System.nanoTime();
+        if (lockIds.length > maxKeysPerTransaction) {
+            jdbcTemplate.query(SPACE_LOCK_SQL, rs -> {}, space.id);
+            log.debug("{} keys exceed {} per transaction; acquired the {} space lock in {} ms",
+                    lockIds.length, maxKeysPerTransaction, space, (System.nanoTime() - start) / 1_000_000);
+            return;
+        }
+
+        jdbcTemplate.query(SPACE_LOCK_SHARED_SQL, rs -> {}, space.id);
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(LOCK_SQL);
+            ps.setInt(1, space.id);
+            ps.setArray(2, con.createArrayOf("int4", lockIds));
+            return ps;
+        }, rs -> {});
+
+        log.debug("Acquired {} {} key locks in {} ms",
+                lockIds.length, space, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /** Distinct key hashes in acquisition order. */
+    static Integer[] lockIds(Collection<String> keys) {
+        return keys.stream()
+                .filter(Objects::nonNull)
+                .map(KeyPartitionLocker::lockIdOf)
+                .distinct()
+                .sorted()
+                .toArray(Integer[]::new);
+    }
+
+    /** String.hashCode is specified by the JLS, so every node maps a key to the same lock. */
+    public static int lockIdOf(String key) {
+        return key.trim().hashCode();
+    }
+}
@@ -0,0 +1,84 @@
+package com.dataloader.util;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Layout of a landing directory: producers rename finished files into {@code <dir>/},
+ * a claimed file is renamed to {@code processing/<jobId>_<name>} and read from there in
+ * place, then renamed to {@code done/} or {@code failed/}. Every step is a rename within
+ * one directory tree, so no file is ever copied, and a claim is atomic: when several
+ * instances watch the same mount, exactly one of them gets each file.
+ */
+public final class LandingDirectory {
+
+    public static final String PROCESSING = "processing";
+    public static final String DONE       = "done";
+    public static final String FAILED     = "failed";
+
+    private LandingDirectory() {
+    }
+
+    public static void create(Path dir) throws IOException {
+        Files.createDirectories(dir.resolve(PROCESSING));
+        Files.createDirectories(dir.resolve(DONE));
+        Files.createDirectories(dir.resolve(FAILED));
+    }
+
+    /**
+     * Take {@code file} for {@code jobId}. The file's modification time is set to now just
+     * before the rename (a rename keeps it), so the age of a claim can be read off the file.
+     *
+     * @return where the file now is, or null when it was gone (claimed elsewhere)
+     * @throws AtomicMoveNotSupportedException when {@code processing/} is on another file system
+     */
+    public static Path claim(Path file, UUID jobId) throws IOException {
+        Path target = file.resolveSibling(PROCESSING).resolve(jobId + "_" + file.getFileName());
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            return Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Put a claimed file back where producers drop files, e.g. when no job could be created for it. */
+    public static void unclaim(Path claimed, String originalName) throws IOException {
+        Files.move(claimed, claimed.getParent().resolveSibling(originalName), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Move a claimed file to {@code done/} or {@code failed/}, keeping its job-prefixed name. */
+    public static Path retire(Path claimed, boolean loaded) throws IOException {
+        Path target = claimed.getParent().resolveSibling(loaded ? DONE : FAILED).resolve(claimed.getFileName());
+        return Files.move(claimed, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Job id of a file in {@code processing/}, or null when the name has no job prefix. */
+    public static UUID jobIdOf(Path claimed) {
+        String name = claimed.getFileName().toString();
+        int separator = name.indexOf('_');
+        if (separator != 36) return null;
+        try {
+            return UUID.fromString(name.substring(0, separator));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** When {@code claimed} was claimed, as stamped by {@link #claim}. */
+    public static Instant claimedAt(Path claimed) throws IOException {
+        return Files.getLastModifiedTime(claimed).toInstant();
+    }
+
+    /** Name the file had before it was claimed. */
+    public static String originalName(Path claimed) {
+        return claimed.getFileName().toString().substring(37);
+    }
+}
@@ -0,0 +1,168 @@
+package com.dataloader.util;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Copies a request body to a file with Servlet non-blocking I/O: the container calls
+ * {@link #onDataAvailable()} when bytes have arrived, whatever is there is read without
+ * blocking, hashed and handed to an {@link AsynchronousFileChannel}, and the thread goes
+ * back to the container. No thread waits on a slow client.
+ * <p>
+ * Reads happen only on container callbacks (the connector's input handling is not safe
+ * to drive from other threads). Two buffers alternate: one chunk is written while the
+ * next is read, and a callback only waits for the disk when the previous write has not
+ * finished by the time the next chunk is ready, i.e. when the disk is slower than the
+ * network. Memory per upload stays at two buffers.
+ * <p>
+ * The request must already be in async mode. {@link #result()} completes on a
+ * container thread with the file's size and SHA-256, or exceptionally (the partial file
+ * is left for the caller to delete). {@link #cancel} stops a read the caller has given up
+ * on, e.g. when the async request timed out.
+ */
+public final class NonBlockingBodyReader implements ReadListener {
+
+    public record Received(Path file, long bytes, String sha256) {}
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final ServletInputStream in;
+    private final AsynchronousFileChannel channel;
+    private final MessageDigest digest;
+    private final long maxBytes;
+    private final Path file;
+    private final byte[][] buffers = {new byte[BUFFER_SIZE], new byte[BUFFER_SIZE]};
+    private final CompletableFuture<Received> result = new CompletableFuture<>();
+    private int current;
+    private long received;
+
+    // The write in flight, if any
+    private Future<Integer> pending;
+    private ByteBuffer pendingChunk;
+    private long pendingPosition;
+
+    private NonBlockingBodyReader(ServletInputStream in, AsynchronousFileChannel channel, Path file, long maxBytes) {
+        this.in = in;
+        this.channel = channel;
+        this.file = file;
+        this.maxBytes = maxBytes;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Start reading the body of {@code async}'s request into {@code file} (created or
+     * truncated); file writes complete on {@code io}.
+     */
+    public static NonBlockingBodyReader read(AsyncContext async, Path file, long maxBytes, ExecutorService io)
+            throws IOException {
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, EnumSet.of(StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), io);
+        ServletInputStream in = async.getRequest().getInputStream();
+        NonBlockingBodyReader reader = new NonBlockingBodyReader(in, channel, file, maxBytes);
+        in.setReadListener(reader);
+        return reader;
+    }
+
+    public CompletableFuture<Received> result() {
+        return result;
+    }
+
+    /**
+     * Give up on the body: the file channel is closed and {@link #result()} fails with a
+     * {@link CancellationException}. No-op once the result is complete. Safe to call from
+     * any thread; a container callback still running sees the closed channel and stops.
+     */
+    public void cancel(String reason) {
+        fail(new CancellationException(reason));
+    }
+
+    @Override
+    public void onDataAvailable() {
+        if (result.isDone()) return;
+        try {
+            // Drain what has arrived; returning with isReady() false gets the next callback
+            while (in.isReady()) {
+                byte[] buffer = buffers[current];
+                int n = in.read(buffer);
+                if (n == -1) return;   // onAllDataRead follows
+                if (n == 0) continue;
+                if (received + n > maxBytes) throw new MaxUploadSizeExceededException(maxBytes);
+                digest.update(buffer, 0, n);
+                awaitPendingWrite();
+                startWrite(ByteBuffer.wrap(buffer, 0, n), received);
+                received += n;
+                current ^= 1;
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onAllDataRead() {
+        if (result.isDone()) return;
+        try {
+            awaitPendingWrite();
+            channel.close();
+            result.complete(new Received(file, received, HexFormat.of().formatHex(digest.digest())));
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    private void startWrite(ByteBuffer chunk, long position) {
+        pendingChunk = chunk;
+        pendingPosition = position;
+        pending = channel.write(chunk, position);
+    }
+
+    /** Wait for the write in flight, finishing it if the channel wrote only part of the chunk. */
+    private void awaitPendingWrite() throws IOException {
+        try {
+            while (pending != null) {
+                pendingPosition += pending.get();
+                pending = pendingChunk.hasRemaining() ? channel.write(pendingChunk, pendingPosition) : null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the upload", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write the upload", e.getCause());
+        }
+    }
+
+    private void fail(Throwable error) {
+        if (!result.completeExceptionally(error)) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // already failing
+        }
+    }
+}
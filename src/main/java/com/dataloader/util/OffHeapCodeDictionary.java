@@ -0,0 +1,374 @@
+package com.dataloader.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact {@code String -> long} dictionary for business-code to id lookups, held
+ * outside the Java heap so tens of millions of entries cost neither heap nor GC time.
+ * <p>
+ * The table is split into segments, each an open-addressing (linear probing) table
+ * of 16-byte slots {@code [int hash][int keyRef][long value]} plus an arena holding
+ * the UTF-8 key bytes as {@code [short length][bytes]}. Both live in direct buffers.
+ * <p>
+ * {@link #writeSnapshot} dumps the raw segments to a file; {@link #loadSnapshot} maps
+ * that file copy-on-write, so a restarted node has a full dictionary without
+ * rebuilding it and the file itself is never modified. The snapshot header carries an
+ * opaque origin string chosen by the caller, readable with {@link #readSnapshotOrigin}
+ * before anything is mapped, so a snapshot taken against other data can be rejected.
+ */
+public class OffHeapCodeDictionary {
+
+    /** Returned by {@link #get} for absent codes. */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private static final int SLOT_BYTES = 16;
+    private static final double MAX_LOAD = 0.6;
+    private static final int MAX_SLOTS_PER_SEGMENT = 1 << 26;   // keeps slot buffers < 2 GB
+    private static final int SNAPSHOT_MAGIC = 0x43444943;       // "CDIC"
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+     * @param segmentCount          power of two, at most 256
+     * @param initialSlotsPerSegment power of two
+     */
+    public OffHeapCodeDictionary(int segmentCount, int initialSlotsPerSegment) {
+        this(newSegments(segmentCount, initialSlotsPerSegment));
+    }
+
+    private OffHeapCodeDictionary(Segment[] segments) {
+        if (Integer.bitCount(segments.length) != 1 || segments.length > 256) {
+            throw new IllegalArgumentException("Segment count must be a power of two <= 256");
+        }
+        this.segments = segments;
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segments.length);
+    }
+
+    public long get(String code) {
+        byte[] key = code.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public void put(String code, long value) {
+        byte[] key = code.getBytes(StandardCharsets.UTF_8);
+        if (key.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Code too long for dictionary: " + key.length + " bytes");
+        }
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, value);
+    }
+
+    public long size() {
+        long total = 0;
+        for (Segment s : segments) total += s.size();
+        return total;
+    }
+
+    /** Bytes reserved outside the heap (direct or mapped) by slots and key arenas. */
+    public long offHeapBytes() {
+        long total = 0;
+        for (Segment s : segments) total += s.reservedBytes();
+        return total;
+    }
+
+    // -------------------------------------------------------
+    // SNAPSHOT
+    // -------------------------------------------------------
+
+    /** Write every segment to {@code file} atomically (temp file + move), tagged with {@code origin}. */
+    public void writeSnapshot(Path file, String origin) throws IOException {
+        byte[] originBytes = origin.getBytes(StandardCharsets.UTF_8);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16 + originBytes.length);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+                    .putInt(originBytes.length).put(originBytes)
+                    .putInt(segments.length).flip();
+            writeFully(ch, header);
+            for (Segment s : segments) {
+                s.writeTo(ch);
+            }
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Origin string the snapshot was written with. */
+    public static String readSnapshotOrigin(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readOrigin(ch, file);
+        }
+    }
+
+    /**
+     * Map a snapshot written by {@link #writeSnapshot}; the result accepts further puts.
+     * Fails when the snapshot was not written with {@code expectedOrigin}.
+     */
+    public static OffHeapCodeDictionary loadSnapshot(Path file, String expectedOrigin) throws IOException {
+        // MapMode.PRIVATE requires a writable channel even though the file is never written
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            String origin = readOrigin(ch, file);
+            if (!origin.equals(expectedOrigin)) {
+                throw new IOException("Dictionary snapshot " + file + " was taken from " + origin);
+            }
+            long position = 12 + origin.getBytes(StandardCharsets.UTF_8).length;
+            int segmentCount = readFully(ch, position, 4).getInt();
+            if (Integer.bitCount(segmentCount) != 1 || segmentCount > 256) {
+                throw new IOException("Corrupt dictionary snapshot: " + file);
+            }
+            position += 4;
+            Segment[] segments = new Segment[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                ByteBuffer meta = readFully(ch, position, 12);
+                int capacity = meta.getInt();
+                int size = meta.getInt();
+                int arenaUsed = meta.getInt();
+                position += 12;
+
+                // PRIVATE = copy-on-write: inserts after loading never touch the file
+                ByteBuffer slots = ch.map(FileChannel.MapMode.PRIVATE, position, (long) capacity * SLOT_BYTES);
+                position += (long) capacity * SLOT_BYTES;
+                ByteBuffer arena = arenaUsed > 0
+                        ? ch.map(FileChannel.MapMode.PRIVATE, position, arenaUsed)
+                        : ByteBuffer.allocateDirect(1024);
+                position += arenaUsed;
+
+                segments[i] = new Segment(slots, capacity, size, arena, arenaUsed);
+            }
+            return new OffHeapCodeDictionary(segments);
+        }
+    }
+
+    // -------------------------------------------------------
+    // INTERNALS
+    // -------------------------------------------------------
+    private Segment segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private static Segment[] newSegments(int segmentCount, int initialSlots) {
+        int slots = Integer.highestOneBit(Math.max(16, initialSlots));
+        Segment[] result = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            result[i] = new Segment(ByteBuffer.allocateDirect(slots * SLOT_BYTES), slots, 0,
+                    ByteBuffer.allocateDirect(slots * 16), 0);
+        }
+        return result;
+    }
+
+    // Murmur3 32-bit over the key bytes; the segment uses the high bits, the slot the low bits
+    private static int hash(byte[] key) {
+        int h = 0x9747B28C;
+        int i = 0;
+        for (; i + 4 <= key.length; i += 4) {
+            int k = (key[i] & 0xFF) | (key[i + 1] & 0xFF) << 8 | (key[i + 2] & 0xFF) << 16 | (key[i + 3] & 0xFF) << 24;
+            k *= 0xCC9E2D51;
+            k = Integer.rotateLeft(k, 15);
+            k *= 0x1B873593;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xE6546B64;
+        }
+        int k = 0;
+        switch (key.length & 3) {
+            case 3: k ^= (key[i + 2] & 0xFF) << 16;
+            case 2: k ^= (key[i + 1] & 0xFF) << 8;
+            case 1: k ^= (key[i] & 0xFF);
+                k *= 0xCC9E2D51;
+                k = Integer.rotateLeft(k, 15);
+                k *= 0x1B873593;
+                h ^= k;
+        }
+        h ^= key.length;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static String readOrigin(FileChannel ch, Path file) throws IOException {
+        ByteBuffer header = readFully(ch, 0, 12);
+        if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Not a dictionary snapshot: " + file);
+        }
+        int length = header.getInt();
+        if (length < 0 || length > Short.MAX_VALUE) {
+            throw new IOException("Corrupt dictionary snapshot: " + file);
+        }
+        return StandardCharsets.UTF_8.decode(readFully(ch, 12, length)).toString();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) ch.write(buffer);
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (ch.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated dictionary snapshot");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static final class Segment {
+
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer slots;
+        private int capacity;
+        private int size;
+        private ByteBuffer arena;
+        private int arenaUsed;
+
+        Segment(ByteBuffer slots, int capacity, int size, ByteBuffer arena, int arenaUsed) {
+            this.slots = slots;
+            this.capacity = capacity;
+            this.size = size;
+            this.arena = arena;
+            this.arenaUsed = arenaUsed;
+        }
+
+        long get(byte[] key, int hash) {
+            long stamp = lock.readLock();
+            try {
+                int index = probe(key, hash);
+                return index >= 0 ? slots.getLong(index * SLOT_BYTES + 8) : MISSING;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void put(byte[] key, int hash, long value) {
+            long stamp = lock.writeLock();
+            try {
+                int index = probe(key, hash);
+                if (index >= 0) {
+                    slots.putLong(index * SLOT_BYTES + 8, value);
+                    return;
+                }
+                if (size + 1 > capacity * MAX_LOAD) {
+                    resize();
+                    index = probe(key, hash);
+                }
+                int slot = -index - 1;
+                int keyOffset = appendKey(key);
+                int base = slot * SLOT_BYTES;
+                slots.putInt(base, hash);
+                slots.putInt(base + 4, keyOffset + 1);   // 0 marks an empty slot
+                slots.putLong(base + 8, value);
+                size++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long reservedBytes() {
+            long stamp = lock.readLock();
+            try {
+                return (long) slots.capacity() + arena.capacity();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void writeTo(FileChannel ch) throws IOException {
+            long stamp = lock.readLock();
+            try {
+                ByteBuffer meta = ByteBuffer.allocate(12);
+                meta.putInt(capacity).putInt(size).putInt(arenaUsed).flip();
+                writeFully(ch, meta);
+                writeFully(ch, slots.duplicate().clear());
+                writeFully(ch, arena.duplicate().clear().limit(arenaUsed));
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /** Slot index of {@code key}, or {@code -(insertionSlot) - 1} when absent. */
+        private int probe(byte[] key, int hash) {
+            int mask = capacity - 1;
+            int i = hash & mask;
+            while (true) {
+                int base = i * SLOT_BYTES;
+                int ref = slots.getInt(base + 4);
+                if (ref == 0) return -i - 1;
+                if (slots.getInt(base) == hash && keyEquals(ref - 1, key)) return i;
+                i = (i + 1) & mask;
+            }
+        }
+
+        private boolean keyEquals(int offset, byte[] key) {
+            int length = arena.getShort(offset);
+            if (length != key.length) return false;
+            for (int j = 0; j < length; j++) {
+                if (arena.get(offset + 2 + j) != key[j]) return false;
+            }
+            return true;
+        }
+
+        private int appendKey(byte[] key) {
+            int needed = 2 + key.length;
+            if ((long) arenaUsed + needed > arena.capacity()) {
+                long grown = Math.max((long) arena.capacity() * 2, (long) arenaUsed + needed);
+                if (grown > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Dictionary segment key arena is full");
+                }
+                ByteBuffer bigger = ByteBuffer.allocateDirect((int) grown);
+                bigger.put(0, arena, 0, arenaUsed);
+                arena = bigger;
+            }
+            int offset = arenaUsed;
+            arena.putShort(offset, (short) key.length);
+            arena.put(offset + 2, key);
+            arenaUsed += needed;
+            return offset;
+        }
+
+        private void resize() {
+            if (capacity >= MAX_SLOTS_PER_SEGMENT) {
+                throw new IllegalStateException("Dictionary segment is full");
+            }
+            int newCapacity = capacity * 2;
+            ByteBuffer newSlots = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+            int mask = newCapacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                int base = i * SLOT_BYTES;
+                int ref = slots.getInt(base + 4);
+                if (ref == 0) continue;
+                int hash = slots.getInt(base);
+                int j = hash & mask;
+                while (newSlots.getInt(j * SLOT_BYTES + 4) != 0) j = (j + 1) & mask;
+                int target = j * SLOT_BYTES;
+                newSlots.putInt(target, hash);
+                newSlots.putInt(target + 4, ref);
+                newSlots.putLong(target + 8, slots.getLong(base + 8));
+            }
+            slots = newSlots;
+            capacity = newCapacity;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.dataloader.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Diff of incoming order lines against the stored lines of the same orders. A line is
+ * identified by its order and product, so an order whose rows arrive in several batches
+ * adds to its lines instead of overwriting them. Stored lines missing from the incoming
+ * ones are only removed for orders the caller knows to be complete in this batch.
+ */
+public class OrderLineDiff {
+
+    public record Line(long orderId, long productId, int quantity, BigDecimal unitPrice, BigDecimal discount) {
+
+        boolean sameAs(Line stored) {
+            return quantity == stored.quantity
+                    && unitPrice.compareTo(stored.unitPrice) == 0
+                    && discount.compareTo(stored.discount) == 0;
+        }
+    }
+
+    private record Key(long orderId, long productId) {
+
+        static Key of(Line line) {
+            return new Key(line.orderId(), line.productId());
+        }
+    }
+
+    private final List<Line> writes;
+    private final List<Line> removals;
+
+    private OrderLineDiff(List<Line> writes, List<Line> removals) {
+        this.writes = writes;
+        this.removals = removals;
+    }
+
+    /**
+     * @param incoming       lines of this batch; a product repeated within an order keeps its last line
+     * @param stored         stored lines of the batch's orders
+     * @param completeOrders orders whose every line is in {@code incoming}
+     */
+    public static OrderLineDiff of(Collection<Line> incoming, Collection<Line> stored, Set<Long> completeOrders) {
+        Map<Key, Line> latest = new LinkedHashMap<>();
+        for (Line line : incoming) {
+            latest.remove(Key.of(line));
+            latest.put(Key.of(line), line);
+        }
+        Map<Key, Line> current = new HashMap<>();
+        for (Line line : stored) {
+            current.put(Key.of(line), line);
+        }
+
+        List<Line> writes = new ArrayList<>();
+        for (Map.Entry<Key, Line> entry : latest.entrySet()) {
+            Line before = current.get(entry.getKey());
+            if (before == null || !entry.getValue().sameAs(before)) writes.add(entry.getValue());
+        }
+        List<Line> removals = new ArrayList<>();
+        for (Map.Entry<Key, Line> entry : current.entrySet()) {
+            if (completeOrders.contains(entry.getKey().orderId()) && !latest.containsKey(entry.getKey())) {
+                removals.add(entry.getValue());
+            }
+        }
+        return new OrderLineDiff(writes, removals);
+    }
+
+    /** Added or changed lines. */
+    public List<Line> writes() {
+        return writes;
+    }
+
+    /** Stored lines no longer part of their complete order. */
+    public List<Line> removals() {
+        return removals;
+    }
+}
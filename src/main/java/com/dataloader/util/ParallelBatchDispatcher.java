@@ -0,0 +1,77 @@
+package com.dataloader.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the batches of one job on up to {@code lanes} writer threads.
+ * The parser thread blocks in {@link #submit} while every lane is busy, so at most
+ * {@code lanes} parsed batches are held in memory. With a single lane batches run
+ * inline on the caller thread, exactly as before.
+ * The first batch failure is rethrown from the next {@link #submit} or from
+ * {@link #awaitCompletion}.
+ */
+public class ParallelBatchDispatcher {
+
+    private final Executor executor;
+    private final int lanes;
+    private final Semaphore permits;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public ParallelBatchDispatcher(Executor executor, int lanes) {
+        this.executor = executor;
+        this.lanes = Math.max(1, lanes);
+        this.permits = new Semaphore(this.lanes);
+    }
+
+    public void submit(Runnable batchTask) {
+        rethrowFailure();
+        if (lanes == 1) {
+            batchTask.run();
+            return;
+        }
+
+        acquire(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    batchTask.run();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Wait for every in-flight batch, then surface the first failure if any. */
+    public void awaitCompletion() {
+        if (lanes > 1) {
+            acquire(lanes);
+            permits.release(lanes);
+        }
+        rethrowFailure();
+    }
+
+    private void acquire(int count) {
+        try {
+            permits.acquire(count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a writer lane", e);
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable t = failure.get();
+        if (t == null) return;
+        if (t instanceof RuntimeException re) throw re;
+        if (t instanceof Error err) throw err;
+        throw new IllegalStateException(t);
+    }
+}
@@ -0,0 +1,94 @@
+package com.dataloader.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only disk buffer for rows that have to wait, e.g. bundle order rows whose
+ * customer or product is still being loaded. Rows are written one JSON document per
+ * line, so parked rows cost no heap however many there are. Appends are thread-safe;
+ * {@link #drainTo} replays them in append order. The file is deleted by {@link #close}.
+ */
+public class RowSpillBuffer<T> implements Closeable {
+
+    private final Class<T> type;
+    private final ObjectMapper objectMapper;
+    private final Path spillDir;
+
+    private Path file;
+    private SequenceWriter writer;
+    private long rows;
+
+    public RowSpillBuffer(Class<T> type, ObjectMapper objectMapper, Path spillDir) {
+        this.type = type;
+        this.objectMapper = objectMapper;
+        this.spillDir = spillDir;
+    }
+
+    /** Batch consumer; write failures surface as {@link UncheckedIOException}. */
+    public synchronized void append(List<T> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            if (writer == null) {
+                Files.createDirectories(spillDir);
+                file = Files.createTempFile(spillDir, "parked-", ".ndjson");
+                writer = objectMapper.writer().withRootValueSeparator("\n")
+                        .writeValues(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            }
+            writer.writeAll(batch);
+            rows += batch.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to park rows", e);
+        }
+    }
+
+    public synchronized long size() {
+        return rows;
+    }
+
+    /** Replay every parked row in append order, {@code batchSize} rows at a time. */
+    public synchronized void drainTo(int batchSize, Consumer<List<T>> consumer) throws IOException {
+        if (writer == null) return;
+        writer.close();
+        writer = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             MappingIterator<T> it = objectMapper.readerFor(type).readValues(reader)) {
+            List<T> batch = new ArrayList<>(batchSize);
+            while (it.hasNextValue()) {
+                batch.add(it.nextValue());
+                if (batch.size() >= batchSize) {
+                    consumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) consumer.accept(batch);
+        }
+        Files.deleteIfExists(file);
+        file = null;
+        rows = 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (writer != null) writer.close();
+            if (file != null) Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+        writer = null;
+        file = null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.dataloader.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every task on its own virtual thread, with at most {@code permits} tasks
+ * running at once. The permit is taken by the new virtual thread, not the caller,
+ * so {@link #execute} never blocks and a waiting task costs a parked virtual thread
+ * rather than a queue slot. {@link #close} waits for running tasks, like
+ * {@code ThreadPoolTaskExecutor.setWaitForTasksToCompleteOnShutdown}.
+ */
+@Slf4j
+public class VirtualThreadExecutor implements Executor, AutoCloseable {
+
+    private final Semaphore permits;
+    private final Thread.Builder builder;
+    private final long awaitTerminationMillis;
+    private final Set<Thread> running = ConcurrentHashMap.newKeySet();
+
+    public VirtualThreadExecutor(String threadNamePrefix, int permits, long awaitTerminationMillis) {
+        this.permits = new Semaphore(Math.max(1, permits));
+        this.builder = Thread.ofVirtual().name(threadNamePrefix, 1);
+        this.awaitTerminationMillis = awaitTerminationMillis;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        builder.start(() -> {
+            running.add(Thread.currentThread());
+            try {
+                permits.acquire();
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.remove(Thread.currentThread());
+            }
+        });
+    }
+
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awaitTerminationMillis);
+        for (Thread thread : Set.copyOf(running)) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remaining <= 0 || !thread.join(Duration.ofMillis(remaining))) {
+                    log.warn("Virtual thread {} still running at shutdown", thread.getName());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+-- ============================================================
+-- V10: Landing-directory jobs
+-- A file dropped into a watched landing directory is processed in
+-- place instead of being copied to the staging directory; its path
+-- is kept here so the job can be resumed after a restart.
+-- ============================================================
+
+ALTER TABLE upload_jobs
+    ADD COLUMN IF NOT EXISTS source_path VARCHAR(1000);
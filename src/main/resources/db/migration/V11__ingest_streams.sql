@@ -0,0 +1,16 @@
+-- ============================================================
+-- V11: Continuous NDJSON ingestion streams
+-- One row per client-named stream. committed_offset counts the
+-- records of the stream that have been written (or rejected); a
+-- producer that lost its connection resumes from there.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS ingest_streams (
+    stream_id        VARCHAR(200) PRIMARY KEY,
+    data_type        VARCHAR(20)  NOT NULL,
+    committed_offset BIGINT       NOT NULL DEFAULT 0,
+    processed_rows   BIGINT       NOT NULL DEFAULT 0,
+    failed_rows      BIGINT       NOT NULL DEFAULT 0,
+    created_at       TIMESTAMP    NOT NULL DEFAULT NOW(),
+    updated_at       TIMESTAMP    NOT NULL DEFAULT NOW()
+);
@@ -0,0 +1,16 @@
+-- ============================================================
+-- V12: Job cancellation and deadlines
+-- A job can be cancelled (DELETE /jobs/{jobId}) or given a
+-- deadline; either way it ends as CANCELLED with the counters of
+-- what was committed. A cancelled job frees its Idempotency-Key,
+-- like a failed one.
+-- ============================================================
+
+ALTER TABLE upload_jobs
+    ADD COLUMN IF NOT EXISTS deadline_at TIMESTAMP;
+
+DROP INDEX IF EXISTS uq_upload_jobs_idempotency_key;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_upload_jobs_idempotency_key
+    ON upload_jobs(idempotency_key)
+    WHERE idempotency_key IS NOT NULL AND status NOT IN ('FAILED', 'CANCELLED');
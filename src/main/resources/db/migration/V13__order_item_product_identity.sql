@@ -0,0 +1,20 @@
+-- ============================================================
+-- V13: Order lines are identified by (order_id, product_id)
+-- A line's position only means something within one batch: an
+-- order split over several batches, stream flushes or uploads was
+-- renumbered from 1 each time and overwrote its earlier lines.
+-- The product a line refers to is the same in every batch.
+-- ============================================================
+
+-- Keep the latest line of every (order, product) pair
+DELETE FROM order_items oi
+USING order_items newer
+WHERE newer.order_id = oi.order_id
+  AND newer.product_id = oi.product_id
+  AND newer.id > oi.id;
+
+DROP INDEX IF EXISTS uq_order_items_order_line;
+
+ALTER TABLE order_items DROP COLUMN IF EXISTS line_number;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_order_items_order_product ON order_items(order_id, product_id);
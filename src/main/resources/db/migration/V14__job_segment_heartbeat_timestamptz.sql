@@ -0,0 +1,10 @@
+-- ============================================================
+-- V14: Lease heartbeats as absolute instants
+-- heartbeat_at is written and compared with now() only, but as a
+-- TIMESTAMP it held the writer session's local time; nodes whose
+-- sessions run in different time zones saw live leases as expired
+-- (or dead ones as live). TIMESTAMPTZ stores the instant itself.
+-- ============================================================
+
+ALTER TABLE job_segments
+    ALTER COLUMN heartbeat_at TYPE TIMESTAMPTZ;
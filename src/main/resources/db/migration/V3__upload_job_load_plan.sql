@@ -0,0 +1,13 @@
+-- ============================================================
+-- V3: Load plan audit columns on upload_jobs
+-- The planner records its decision and the inputs it was based on
+-- ============================================================
+
+ALTER TABLE upload_jobs
+    ADD COLUMN IF NOT EXISTS data_type           VARCHAR(20),
+    ADD COLUMN IF NOT EXISTS file_size_bytes     BIGINT,
+    ADD COLUMN IF NOT EXISTS estimated_rows      BIGINT,
+    ADD COLUMN IF NOT EXISTS load_strategy       VARCHAR(30),
+    ADD COLUMN IF NOT EXISTS planned_batch_size  INTEGER,
+    ADD COLUMN IF NOT EXISTS planned_parallelism INTEGER,
+    ADD COLUMN IF NOT EXISTS plan_details        TEXT;
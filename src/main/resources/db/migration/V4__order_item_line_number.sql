@@ -0,0 +1,22 @@
+-- ============================================================
+-- V4: Line identity for order_items
+-- (order_id, line_number) lets re-uploads diff incoming lines against
+-- stored ones instead of inserting every line again
+-- ============================================================
+
+ALTER TABLE order_items ADD COLUMN IF NOT EXISTS line_number INTEGER;
+
+-- Existing lines are numbered in insertion order; duplicates left by earlier
+-- re-uploads get numbers past the real line count and are removed by the next sync
+UPDATE order_items oi
+SET line_number = numbered.rn
+FROM (
+    SELECT id, ROW_NUMBER() OVER (PARTITION BY order_id ORDER BY id) AS rn
+    FROM order_items
+) numbered
+WHERE oi.id = numbered.id
+  AND oi.line_number IS NULL;
+
+ALTER TABLE order_items ALTER COLUMN line_number SET NOT NULL;
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_order_items_order_line ON order_items(order_id, line_number);
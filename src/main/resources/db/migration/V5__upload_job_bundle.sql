@@ -0,0 +1,8 @@
+-- ============================================================
+-- V5: Bundle uploads
+-- Jobs created from one multi-entity bundle share a bundle_id
+-- ============================================================
+
+ALTER TABLE upload_jobs ADD COLUMN IF NOT EXISTS bundle_id UUID;
+
+CREATE INDEX IF NOT EXISTS idx_upload_jobs_bundle ON upload_jobs(bundle_id) WHERE bundle_id IS NOT NULL;
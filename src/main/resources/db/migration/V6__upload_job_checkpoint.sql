@@ -0,0 +1,15 @@
+-- ============================================================
+-- V6: Job checkpoints
+-- Rows of the file (in processing order) whose batches have all
+-- committed, with the ok/failed counters at that point. A job
+-- interrupted by a crash or redeploy resumes after checkpoint_rows.
+-- ============================================================
+
+ALTER TABLE upload_jobs
+    ADD COLUMN IF NOT EXISTS checkpoint_rows           BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS checkpoint_processed_rows BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS checkpoint_failed_rows    BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS checkpointed_at           TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_upload_jobs_unfinished
+    ON upload_jobs(status) WHERE status IN ('PENDING', 'PROCESSING');
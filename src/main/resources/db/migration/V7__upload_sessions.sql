@@ -0,0 +1,30 @@
+-- ============================================================
+-- V7: Chunked upload sessions
+-- A large file is sent as numbered chunks (any order, in parallel),
+-- each recorded with its checksum once it is on disk
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS upload_sessions (
+    id           BIGSERIAL    PRIMARY KEY,
+    session_id   UUID         NOT NULL UNIQUE,
+    job_id       UUID         NOT NULL REFERENCES upload_jobs(job_id),
+    total_size   BIGINT       NOT NULL,
+    chunk_size   INTEGER      NOT NULL,
+    chunk_count  INTEGER      NOT NULL,
+    submitter    VARCHAR(100) NOT NULL,
+    priority     VARCHAR(10)  NOT NULL,
+    status       VARCHAR(20)  NOT NULL DEFAULT 'OPEN',
+    created_at   TIMESTAMP    NOT NULL DEFAULT NOW(),
+    updated_at   TIMESTAMP    NOT NULL DEFAULT NOW()
+);
+
+CREATE INDEX IF NOT EXISTS idx_upload_sessions_open ON upload_sessions(updated_at) WHERE status = 'OPEN';
+
+CREATE TABLE IF NOT EXISTS upload_session_chunks (
+    session_id   UUID         NOT NULL REFERENCES upload_sessions(session_id) ON DELETE CASCADE,
+    chunk_index  INTEGER      NOT NULL,
+    size_bytes   BIGINT       NOT NULL,
+    sha256       CHAR(64)     NOT NULL,
+    received_at  TIMESTAMP    NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (session_id, chunk_index)
+);
@@ -0,0 +1,34 @@
+-- ============================================================
+-- V8: Cluster work queue
+-- A staged file is split into byte-range segments that any node
+-- claims with FOR UPDATE SKIP LOCKED. The owner refreshes
+-- heartbeat_at while it works; a segment whose heartbeat is older
+-- than the lease timeout is claimed again and resumes from its
+-- checkpoint.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS job_segments (
+    id                        BIGSERIAL    PRIMARY KEY,
+    job_id                    UUID         NOT NULL REFERENCES upload_jobs(job_id) ON DELETE CASCADE,
+    segment_index             INTEGER      NOT NULL,
+    segment_count             INTEGER      NOT NULL,
+    start_offset              BIGINT       NOT NULL,
+    end_offset                BIGINT       NOT NULL,
+    first_row                 BIGINT       NOT NULL DEFAULT 0,
+    submitter                 VARCHAR(100) NOT NULL,
+    priority                  SMALLINT     NOT NULL,
+    start_after               UUID[],
+    status                    VARCHAR(20)  NOT NULL DEFAULT 'PENDING',
+    owner                     VARCHAR(200),
+    heartbeat_at              TIMESTAMP,
+    attempts                  INTEGER      NOT NULL DEFAULT 0,
+    checkpoint_rows           BIGINT       NOT NULL DEFAULT 0,
+    checkpoint_processed_rows BIGINT       NOT NULL DEFAULT 0,
+    checkpoint_failed_rows    BIGINT       NOT NULL DEFAULT 0,
+    created_at                TIMESTAMP    NOT NULL DEFAULT NOW(),
+    completed_at              TIMESTAMP,
+    UNIQUE (job_id, segment_index)
+);
+
+CREATE INDEX IF NOT EXISTS idx_job_segments_claimable
+    ON job_segments(priority, id) WHERE status IN ('PENDING', 'CLAIMED');
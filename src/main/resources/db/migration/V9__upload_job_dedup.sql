@@ -0,0 +1,16 @@
+-- ============================================================
+-- V9: Duplicate uploads
+-- SHA-256 of the staged file, so an identical file already loaded
+-- for the same data type is not processed again, and the client's
+-- Idempotency-Key. A key names one job until that job fails.
+-- ============================================================
+
+ALTER TABLE upload_jobs
+    ADD COLUMN IF NOT EXISTS content_sha256  VARCHAR(64),
+    ADD COLUMN IF NOT EXISTS idempotency_key VARCHAR(200);
+
+CREATE UNIQUE INDEX IF NOT EXISTS uq_upload_jobs_idempotency_key
+    ON upload_jobs(idempotency_key) WHERE idempotency_key IS NOT NULL AND status <> 'FAILED';
+
+CREATE INDEX IF NOT EXISTS idx_upload_jobs_completed_content
+    ON upload_jobs(data_type, content_sha256) WHERE status = 'COMPLETED';
@@ -0,0 +1,54 @@
+package com.dataloader.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+	@Test
+	void neverReportsAnInsertedKeyAsAbsent() {
+		BloomFilter filter = BloomFilter.create(10_000, 0.01, Long.MAX_VALUE);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put("CUST-" + i);
+		}
+
+		for (int i = 0; i < 10_000; i++) {
+			assertTrue(filter.mightContain("CUST-" + i), "false negative for CUST-" + i);
+		}
+		assertEquals(10_000, filter.insertions());
+	}
+
+	@Test
+	void falsePositiveRateStaysNearTheTarget() {
+		BloomFilter filter = BloomFilter.create(10_000, 0.01, Long.MAX_VALUE);
+		for (int i = 0; i < 10_000; i++) {
+			filter.put("CUST-" + i);
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 100_000; i++) {
+			if (filter.mightContain("PROD-" + i)) falsePositives++;
+		}
+		assertTrue(falsePositives < 2_000, "false-positive rate " + falsePositives / 100_000.0);
+		assertTrue(filter.expectedFpp() < 0.02, "expected fpp " + filter.expectedFpp());
+	}
+
+	@Test
+	void emptyFilterContainsNothing() {
+		BloomFilter filter = BloomFilter.create(1_000, 0.01, Long.MAX_VALUE);
+
+		assertFalse(filter.mightContain("CUST-1"));
+		assertEquals(0.0, filter.expectedFpp(), 0.0);
+	}
+
+	@Test
+	void maxBytesCapsTheBitArray() {
+		BloomFilter filter = BloomFilter.create(10_000_000, 0.01, 1024);
+
+		assertEquals(1024, filter.sizeInBytes());
+		assertTrue(filter.hashFunctions() >= 1);
+	}
+}
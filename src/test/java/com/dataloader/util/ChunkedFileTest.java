@@ -0,0 +1,137 @@
+package com.dataloader.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedFileTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void assemblesChunksArrivingOutOfOrder() throws IOException {
+		byte[] content = content(25);
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), content.length, 10);
+		assertEquals(3, file.getChunkCount());
+		assertEquals(5, file.expectedSize(2));
+
+		put(file, content, 2);
+		put(file, content, 0);
+		assertEquals(List.of(1), file.missing());
+		assertEquals(10, file.contiguousBytes());
+		assertFalse(file.isComplete());
+
+		put(file, content, 1);
+		assertTrue(file.isComplete());
+		assertEquals(25, file.contiguousBytes());
+		assertArrayEquals(content, Files.readAllBytes(file.getPath()));
+	}
+
+	@Test
+	void markingAChunkTwiceIsReportedOnce() throws IOException {
+		byte[] content = content(10);
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), content.length, 10);
+		file.write(0, new ByteArrayInputStream(content), null);
+
+		assertTrue(file.markReceived(0));
+		assertFalse(file.markReceived(0));
+	}
+
+	@Test
+	void rejectsIndexesOutsideTheFile() {
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), 25, 10);
+
+		assertThrows(IllegalArgumentException.class, () -> file.expectedSize(-1));
+		assertThrows(IllegalArgumentException.class, () -> file.expectedSize(3));
+		assertThrows(IllegalArgumentException.class, () -> file.isReceived(-1));
+		assertThrows(IllegalArgumentException.class, () -> file.markReceived(3));
+	}
+
+	@Test
+	void rejectsWrongSizeAndChecksum() {
+		byte[] content = content(25);
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), content.length, 10);
+
+		assertThrows(IllegalArgumentException.class,
+				() -> file.write(0, new ByteArrayInputStream(content, 0, 9), null));
+		assertThrows(IllegalArgumentException.class,
+				() -> file.write(0, new ByteArrayInputStream(content, 0, 11), null));
+		assertThrows(IllegalArgumentException.class,
+				() -> file.write(0, new ByteArrayInputStream(content, 0, 10), "00"));
+		assertFalse(file.isReceived(0));
+	}
+
+	@Test
+	void prefixStreamBlocksAtTheFirstMissingChunk() throws Exception {
+		byte[] content = content(30);
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), content.length, 10);
+		put(file, content, 0);
+		put(file, content, 2);
+
+		try (InputStream in = file.openPrefixStream()) {
+			CompletableFuture<byte[]> reader = CompletableFuture.supplyAsync(() -> {
+				try {
+					return in.readAllBytes();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			assertThrows(TimeoutException.class, () -> reader.get(200, TimeUnit.MILLISECONDS));
+
+			put(file, content, 1);
+			assertArrayEquals(content, reader.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	void failReleasesABlockedReader() throws Exception {
+		byte[] content = content(20);
+		ChunkedFile file = new ChunkedFile(dir.resolve("upload.csv"), content.length, 10);
+		put(file, content, 0);
+
+		try (InputStream in = file.openPrefixStream()) {
+			assertEquals(10, in.read(new byte[64]));
+			CompletableFuture<Integer> reader = CompletableFuture.supplyAsync(() -> {
+				try {
+					return in.read(new byte[64]);
+				} catch (IOException e) {
+					return -2;
+				}
+			});
+			assertThrows(TimeoutException.class, () -> reader.get(200, TimeUnit.MILLISECONDS));
+
+			file.fail(new IOException("session expired"));
+			assertEquals(Integer.valueOf(-2), reader.get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	private static void put(ChunkedFile file, byte[] content, int index) throws IOException {
+		int from = index * file.getChunkSize();
+		byte[] chunk = Arrays.copyOfRange(content, from, (int) (from + file.expectedSize(index)));
+		file.write(index, new ByteArrayInputStream(chunk), null);
+		file.markReceived(index);
+	}
+
+	private static byte[] content(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) bytes[i] = (byte) ('a' + i % 26);
+		return bytes;
+	}
+}
@@ -0,0 +1,49 @@
+package com.dataloader.util;
+
+import com.dataloader.util.CommitWatermark.Position;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CommitWatermarkTest {
+
+	@Test
+	void advancesOnInOrderCompletion() {
+		CommitWatermark watermark = new CommitWatermark(new Position(0, 0, 0));
+
+		assertEquals(new Position(100, 98, 2), watermark.complete(0, 100, 98, 2));
+		assertEquals(new Position(150, 148, 2), watermark.complete(100, 50, 50, 0));
+	}
+
+	@Test
+	void holdsBackUntilTheGapIsFilled() {
+		CommitWatermark watermark = new CommitWatermark(new Position(0, 0, 0));
+
+		assertNull(watermark.complete(200, 100, 100, 0));
+		assertNull(watermark.complete(100, 100, 99, 1));
+		assertEquals(new Position(0, 0, 0), watermark.position());
+
+		// The first batch releases everything queued behind it at once
+		assertEquals(new Position(300, 297, 3), watermark.complete(0, 100, 98, 2));
+		assertEquals(new Position(300, 297, 3), watermark.position());
+	}
+
+	@Test
+	void onlyAdvancesAsFarAsTheContiguousPrefix() {
+		CommitWatermark watermark = new CommitWatermark(new Position(0, 0, 0));
+
+		assertNull(watermark.complete(300, 100, 100, 0));
+		assertEquals(new Position(100, 100, 0), watermark.complete(0, 100, 100, 0));
+		assertEquals(new Position(200, 200, 0), watermark.complete(100, 100, 100, 0));
+		assertEquals(new Position(400, 400, 0), watermark.complete(200, 100, 100, 0));
+	}
+
+	@Test
+	void resumesFromARestoredPosition() {
+		CommitWatermark watermark = new CommitWatermark(new Position(5_000, 4_990, 10));
+
+		assertNull(watermark.complete(5_500, 500, 500, 0));
+		assertEquals(new Position(6_000, 5_989, 11), watermark.complete(5_000, 500, 499, 1));
+	}
+}
@@ -0,0 +1,91 @@
+package com.dataloader.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExternalMergeSorterTest {
+
+	record Line(String order, int seq) {}
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void sortsInMemoryWithoutSpilling() throws IOException {
+		try (ExternalMergeSorter<Line> sorter = sorter(100)) {
+			sorter.addAll(List.of(new Line("B", 1), new Line("A", 2), new Line("B", 3), new Line("A", 4)));
+
+			List<Line> out = drain(sorter, 10);
+
+			assertEquals(List.of(new Line("A", 2), new Line("A", 4), new Line("B", 1), new Line("B", 3)), out);
+			assertEquals(0, runFiles());
+		}
+	}
+
+	@Test
+	void mergedRunsAreSortedAndStable() throws IOException {
+		List<Line> input = new ArrayList<>();
+		for (int i = 0; i < 1_000; i++) {
+			input.add(new Line("ORD-" + (i * 7919 % 50), i));
+		}
+
+		try (ExternalMergeSorter<Line> sorter = sorter(64)) {
+			for (int start = 0; start < input.size(); start += 100) {
+				sorter.addAll(input.subList(start, start + 100));
+			}
+			assertTrue(runFiles() > 1);
+
+			List<Line> out = drain(sorter, 37);
+
+			List<Line> expected = new ArrayList<>(input);
+			expected.sort(Comparator.comparing(Line::order));   // List.sort is stable
+			assertEquals(expected, out);
+		}
+		assertEquals(0, runFiles());
+	}
+
+	@Test
+	void emitsBatchesOfTheRequestedSize() throws IOException {
+		try (ExternalMergeSorter<Line> sorter = sorter(10)) {
+			for (int i = 0; i < 25; i++) {
+				sorter.addAll(List.of(new Line("ORD-" + i % 3, i)));
+			}
+
+			List<Integer> sizes = new ArrayList<>();
+			sorter.drainTo(10, batch -> sizes.add(batch.size()));
+
+			assertEquals(List.of(10, 10, 5), sizes);
+		}
+	}
+
+	private ExternalMergeSorter<Line> sorter(int maxRowsInMemory) {
+		return new ExternalMergeSorter<>(Line.class, Comparator.comparing(Line::order), objectMapper,
+				dir, maxRowsInMemory);
+	}
+
+	private static List<Line> drain(ExternalMergeSorter<Line> sorter, int batchSize) throws IOException {
+		List<Line> out = new ArrayList<>();
+		sorter.drainTo(batchSize, out::addAll);
+		return out;
+	}
+
+	private long runFiles() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.dataloader.util;
+
+import com.dataloader.util.FileSegments.Range;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSegmentsTest {
+
+	private static final String HEADER = "customer_code,name\n";
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void smallFileIsOneRange() throws IOException {
+		Path file = write(HEADER + "C-1,Ann\nC-2,Bob\n");
+
+		assertEquals(List.of(new Range(0, Files.size(file), 0)), FileSegments.split(file, 1024));
+	}
+
+	@Test
+	void rangesCoverTheFileAndCutOnlyAtRecordEnds() throws IOException {
+		StringBuilder csv = new StringBuilder(HEADER);
+		for (int i = 0; i < 200; i++) csv.append("C-").append(i).append(",Name ").append(i).append('\n');
+		Path file = write(csv.toString());
+		byte[] bytes = Files.readAllBytes(file);
+
+		List<Range> ranges = FileSegments.split(file, 500);
+
+		assertTrue(ranges.size() > 1);
+		assertEquals(0, ranges.get(0).start());
+		assertEquals(bytes.length, ranges.get(ranges.size() - 1).end());
+		for (int i = 1; i < ranges.size(); i++) {
+			Range range = ranges.get(i);
+			assertEquals(ranges.get(i - 1).end(), range.start());
+			assertEquals('\n', bytes[(int) range.start() - 1]);
+			assertTrue(range.start() >= 500L * i, "cut before its target at " + range.start());
+		}
+	}
+
+	@Test
+	void firstRowCountsTheDataRowsBeforeEachRange() throws IOException {
+		StringBuilder csv = new StringBuilder(HEADER);
+		for (int i = 0; i < 100; i++) csv.append("C-").append(i).append(",N\n");
+		Path file = write(csv.toString());
+
+		for (Range range : FileSegments.split(file, 100)) {
+			String first = read(FileSegments.open(file, range)).split("\n")[1];
+			assertEquals("C-" + range.firstRow() + ",N", first);
+		}
+	}
+
+	@Test
+	void newlinesInsideQuotesAreNotCut() throws IOException {
+		StringBuilder csv = new StringBuilder(HEADER);
+		for (int i = 0; i < 50; i++) csv.append("C-").append(i).append(",\"line one\nline two\"\n");
+		Path file = write(csv.toString());
+
+		List<Range> ranges = FileSegments.split(file, 64);
+
+		for (Range range : ranges) {
+			String[] records = read(FileSegments.open(file, range)).split("\"\n");
+			for (int r = 0; r < records.length; r++) {
+				String record = r == 0 ? records[r].substring(HEADER.length()) : records[r];
+				assertTrue(record.startsWith("C-" + (range.firstRow() + r) + ","), record);
+			}
+		}
+	}
+
+	@Test
+	void everyRangeAfterTheFirstStartsWithTheHeader() throws IOException {
+		StringBuilder csv = new StringBuilder(HEADER);
+		for (int i = 0; i < 100; i++) csv.append("C-").append(i).append(",N\n");
+		Path file = write(csv.toString());
+
+		StringBuilder rejoined = new StringBuilder();
+		for (Range range : FileSegments.split(file, 200)) {
+			String text = read(FileSegments.open(file, range));
+			assertTrue(text.startsWith(HEADER));
+			rejoined.append(text.substring(HEADER.length()));
+		}
+		assertEquals(csv.substring(HEADER.length()), rejoined.toString());
+	}
+
+	@Test
+	void blankLinesAndCrLfAreNotCountedAsRows() throws IOException {
+		StringBuilder csv = new StringBuilder("customer_code,name\r\n");
+		for (int i = 0; i < 40; i++) {
+			csv.append("C-").append(i).append(",N\r\n");
+			if (i % 10 == 0) csv.append("\r\n");
+		}
+		Path file = write(csv.toString());
+
+		List<Range> ranges = FileSegments.split(file, 50);
+
+		for (Range range : ranges) {
+			String[] lines = read(FileSegments.open(file, range)).split("\r\n");
+			String first = lines[1].isEmpty() ? lines[2] : lines[1];
+			assertEquals("C-" + range.firstRow() + ",N", first);
+		}
+	}
+
+	private Path write(String content) throws IOException {
+		return Files.writeString(dir.resolve("upload.csv"), content, StandardCharsets.UTF_8);
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try (in) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.dataloader.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyPartitionLockerTest {
+
+	@Test
+	void disjointJobsTakeDisjointLocks() {
+		List<String> jobA = keys(0, 5000);
+		List<String> jobB = keys(5000, 10000);
+
+		Set<Integer> locksA = new HashSet<>(Arrays.asList(KeyPartitionLocker.lockIds(jobA)));
+		Set<Integer> locksB = new HashSet<>(Arrays.asList(KeyPartitionLocker.lockIds(jobB)));
+
+		assertEquals(5000, locksA.size());
+		locksA.retainAll(locksB);
+		assertTrue(locksA.isEmpty(), "disjoint batches share locks " + locksA);
+	}
+
+	@Test
+	void overlappingJobsShareTheCommonKeys() {
+		Set<Integer> locksA = new HashSet<>(Arrays.asList(KeyPartitionLocker.lockIds(keys(0, 100))));
+		Set<Integer> locksB = new HashSet<>(Arrays.asList(KeyPartitionLocker.lockIds(keys(90, 200))));
+
+		locksA.retainAll(locksB);
+		assertEquals(10, locksA.size());
+	}
+
+	@Test
+	void lockIdsAreSortedDistinctAndTrimmed() {
+		Integer[] ids = KeyPartitionLocker.lockIds(Arrays.asList("C-2", " C-1 ", "C-1", null, "C-2"));
+
+		Integer[] expected = {KeyPartitionLocker.lockIdOf("C-1"), KeyPartitionLocker.lockIdOf("C-2")};
+		Arrays.sort(expected);
+		assertArrayEquals(expected, ids);
+	}
+
+	@Test
+	void batchPastTheCapTakesOneSpaceLock() throws Exception {
+		RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+		KeyPartitionLocker locker = locker(jdbc, 256);
+
+		locker.lockKeys(KeyPartitionLocker.LockSpace.CUSTOMERS, keys(0, 5000));
+
+		assertEquals(List.of("SELECT pg_advisory_xact_lock(?::bigint)"), jdbc.statements);
+	}
+
+	@Test
+	void batchWithinTheCapLocksItsKeysUnderTheSharedSpaceLock() throws Exception {
+		RecordingJdbcTemplate jdbc = new RecordingJdbcTemplate();
+		KeyPartitionLocker locker = locker(jdbc, 256);
+
+		locker.lockKeys(KeyPartitionLocker.LockSpace.CUSTOMERS, keys(0, 256));
+
+		assertEquals(List.of("SELECT pg_advisory_xact_lock_shared(?::bigint)", "key locks"), jdbc.statements);
+	}
+
+	private static KeyPartitionLocker locker(JdbcTemplate jdbc, int maxKeys) throws Exception {
+		KeyPartitionLocker locker = new KeyPartitionLocker(jdbc);
+		set(locker, "enabled", true);
+		set(locker, "maxKeysPerTransaction", maxKeys);
+		return locker;
+	}
+
+	private static void set(Object target, String name, Object value) throws Exception {
+		Field field = target.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(target, value);
+	}
+
+	/** Records the lock statements instead of running them. */
+	private static class RecordingJdbcTemplate extends JdbcTemplate {
+
+		final List<String> statements = new ArrayList<>();
+
+		@Override
+		public void query(String sql, RowCallbackHandler rch, Object... args) {
+			statements.add(sql);
+		}
+
+		@Override
+		public void query(PreparedStatementCreator psc, RowCallbackHandler rch) {
+			statements.add("key locks");
+		}
+	}
+
+	private static List<String> keys(int from, int to) {
+		return IntStream.range(from, to)
+				.mapToObj(i -> String.format("CUST-%06d", i))
+				.collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,97 @@
+package com.dataloader.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OffHeapCodeDictionaryTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void storesAndOverwritesValues() {
+		OffHeapCodeDictionary dictionary = new OffHeapCodeDictionary(4, 16);
+		dictionary.put("CUST-1", 10);
+		dictionary.put("CUST-2", 20);
+		dictionary.put("CUST-1", 11);
+
+		assertEquals(11, dictionary.get("CUST-1"));
+		assertEquals(20, dictionary.get("CUST-2"));
+		assertEquals(OffHeapCodeDictionary.MISSING, dictionary.get("CUST-3"));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	void growsPastItsInitialCapacity() {
+		OffHeapCodeDictionary dictionary = new OffHeapCodeDictionary(2, 16);
+		for (int i = 0; i < 50_000; i++) {
+			dictionary.put("PROD-" + i, i);
+		}
+
+		assertEquals(50_000, dictionary.size());
+		for (int i = 0; i < 50_000; i++) {
+			assertEquals(i, dictionary.get("PROD-" + i));
+		}
+	}
+
+	@Test
+	void handlesMultiByteCodes() {
+		OffHeapCodeDictionary dictionary = new OffHeapCodeDictionary(1, 16);
+		dictionary.put("KÄSE-ü", 7);
+
+		assertEquals(7, dictionary.get("KÄSE-ü"));
+		assertEquals(OffHeapCodeDictionary.MISSING, dictionary.get("KASE-u"));
+	}
+
+	@Test
+	void snapshotRoundTripKeepsEveryEntryAndAcceptsNewOnes() throws IOException {
+		OffHeapCodeDictionary dictionary = new OffHeapCodeDictionary(8, 16);
+		for (int i = 0; i < 10_000; i++) {
+			dictionary.put("CUST-" + i, 1_000_000L + i);
+		}
+		Path file = dir.resolve("customer.dict");
+		dictionary.writeSnapshot(file, "db-1;10000;CUST-9999");
+		byte[] written = Files.readAllBytes(file);
+
+		assertEquals("db-1;10000;CUST-9999", OffHeapCodeDictionary.readSnapshotOrigin(file));
+		OffHeapCodeDictionary loaded = OffHeapCodeDictionary.loadSnapshot(file, "db-1;10000;CUST-9999");
+		assertEquals(10_000, loaded.size());
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(1_000_000L + i, loaded.get("CUST-" + i));
+		}
+
+		// Copy-on-write mapping: puts after loading never reach the file
+		for (int i = 10_000; i < 20_000; i++) {
+			loaded.put("CUST-" + i, i);
+		}
+		assertEquals(20_000, loaded.size());
+		assertEquals(15_000, loaded.get("CUST-15000"));
+		assertArrayEquals(written, Files.readAllBytes(file));
+	}
+
+	@Test
+	void refusesASnapshotFromAnotherOrigin() throws IOException {
+		OffHeapCodeDictionary dictionary = new OffHeapCodeDictionary(1, 16);
+		dictionary.put("CUST-1", 1);
+		Path file = dir.resolve("customer.dict");
+		dictionary.writeSnapshot(file, "db-1;1;CUST-1");
+
+		assertThrows(IOException.class, () -> OffHeapCodeDictionary.loadSnapshot(file, "db-2;1;CUST-1"));
+	}
+
+	@Test
+	void refusesAFileThatIsNotASnapshot() throws IOException {
+		Path file = dir.resolve("garbage.dict");
+		Files.write(file, new byte[64]);
+
+		assertThrows(IOException.class, () -> OffHeapCodeDictionary.readSnapshotOrigin(file));
+	}
+}
@@ -0,0 +1,74 @@
+package com.dataloader.util;
+
+import com.dataloader.util.OrderLineDiff.Line;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderLineDiffTest {
+
+	private static Line line(long orderId, long productId, int quantity) {
+		return new Line(orderId, productId, quantity, new BigDecimal("10.00"), BigDecimal.ZERO.setScale(2));
+	}
+
+	/** Apply a diff the way the order item sync writes it. */
+	private static List<Line> apply(List<Line> stored, OrderLineDiff diff) {
+		List<Line> result = new ArrayList<>(stored);
+		for (Line write : diff.writes()) {
+			result.removeIf(l -> l.orderId() == write.orderId() && l.productId() == write.productId());
+			result.add(write);
+		}
+		result.removeAll(diff.removals());
+		return result;
+	}
+
+	@Test
+	void oneOrderLoadedInTwoCallsKeepsEveryItem() {
+		List<Line> stored = List.of();
+
+		// First call: lines of order 1 up to the batch boundary
+		List<Line> first = List.of(line(1, 100, 1), line(1, 101, 2));
+		stored = apply(stored, OrderLineDiff.of(first, stored, Set.of()));
+
+		// Second call: the rest of order 1
+		List<Line> second = List.of(line(1, 102, 3), line(1, 103, 4));
+		stored = apply(stored, OrderLineDiff.of(second, stored, Set.of()));
+
+		assertEquals(4, stored.size());
+		assertTrue(stored.containsAll(first));
+		assertTrue(stored.containsAll(second));
+	}
+
+	@Test
+	void unchangedLinesAreNotWrittenAgain() {
+		List<Line> stored = List.of(line(1, 100, 1), line(1, 101, 2));
+
+		OrderLineDiff diff = OrderLineDiff.of(List.of(line(1, 100, 1), line(1, 101, 5)), stored, Set.of(1L));
+
+		assertEquals(List.of(line(1, 101, 5)), diff.writes());
+		assertTrue(diff.removals().isEmpty());
+	}
+
+	@Test
+	void onlyCompleteOrdersLoseMissingLines() {
+		List<Line> stored = List.of(line(1, 100, 1), line(1, 101, 2), line(2, 100, 1), line(2, 101, 2));
+
+		OrderLineDiff diff = OrderLineDiff.of(List.of(line(1, 100, 1), line(2, 100, 1)), stored, Set.of(1L));
+
+		assertEquals(List.of(line(1, 101, 2)), diff.removals());
+	}
+
+	@Test
+	void repeatedProductKeepsTheLastLine() {
+		OrderLineDiff diff = OrderLineDiff.of(List.of(line(1, 100, 1), line(1, 101, 1), line(1, 100, 7)),
+				List.of(), Set.of(1L));
+
+		assertEquals(List.of(line(1, 101, 1), line(1, 100, 7)), diff.writes());
+	}
+}
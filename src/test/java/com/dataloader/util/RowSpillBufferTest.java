@@ -0,0 +1,96 @@
+package com.dataloader.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowSpillBufferTest {
+
+	record Parked(String order, String customer) {}
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void replaysRowsInAppendOrderAndDeletesTheFile() throws IOException {
+		try (RowSpillBuffer<Parked> buffer = new RowSpillBuffer<>(Parked.class, objectMapper, dir)) {
+			buffer.append(List.of(new Parked("ORD-1", "C-1"), new Parked("ORD-2", "C-2")));
+			buffer.append(List.of());
+			buffer.append(List.of(new Parked("ORD-3", "C-1")));
+			assertEquals(3, buffer.size());
+			assertEquals(1, files());
+
+			List<List<Parked>> batches = new ArrayList<>();
+			buffer.drainTo(2, batches::add);
+
+			assertEquals(List.of(
+					List.of(new Parked("ORD-1", "C-1"), new Parked("ORD-2", "C-2")),
+					List.of(new Parked("ORD-3", "C-1"))), batches);
+			assertEquals(0, buffer.size());
+			assertEquals(0, files());
+		}
+	}
+
+	@Test
+	void drainingAnEmptyBufferDoesNothing() throws IOException {
+		try (RowSpillBuffer<Parked> buffer = new RowSpillBuffer<>(Parked.class, objectMapper, dir)) {
+			List<Parked> out = new ArrayList<>();
+			buffer.drainTo(10, out::addAll);
+
+			assertTrue(out.isEmpty());
+			assertEquals(0, files());
+		}
+	}
+
+	@Test
+	void concurrentAppendsKeepEveryRow() throws Exception {
+		try (RowSpillBuffer<Parked> buffer = new RowSpillBuffer<>(Parked.class, objectMapper, dir)) {
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			for (int t = 0; t < 4; t++) {
+				String customer = "C-" + t;
+				pool.submit(() -> {
+					for (int i = 0; i < 250; i++) buffer.append(List.of(new Parked("ORD-" + i, customer)));
+				});
+			}
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+			List<Parked> out = new ArrayList<>();
+			buffer.drainTo(100, out::addAll);
+			assertEquals(1_000, out.size());
+			assertEquals(250, out.stream().filter(p -> p.customer().equals("C-2")).count());
+		}
+	}
+
+	@Test
+	void closeDeletesAnUndrainedFile() throws IOException {
+		RowSpillBuffer<Parked> buffer = new RowSpillBuffer<>(Parked.class, objectMapper, dir);
+		buffer.append(List.of(new Parked("ORD-1", "C-1")));
+		assertEquals(1, files());
+
+		buffer.close();
+
+		assertEquals(0, files());
+	}
+
+	private long files() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+}